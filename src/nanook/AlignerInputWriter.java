@@ -0,0 +1,66 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * Writes a batch of reads to an aligner's stdin. Runs in its own thread so
+ * the aligner's output can be read at the same time without either side
+ * blocking on a full pipe.
+ *
+ * @author Richard Leggett
+ */
+public class AlignerInputWriter implements Runnable {
+    private NanoOKOptions options;
+    private AlignmentBatcher batcher;
+    private OutputStream stream;
+    private ArrayList<String> batch;
+    private ArrayList<FastAQFile> reads;
+    private Hashtable<String, Integer> readFiles;
+
+    /**
+     * Constructor
+     * @param o program options
+     * @param b batcher
+     * @param s aligner stdin
+     * @param f list of read files
+     * @param r in-memory reads, null entries for reads on disk
+     * @param rf filled in with index into batch for each read ID
+     */
+    public AlignerInputWriter(NanoOKOptions o, AlignmentBatcher b, OutputStream s, ArrayList<String> f, ArrayList<FastAQFile> r, Hashtable<String, Integer> rf) {
+        options = o;
+        batcher = b;
+        stream = s;
+        batch = f;
+        reads = r;
+        readFiles = rf;
+    }
+
+    public void run() {
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream)));
+
+        try {
+            batcher.writeReads(pw, batch, reads, readFiles);
+        } catch (IOException e) {
+            options.getLog().warn("Warning: couldn't write reads to aligner: "+e);
+        }
+
+        pw.close();
+
+        if (pw.checkError()) {
+            options.getLog().warn("Warning: aligner didn't accept all reads");
+        }
+    }
+}
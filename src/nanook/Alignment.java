@@ -29,24 +29,33 @@ public class Alignment implements Comparable {
     private int hitAlignmentSize;
     private int hitEnd;
     private String hitStrand;
-    private String queryString;
-    private String hitString;
+    private AlignmentDifferences differences;
     boolean fIsCIGAR;
     
+    /**
+     * Constructor for an alignment given as gapped strings. The strings are
+     * converted to AlignmentDifferences and not kept.
+     */
     public Alignment(int s, String qName, int qSize, int qStart, int qAlnSize, String qs, String hName, int hSize, int hStart, int hAlnSize, String hs, boolean cigar) {
+        this(s, qName, qSize, qStart, qAlnSize, new AlignmentDifferences(qs, hs), hName, hSize, hStart, hAlnSize, cigar);
+    }
+
+    /**
+     * Constructor for an alignment held as runs of differences
+     */
+    public Alignment(int s, String qName, int qSize, int qStart, int qAlnSize, AlignmentDifferences d, String hName, int hSize, int hStart, int hAlnSize, boolean cigar) {
         score = s;
         queryName = qName;
         querySequenceSize = qSize;
         queryStart = qStart;
         queryAlignmentSize = qAlnSize;
         queryEnd = qStart + qAlnSize - 1;
-        queryString = qs;
         hitName = hName;
         hitSequenceSize = hSize;
         hitStart = hStart;
         hitAlignmentSize = hAlnSize;
         hitEnd = hStart + hAlnSize - 1;
-        hitString = hs;
+        differences = d;
         fIsCIGAR = cigar;
         queryStrand = "+";
         hitStrand = "+";
@@ -92,8 +101,12 @@ public class Alignment implements Comparable {
         return queryEnd;
     }
     
+    /**
+     * Get gapped query string. This is built each time, so only for output.
+     * @return gapped query
+     */
     public String getQueryString() {
-        return queryString;
+        return differences.getQueryString();
     }
 
     public String getHitName() {
@@ -116,20 +129,34 @@ public class Alignment implements Comparable {
         return hitEnd;
     }
     
-    public String getHitString() {
-        return hitString;
+    /**
+     * Get gapped hit string. This is built each time, from the reference, so
+     * only for output.
+     * @param store reference sequences
+     * @return gapped hit
+     */
+    public String getHitString(ReferenceSequenceStore store) {
+        return differences.getHitString(store.getSubSequence(hitName, hitStart, hitStart + hitAlignmentSize - 1));
     }    
     
+    /**
+     * Get alignment columns
+     * @return differences between query and hit
+     */
+    public AlignmentDifferences getDifferences() {
+        return differences;
+    }
+    
     public boolean isCIGAR() {
         return fIsCIGAR;
     }
     
-    public void writeMafFile(String filename) {
+    public void writeMafFile(String filename, ReferenceSequenceStore store) {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename)); 
-            pw.printf("s %24s %5d %5d %s %5d %s", hitName, hitStart, hitAlignmentSize, hitStrand, hitSequenceSize, hitString);
+            pw.printf("s %24s %5d %5d %s %5d %s", hitName, hitStart, hitAlignmentSize, hitStrand, hitSequenceSize, getHitString(store));
             pw.println("");
-            pw.printf("s %24s %5d %5d %s %5d %s", queryName, queryStart, queryAlignmentSize, queryStrand, querySequenceSize, queryString);
+            pw.printf("s %24s %5d %5d %s %5d %s", queryName, queryStart, queryAlignmentSize, queryStrand, querySequenceSize, getQueryString());
             pw.println("");
             pw.close();
         } catch (IOException e) {
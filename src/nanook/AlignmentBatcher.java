@@ -0,0 +1,385 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * Gathers read files into batches, so the aligner can be run once per batch
+ * rather than once per read (avoiding reloading the index each time). A batch
+ * is released when it reaches getAlignBatchSize reads or its oldest read has
+ * waited getAlignBatchTime seconds. Batch alignment output is split back into
+ * the same per-read alignment files that aligning one read at a time produces.
+ * When streaming, reads held in memory are piped straight to the aligner, and
+ * unless per-read files are wanted the batch output is kept whole instead.
+ *
+ * @author Richard Leggett
+ */
+public class AlignmentBatcher {
+    private NanoOKOptions options;
+    private ArrayList<String> pendingReads = new ArrayList<String>();
+    private Hashtable<String, FastAQFile> pendingReadData = new Hashtable<String, FastAQFile>();
+    private long oldestReadTime = 0;
+    private int batchCounter = 0;
+
+    /**
+     * Constructor
+     * @param o program options
+     */
+    public AlignmentBatcher(NanoOKOptions o) {
+        options = o;
+    }
+
+    /**
+     * Take all pending reads as a batch.
+     * @return list of read files
+     */
+    private ArrayList<String> takeBatch() {
+        ArrayList<String> batch = pendingReads;
+        pendingReads = new ArrayList<String>();
+        return batch;
+    }
+
+    /**
+     * Add a read file to the current batch.
+     * @param fastaqPathname read file
+     * @return batch of read files to align if the batch is now full, otherwise null
+     */
+    public ArrayList<String> addRead(String fastaqPathname) {
+        return addRead(fastaqPathname, null);
+    }
+
+    /**
+     * Add a read to the current batch.
+     * @param fastaqPathname read file
+     * @param read read held in memory, or null to read it from fastaqPathname
+     * @return batch of read files to align if the batch is now full, otherwise null
+     */
+    public synchronized ArrayList<String> addRead(String fastaqPathname, FastAQFile read) {
+        if (pendingReads.size() == 0) {
+            oldestReadTime = System.nanoTime();
+        }
+
+        pendingReads.add(fastaqPathname);
+        if (read != null) {
+            pendingReadData.put(fastaqPathname, read);
+        }
+
+        if (pendingReads.size() >= options.getAlignBatchSize()) {
+            return takeBatch();
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the current batch if it has waited long enough.
+     * @param force true to release any pending reads regardless of time
+     * @return batch of read files to align, or null if none due
+     */
+    public synchronized ArrayList<String> getDueBatch(boolean force) {
+        if (pendingReads.size() == 0) {
+            return null;
+        }
+
+        if (force || (((System.nanoTime() - oldestReadTime) / 1000000000) >= options.getAlignBatchTime())) {
+            return takeBatch();
+        }
+
+        return null;
+    }
+
+    /**
+     * Take the in-memory reads for a batch.
+     * @param batch list of read files
+     * @return read for each file, or null where the read is on disk
+     */
+    public synchronized ArrayList<FastAQFile> takeReads(ArrayList<String> batch) {
+        ArrayList<FastAQFile> reads = new ArrayList<FastAQFile>();
+
+        for (int i=0; i<batch.size(); i++) {
+            reads.add(pendingReadData.remove(batch.get(i)));
+        }
+
+        return reads;
+    }
+
+    /**
+     * Check if any reads are waiting to be put into a batch.
+     * @return true if reads are pending
+     */
+    public synchronized boolean hasPendingReads() {
+        return pendingReads.size() > 0;
+    }
+
+    /**
+     * Get a unique prefix for the files of a new batch.
+     * @return pathname prefix, without extension
+     */
+    public synchronized String getNextBatchPrefix() {
+        File dir = new File(options.getAlignerDir() + "_batches");
+
+        if (!dir.exists()) {
+            options.getLog().println("Making directory " + dir.getPath());
+            dir.mkdirs();
+        }
+
+        batchCounter++;
+
+        return dir.getPath() + File.separator + "batch_" + batchCounter;
+    }
+
+    /**
+     * Write all reads of a batch to a stream, noting which read file each read ID
+     * came from. Reads held in memory are written directly, others are copied
+     * from their files.
+     * @param pw stream to write to
+     * @param batch list of read files
+     * @param reads in-memory reads for batch, null entries for reads on disk
+     * @param readFiles filled in with index into batch for each read ID
+     */
+    public void writeReads(PrintWriter pw, ArrayList<String> batch, ArrayList<FastAQFile> reads, Hashtable<String, Integer> readFiles) throws IOException {
+        for (int i=0; i<batch.size(); i++) {
+            FastAQFile read = reads.get(i);
+
+            if (read != null) {
+                readFiles.put(read.getID().split("\\s+")[0], i);
+                if (options.getReadFormat() == NanoOKOptions.FASTA) {
+                    read.writeFastaToHandle(pw, null);
+                } else {
+                    read.writeFastqToHandle(pw);
+                }
+                continue;
+            }
+
+            BufferedReader br = new BufferedReader(new FileReader(batch.get(i)));
+            String line;
+            int lineNumber = 0;
+            boolean isFastq = false;
+
+            while ((line = br.readLine()) != null) {
+                if (lineNumber == 0) {
+                    isFastq = line.startsWith("@");
+                }
+
+                if ((isFastq && ((lineNumber % 4) == 0)) || (!isFastq && line.startsWith(">"))) {
+                    readFiles.put(line.substring(1).split("\\s+")[0], i);
+                }
+
+                pw.println(line);
+                lineNumber++;
+            }
+
+            br.close();
+        }
+    }
+
+    /**
+     * Write all reads of a batch to one file.
+     * @param batch list of read files
+     * @param reads in-memory reads for batch, null entries for reads on disk
+     * @param chunkPathname file to write
+     * @param readFiles filled in with index into batch for each read ID
+     */
+    public void writeChunk(ArrayList<String> batch, ArrayList<FastAQFile> reads, String chunkPathname, Hashtable<String, Integer> readFiles) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(chunkPathname));
+            writeReads(pw, batch, reads, readFiles);
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("writeChunk exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run the aligner on a batch, piping reads to its stdin from a separate
+     * thread and reading alignments from its stdout, so that neither goes
+     * through a file. Aligner stderr goes to the log file.
+     * @param command aligner command, reading query from /dev/stdin
+     * @param batch list of read files
+     * @param reads in-memory reads for batch, null entries for reads on disk
+     * @param logPathname aligner log file
+     * @param isMaf true if aligner writes MAF, false for SAM
+     * @param copyPathname file to copy the aligner output to as it is read, or null
+     * @return alignment lines for each read in batch
+     */
+    public ArrayList<ArrayList<String>> streamAlignments(String command, ArrayList<String> batch, ArrayList<FastAQFile> reads, String logPathname, boolean isMaf, String copyPathname) {
+        Hashtable<String, Integer> readFiles = new Hashtable<String, Integer>();
+        ArrayList<ArrayList<String>> alignments = null;
+        PrintWriter copy = null;
+
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command.trim().split("\\s+"));
+            pb.redirectError(new File(logPathname));
+            Process p = pb.start();
+            Thread writer = new Thread(new AlignerInputWriter(options, this, p.getOutputStream(), batch, reads, readFiles));
+            writer.start();
+
+            BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            if (copyPathname != null) {
+                copy = new PrintWriter(new FileWriter(copyPathname));
+            }
+            alignments = splitAlignments(br, readFiles, batch.size(), isMaf, command, copy);
+            br.close();
+            if (copy != null) {
+                copy.close();
+            }
+
+            writer.join();
+            int exitValue = p.waitFor();
+            if (exitValue != 0) {
+                options.getLog().warn("Warning: aligner exited with value "+exitValue+" - see "+logPathname);
+            }
+        } catch (Exception e) {
+            System.out.println("streamAlignments exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        return alignments;
+    }
+
+    /**
+     * Split SAM or MAF output from a batch by read. Header lines are copied
+     * to every read.
+     * @param br alignment output for whole batch
+     * @param readFiles index into batch for each read ID
+     * @param nReads number of reads in batch
+     * @param isMaf true for MAF, false for SAM
+     * @param source name of output, for warnings
+     * @param copy stream to copy every line to, or null
+     * @return alignment lines for each read in batch
+     */
+    public ArrayList<ArrayList<String>> splitAlignments(BufferedReader br, Hashtable<String, Integer> readFiles, int nReads, boolean isMaf, String source, PrintWriter copy) throws IOException {
+        ArrayList<ArrayList<String>> alignments = new ArrayList<ArrayList<String>>();
+        ArrayList<String> block = new ArrayList<String>();
+        String blockQuery = null;
+        int sLines = 0;
+        String line;
+
+        for (int i=0; i<nReads; i++) {
+            alignments.add(new ArrayList<String>());
+        }
+
+        while ((line = br.readLine()) != null) {
+            if (copy != null) {
+                copy.println(line);
+            }
+            
+            if (isMaf) {
+                if (line.startsWith("#")) {
+                    for (int i=0; i<nReads; i++) {
+                        alignments.get(i).add(line);
+                    }
+                } else if (line.length() == 0) {
+                    addBlock(block, blockQuery, readFiles, alignments);
+                    block.clear();
+                    blockQuery = null;
+                    sLines = 0;
+                } else {
+                    // Second s line of a block is the query
+                    if (line.startsWith("s ")) {
+                        sLines++;
+                        if (sLines == 2) {
+                            blockQuery = line.split("\\s+")[1];
+                        }
+                    }
+                    block.add(line);
+                }
+            } else {
+                if (line.startsWith("@")) {
+                    for (int i=0; i<nReads; i++) {
+                        alignments.get(i).add(line);
+                    }
+                } else {
+                    int tab = line.indexOf('\t');
+                    Integer index = readFiles.get(tab > 0 ? line.substring(0, tab) : line);
+                    if (index != null) {
+                        alignments.get(index).add(line);
+                    } else {
+                        options.getLog().warn("Warning: alignment for unknown read in "+source);
+                    }
+                }
+            }
+        }
+
+        addBlock(block, blockQuery, readFiles, alignments);
+
+        return alignments;
+    }
+
+    /**
+     * Split a SAM or MAF file from a batch into per-read files.
+     * @param batchAlignmentPathname alignment output for whole batch
+     * @param readFiles index into alignmentPathnames for each read ID
+     * @param alignmentPathnames per-read alignment files to write
+     */
+    public void splitAlignments(String batchAlignmentPathname, Hashtable<String, Integer> readFiles, ArrayList<String> alignmentPathnames) {
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(batchAlignmentPathname));
+            ArrayList<ArrayList<String>> alignments = splitAlignments(br, readFiles, alignmentPathnames.size(), batchAlignmentPathname.endsWith(".maf"), batchAlignmentPathname, null);
+            br.close();
+            writeAlignments(alignments, alignmentPathnames);
+        } catch (IOException e) {
+            System.out.println("splitAlignments exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write alignment lines for each read to its own file.
+     * @param alignments alignment lines for each read
+     * @param alignmentPathnames per-read alignment files to write
+     */
+    public void writeAlignments(ArrayList<ArrayList<String>> alignments, ArrayList<String> alignmentPathnames) {
+        try {
+            for (int i=0; i<alignmentPathnames.size(); i++) {
+                PrintWriter pw = new PrintWriter(new FileWriter(alignmentPathnames.get(i)));
+                ArrayList<String> lines = alignments.get(i);
+                for (int j=0; j<lines.size(); j++) {
+                    pw.println(lines.get(j));
+                }
+                pw.close();
+            }
+        } catch (IOException e) {
+            System.out.println("writeAlignments exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Add a MAF alignment block to the lines for its query.
+     */
+    private void addBlock(ArrayList<String> block, String query, Hashtable<String, Integer> readFiles, ArrayList<ArrayList<String>> alignments) {
+        if (block.size() == 0) {
+            return;
+        }
+
+        Integer index = query == null ? null : readFiles.get(query);
+
+        if (index == null) {
+            options.getLog().warn("Warning: alignment block for unknown read "+query);
+            return;
+        }
+
+        alignments.get(index).addAll(block);
+        alignments.get(index).add("");
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Set;
+
+/**
+ * Parses the alignments in one byte range of a multi-read alignment file,
+ * so that a large file can be parsed by several threads at once. Each read
+ * is parsed in this thread, except the first and last reads of the range.
+ * Their alignments may continue in the neighbouring ranges, so they are
+ * kept for ReadSet to join up and parse once all ranges are done.
+ *
+ * @author Richard Leggett
+ */
+public class AlignmentChunkParser implements Runnable {
+    public final static long MIN_CHUNK_SIZE = 16 * 1024 * 1024;
+    private NanoOKOptions options;
+    private ReadSetStats stats;
+    private String readFile;
+    private String alignmentFile;
+    private long start;
+    private long end;
+    private int type;
+    private AlignmentsTableFile nonAlignedSummary;
+    private Hashtable<String, ReferenceSequence> readReferences;
+    private Set<String> seenQueries;
+    private ArrayList<String> edgeQueries = new ArrayList<String>();
+    private ArrayList<ArrayList<String>> edgeGroups = new ArrayList<ArrayList<String>>();
+
+    /**
+     * Constructor
+     * @param o program options
+     * @param s stats to add to
+     * @param rf multi-read FASTA/FASTQ file
+     * @param af multi-read alignment file
+     * @param st start offset of range
+     * @param e end offset of range (exclusive)
+     * @param t type
+     * @param nas summary of reads without alignments
+     * @param rr filled in with reference for each read ID
+     * @param sq read IDs already parsed, shared between all ranges
+     */
+    public AlignmentChunkParser(NanoOKOptions o, ReadSetStats s, String rf, String af, long st, long e, int t, AlignmentsTableFile nas, Hashtable<String, ReferenceSequence> rr, Set<String> sq) {
+        options = o;
+        stats = s;
+        readFile = rf;
+        alignmentFile = af;
+        start = st;
+        end = e;
+        type = t;
+        nonAlignedSummary = nas;
+        readReferences = rr;
+        seenQueries = sq;
+    }
+
+    /**
+     * Parse the alignments for one read.
+     * @param query read ID
+     * @param group alignment lines
+     */
+    public void parseGroup(String query, ArrayList<String> group) {
+        if (!seenQueries.add(query)) {
+            System.out.println("");
+            System.out.println("Error: Alignments for read "+query+" aren't together in "+alignmentFile+" - sort it by read name first");
+            System.exit(1);
+        }
+
+        new ParserRunnable(options, stats, readFile, alignmentFile, query, group, type, NanoOKOptions.READTYPE_COMBINED, nonAlignedSummary, readReferences).run();
+    }
+
+    /**
+     * Get reads at the start and end of the range, which haven't been parsed.
+     * @return read IDs, in file order
+     */
+    public ArrayList<String> getEdgeQueries() {
+        return edgeQueries;
+    }
+
+    /**
+     * Get alignments for the reads returned by getEdgeQueries.
+     * @return alignment lines for each read
+     */
+    public ArrayList<ArrayList<String>> getEdgeGroups() {
+        return edgeGroups;
+    }
+
+    public void run() {
+        try {
+            QueryGroupedAlignmentReader alignments = new QueryGroupedAlignmentReader(alignmentFile, options.getParser().getAlignmentFileExtension().equals(".maf"), options.getAligner().equals("blasr"), start, end);
+            ArrayList<String> group = alignments.nextGroup();
+            String query = alignments.getQuery();
+
+            if (group != null) {
+                edgeQueries.add(query);
+                edgeGroups.add(group);
+
+                // Hold on to each group until we know it isn't the last
+                ArrayList<String> lastGroup = null;
+                String lastQuery = null;
+                while ((group = alignments.nextGroup()) != null) {
+                    if (lastGroup != null) {
+                        parseGroup(lastQuery, lastGroup);
+                    }
+                    lastGroup = group;
+                    lastQuery = alignments.getQuery();
+                }
+
+                if (lastGroup != null) {
+                    edgeQueries.add(lastQuery);
+                    edgeGroups.add(lastGroup);
+                }
+            }
+
+            alignments.close();
+        } catch (IOException e) {
+            System.out.println("");
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.Arrays;
+
+/**
+ * Compact representation of the columns of an alignment, used in place of
+ * gapped query and hit strings. Columns are held as runs, packed like BAM
+ * CIGAR operations (length in the upper 28 bits, operation in the lower 4)
+ * using =, X, I and D only. The aligned query bases are kept ungapped, one
+ * byte each, and the only reference bases kept are those at X and D columns.
+ *
+ * Runs can be built from gapped strings (MAF), from CIGARString, or from
+ * the cs or MD tag of a SAM/BAM record. Tags say which aligned bases match
+ * and give the reference bases at substitutions and deletions, so no
+ * reference sequence needs to be fetched.
+ *
+ * @author Richard Leggett
+ */
+public class AlignmentDifferences {
+    public final static int MATCH = BAMRecord.CIGAR_OPERATIONS.indexOf('=');
+    public final static int SUBSTITUTION = BAMRecord.CIGAR_OPERATIONS.indexOf('X');
+    public final static int INSERTION = BAMRecord.CIGAR_OPERATIONS.indexOf('I');
+    public final static int DELETION = BAMRecord.CIGAR_OPERATIONS.indexOf('D');
+    private String querySeq;
+    private String queryID;
+    private int[] cigarOps;
+    private int[] ops = new int[16];
+    private int nOps = 0;
+    private byte[] queryBases = new byte[16];
+    private int nQueryBases = 0;
+    private byte[] hitBases = new byte[16];
+    private int nHitBases = 0;
+    private int queryStart = 0;
+    private int queryOffset = 0;
+    private int queryAlnSize = 0;
+    private int hitAlnSize = 0;
+    private int columns = 0;
+    private boolean processed = true;
+    private String md;
+    private int mdPos = 0;
+    private int mdMatches = 0;
+
+    /**
+     * Constructor for building up runs with addOperation
+     */
+    public AlignmentDifferences() {
+    }
+
+    /**
+     * Constructor from gapped strings, as in MAF. Columns are classified in
+     * the same way AlignmentMerger always has - bases equal ignoring case
+     * are a match, then a gap in the hit is an insertion and a gap in the
+     * query is a deletion.
+     * @param queryString gapped query
+     * @param hitString gapped hit
+     */
+    public AlignmentDifferences(String queryString, String hitString) {
+        int n = Math.min(queryString.length(), hitString.length());
+
+        // Expect these to be equal
+        if (hitString.length() != queryString.length()) {
+            System.out.println("hitSize not equal to querySize");
+        }
+
+        queryBases = new byte[n];
+
+        for (int i=0; i<n; i++) {
+            char q = queryString.charAt(i);
+            char h = hitString.charAt(i);
+            if (Character.toUpperCase(q) == Character.toUpperCase(h)) {
+                addQueryBase(q);
+                addOperation(1, MATCH);
+            } else if (h == '-') {
+                addQueryBase(q);
+                addOperation(1, INSERTION);
+            } else if (q == '-') {
+                addHitBase(h);
+                addOperation(1, DELETION);
+            } else {
+                addQueryBase(q);
+                addHitBase(h);
+                addOperation(1, SUBSTITUTION);
+            }
+        }
+
+        trim();
+    }
+
+    /**
+     * Constructor for parsing a cs or MD tag
+     * @param qseq query sequence from record
+     * @param qi query ID
+     * @param cigar CIGAR string, or null if ops given
+     * @param ops packed BAM CIGAR operations, or null if cigar given
+     */
+    public AlignmentDifferences(String qseq, String qi, String cigar, int[] ops) {
+        querySeq = qseq;
+        queryID = qi;
+        cigarOps = ops != null ? ops : packCigar(cigar);
+    }
+
+    /**
+     * Convert CIGAR text to packed operations
+     * @param cigar CIGAR string
+     * @return operations, or null if unrecognised operation found
+     */
+    private int[] packCigar(String cigar) {
+        int n = 0;
+        for (int i=0; i<cigar.length(); i++) {
+            if (!Character.isDigit(cigar.charAt(i))) {
+                n++;
+            }
+        }
+
+        int[] packed = new int[n];
+        int value = 0;
+        n = 0;
+        for (int i=0; i<cigar.length(); i++) {
+            char c = cigar.charAt(i);
+            if (Character.isDigit(c)) {
+                value = (value * 10) + (c - '0');
+            } else {
+                int code = BAMRecord.CIGAR_OPERATIONS.indexOf(c);
+                if (code < 0) {
+                    return null;
+                }
+                packed[n++] = (value << 4) | code;
+                value = 0;
+            }
+        }
+
+        return packed;
+    }
+
+    /**
+     * Add a query base. Bases must be added for =, X and I columns.
+     * @param c base
+     */
+    public void addQueryBase(char c) {
+        if (nQueryBases == queryBases.length) {
+            queryBases = Arrays.copyOf(queryBases, (queryBases.length * 2) + 1);
+        }
+        queryBases[nQueryBases++] = (byte)c;
+    }
+
+    /**
+     * Add query bases
+     * @param s sequence to copy from
+     * @param start start offset
+     * @param end end offset (exclusive)
+     */
+    public void addQueryBases(CharSequence s, int start, int end) {
+        if (nQueryBases + (end - start) > queryBases.length) {
+            queryBases = Arrays.copyOf(queryBases, Math.max(queryBases.length * 2, nQueryBases + (end - start)));
+        }
+        for (int i=start; i<end; i++) {
+            queryBases[nQueryBases++] = (byte)s.charAt(i);
+        }
+    }
+
+    /**
+     * Add a reference base. Bases must be added for X and D columns.
+     * @param c base
+     */
+    public void addHitBase(char c) {
+        if (nHitBases == hitBases.length) {
+            hitBases = Arrays.copyOf(hitBases, (hitBases.length * 2) + 1);
+        }
+        hitBases[nHitBases++] = (byte)c;
+    }
+
+    /**
+     * Free unused space once all runs added
+     */
+    public void trim() {
+        ops = Arrays.copyOf(ops, nOps);
+        queryBases = Arrays.copyOf(queryBases, nQueryBases);
+        hitBases = Arrays.copyOf(hitBases, nHitBases);
+    }
+
+    /**
+     * Add a run of columns, joining it to the previous run if the same
+     * @param n number of columns
+     * @param code operation
+     */
+    public void addOperation(int n, int code) {
+        if (n == 0) {
+            return;
+        }
+
+        if ((nOps > 0) && ((ops[nOps - 1] & 0xf) == code)) {
+            ops[nOps - 1] += n << 4;
+        } else {
+            if (nOps == ops.length) {
+                ops = Arrays.copyOf(ops, (ops.length * 2) + 1);
+            }
+            ops[nOps++] = (n << 4) | code;
+        }
+
+        if (code != DELETION) {
+            queryAlnSize += n;
+        }
+        if (code != INSERTION) {
+            hitAlnSize += n;
+        }
+        columns += n;
+    }
+
+    /**
+     * Store clipping from start of CIGAR, which isn't included in tags.
+     * @return index of first CIGAR operation after clipping
+     */
+    private int processClipping() {
+        int i = 0;
+
+        while (i < cigarOps.length) {
+            int n = cigarOps[i] >>> 4;
+            char c = BAMRecord.CIGAR_OPERATIONS.charAt(cigarOps[i] & 0xf);
+            if (c == 'S') {
+                queryOffset += n;
+            } else if (c != 'H') {
+                break;
+            }
+            queryStart += n;
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Check insertion and deletion sizes, as CIGARString does.
+     * @param n size
+     * @param code operation
+     */
+    private void checkIndelSize(int n, int code) {
+        if ((code == INSERTION) && (n > 200) && processed) {
+            System.out.println("");
+            System.out.println("Error: large I ("+n+") - read "+queryID+" ignored");
+            processed = false;
+        } else if ((code == DELETION) && (n > 500)) {
+            System.out.println("Warning: large D ("+n+") on "+ queryID);
+        }
+    }
+
+    /**
+     * Parse a minimap2 cs tag, in short or long form.
+     * @param cs tag value
+     * @return false if tag can't be used, in which case the CIGAR should be used instead
+     */
+    public boolean parseCSTag(String cs) {
+        int cigarQuerySize = 0;
+        int i = 0;
+
+        if (cigarOps == null) {
+            return false;
+        }
+
+        for (int j=processClipping(); j<cigarOps.length; j++) {
+            char c = BAMRecord.CIGAR_OPERATIONS.charAt(cigarOps[j] & 0xf);
+            if ((c == 'M') || (c == 'I') || (c == '=') || (c == 'X')) {
+                cigarQuerySize += cigarOps[j] >>> 4;
+            } else if (c == 'N') {
+                return false;
+            }
+        }
+
+        while (i < cs.length()) {
+            char c = cs.charAt(i++);
+            int j = i;
+
+            switch(c) {
+                case ':':
+                    int n = 0;
+                    while ((j < cs.length()) && Character.isDigit(cs.charAt(j))) {
+                        n = (n * 10) + (cs.charAt(j++) - '0');
+                    }
+                    addOperation(n, MATCH);
+                    break;
+                case '=':
+                    while ((j < cs.length()) && Character.isLetter(cs.charAt(j))) {
+                        j++;
+                    }
+                    addOperation(j - i, MATCH);
+                    break;
+                case '*':
+                    if (i + 2 > cs.length()) {
+                        return false;
+                    }
+                    addHitBase(Character.toUpperCase(cs.charAt(i)));
+                    addOperation(1, SUBSTITUTION);
+                    j = i + 2;
+                    break;
+                case '+':
+                case '-':
+                    while ((j < cs.length()) && Character.isLetter(cs.charAt(j))) {
+                        j++;
+                    }
+                    if (c == '-') {
+                        for (int k=i; k<j; k++) {
+                            addHitBase(Character.toUpperCase(cs.charAt(k)));
+                        }
+                    }
+                    checkIndelSize(j - i, c == '+' ? INSERTION : DELETION);
+                    addOperation(j - i, c == '+' ? INSERTION : DELETION);
+                    break;
+                default:
+                    // Includes ~ for introns
+                    return false;
+            }
+
+            i = j;
+        }
+
+        return (queryAlnSize == cigarQuerySize) && storeQueryBases();
+    }
+
+    /**
+     * Copy aligned part of record's sequence, once tag parsed.
+     * @return false if sequence too short
+     */
+    private boolean storeQueryBases() {
+        if (queryOffset + queryAlnSize > querySeq.length()) {
+            return false;
+        }
+
+        addQueryBases(querySeq, queryOffset, queryOffset + queryAlnSize);
+        querySeq = null;
+        md = null;
+        trim();
+
+        return true;
+    }
+
+    /**
+     * Read a number from the MD tag, if there's one next.
+     */
+    private void readMDNumber() {
+        while ((mdPos < md.length()) && Character.isDigit(md.charAt(mdPos))) {
+            mdMatches = (mdMatches * 10) + (md.charAt(mdPos++) - '0');
+        }
+    }
+
+    /**
+     * Parse an MD tag, which is walked alongside the CIGAR operations.
+     * @param m tag value
+     * @return false if tag can't be used, in which case the CIGAR should be used instead
+     */
+    public boolean parseMDTag(String m) {
+        md = m;
+
+        if (cigarOps == null) {
+            return false;
+        }
+
+        for (int j=processClipping(); j<cigarOps.length; j++) {
+            int n = cigarOps[j] >>> 4;
+            char c = BAMRecord.CIGAR_OPERATIONS.charAt(cigarOps[j] & 0xf);
+
+            switch(c) {
+                case 'M':
+                case '=':
+                case 'X':
+                    while (n > 0) {
+                        readMDNumber();
+                        if (mdMatches > 0) {
+                            int k = Math.min(n, mdMatches);
+                            addOperation(k, MATCH);
+                            mdMatches -= k;
+                            n -= k;
+                        } else if ((mdPos < md.length()) && Character.isLetter(md.charAt(mdPos))) {
+                            addHitBase(Character.toUpperCase(md.charAt(mdPos++)));
+                            addOperation(1, SUBSTITUTION);
+                            n--;
+                        } else {
+                            return false;
+                        }
+                    }
+                    break;
+                case 'I':
+                    checkIndelSize(n, INSERTION);
+                    addOperation(n, INSERTION);
+                    break;
+                case 'D':
+                    readMDNumber();
+                    if ((mdMatches > 0) || (mdPos + n >= md.length()) || (md.charAt(mdPos) != '^')) {
+                        return false;
+                    }
+                    for (int k=mdPos+1; k<=mdPos+n; k++) {
+                        addHitBase(Character.toUpperCase(md.charAt(k)));
+                    }
+                    mdPos += n + 1;
+                    checkIndelSize(n, DELETION);
+                    addOperation(n, DELETION);
+                    break;
+                case 'S':
+                case 'H':
+                case 'P':
+                    break;
+                default:
+                    return false;
+            }
+        }
+
+        readMDNumber();
+
+        return (mdMatches == 0) && (mdPos == md.length()) && storeQueryBases();
+    }
+
+    /**
+     * Check if alignment should be used - false if it has a large insertion
+     * @return true if OK
+     */
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    public int getQueryStart() {
+        return queryStart;
+    }
+
+    public int getQueryAlnSize() {
+        return queryAlnSize;
+    }
+
+    public int getHitAlnSize() {
+        return hitAlnSize;
+    }
+
+    /**
+     * Get number of alignment columns
+     * @return number of columns, including insertions and deletions
+     */
+    public int getColumnCount() {
+        return columns;
+    }
+
+    public int getOperationCount() {
+        return nOps;
+    }
+
+    /**
+     * Get a run of columns
+     * @param i index of run
+     * @return packed length and operation
+     */
+    public int getOperation(int i) {
+        return ops[i];
+    }
+
+    /**
+     * Get a query base
+     * @param i position, counting from start of alignment
+     * @return base
+     */
+    public char getQueryBase(int i) {
+        return (char)(queryBases[i] & 0xff);
+    }
+
+    /**
+     * Get a reference base from a substitution or deletion
+     * @param i position, counting only substituted and deleted bases
+     * @return base
+     */
+    public char getHitBase(int i) {
+        return (char)(hitBases[i] & 0xff);
+    }
+
+    /**
+     * Build gapped query and hit strings, for writing MAF. Hit bases are
+     * taken from the reference, so keep its case.
+     * @param query true for query string, false for hit string
+     * @param hitSeq reference bases covered by the alignment, for hit string
+     * @return gapped string
+     */
+    private String buildString(boolean query, CharSequence hitSeq) {
+        StringBuilder sb = new StringBuilder(columns);
+        int queryPtr = 0;
+        int hitPtr = 0;
+
+        for (int i=0; i<nOps; i++) {
+            int n = ops[i] >>> 4;
+            int code = ops[i] & 0xf;
+            for (int j=0; j<n; j++) {
+                if (code == INSERTION) {
+                    sb.append(query ? getQueryBase(queryPtr) : '-');
+                    queryPtr++;
+                } else if (code == DELETION) {
+                    sb.append(query ? '-' : hitSeq.charAt(hitPtr));
+                    hitPtr++;
+                } else {
+                    sb.append(query ? getQueryBase(queryPtr) : hitSeq.charAt(hitPtr));
+                    queryPtr++;
+                    hitPtr++;
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    public String getQueryString() {
+        return buildString(true, null);
+    }
+
+    /**
+     * Get gapped hit string
+     * @param hitSeq reference bases covered by the alignment
+     * @return gapped hit
+     */
+    public String getHitString(CharSequence hitSeq) {
+        return buildString(false, hitSeq);
+    }
+}
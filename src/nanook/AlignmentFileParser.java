@@ -58,6 +58,16 @@ public interface AlignmentFileParser {
      */
     int parseFile(String filename, AlignmentsTableFile summaryFile, ReadSetStats overallStats);
     
+    /**
+     * Parse the alignments for a single read, already read into memory.
+     * @param filename name of the source, used to look up read lengths
+     * @param name name of the read, written to the summary file if it doesn't align
+     * @param lines alignment lines for the read
+     * @param summaryFile the name of an alignments table summary file to write
+     * @return 
+     */
+    int parseAlignments(String filename, String name, List<String> lines, AlignmentsTableFile summaryFile, ReadSetStats overallStats);
+    
     /**
      * Sort alignments by score
      */
@@ -15,12 +15,17 @@ package nanook;
 public class AlignmentMerger {
     private ReferenceSequence reference;
     private ReadSetStats overallStats;
+    private StatsShard shard;
+    private ReferenceStatsShard referenceShard;
     private NanoOKOptions options;
     private int readLength;
     private int[] covered;
     private int deletionSize = 0;
     private int insertionSize = 0;
-    private String errorKmer = "";    
+    private char[] errorBases = new char[MotifStatistics.MAX_MOTIF_SIZE];
+    private int errorLength = 0;
+    private char[] currentBases = new char[MotifStatistics.MAX_MOTIF_SIZE];
+    private int currentLength = 0;
     private int type;
     private int kmerTotal = 0;
     private int kmerCount = 0;
@@ -40,6 +45,14 @@ public class AlignmentMerger {
     private int alignmentSize = 0;
     private int alignmentSizeWithoutIndels = 0;
     private int alignmentsMerged = 0;
+    private AlignmentDifferences differences;
+    private int differencesOp;
+    private int differencesOpOffset;
+    private int differencesQueryPtr;
+    private int differencesHitPtr;
+    private char hitChar;
+    private char queryChar;
+    private boolean debug;
 
     // Bodge for speed - need to change way AlignmentInfo works
     int kSizes[] = {15, 17, 19, 21, 23, 25};
@@ -59,37 +72,59 @@ public class AlignmentMerger {
         readLength = l;
         overallStats = s;
         type = t;
+        shard = overallStats.getShardForCurrentThread();
+        referenceShard = shard.getReferenceShard(reference);
         
         covered = new int[readLength];
+        debug = options.getLog().isEnabled(NanoOKLog.LOG_DEBUG);
         
-        options.getLog().println("");
-        options.getLog().println("New AlignmentMerger");
-        options.getLog().println("");
+        if (debug) {
+            options.getLog().debug("");
+            options.getLog().debug("New AlignmentMerger");
+            options.getLog().debug("");
+        }
     }
 
+    /**
+     * Add a base to the end of the current perfect sequence. Only the last
+     * MAX_MOTIF_SIZE bases are kept, as that's all the motif stats need.
+     * @param c base
+     */
+    private void addCurrentBase(char c) {
+        System.arraycopy(currentBases, 1, currentBases, 0, currentBases.length - 1);
+        currentBases[currentBases.length - 1] = c;
+        currentLength++;
+    }
+    
+    /**
+     * Store the current perfect sequence as the one associated with an error.
+     */
+    private void setErrorKmer() {
+        System.arraycopy(currentBases, 0, errorBases, 0, currentBases.length);
+        errorLength = currentLength;
+    }
+    
     /**
      * Helper method to check if to store insertion or deletion (and store it).
-     * @param reference Reference object this alignment relates to
-     * @param errorKmer The perfect sequence before this error
      */
     private void checkStoreInsertionsOrDeletions() {
         if (deletionSize > 0) {
-            reference.getStatsByType(type).addDeletionError(deletionSize, errorKmer, overallStats); // Reference
+            shard.addDeletionError(referenceShard, deletionSize, errorBases, errorLength); // Reference
             deletionSize = 0;
         }
                 
         if (insertionSize > 0) {
-            reference.getStatsByType(type).addInsertionError(insertionSize, errorKmer, overallStats); // Reference
+            shard.addInsertionError(referenceShard, insertionSize, errorBases, errorLength); // Reference
             insertionSize = 0;
         }
         
-        errorKmer = "";
+        errorLength = 0;
     }    
     
     private void storePerfectKmerLength() {
         // Store perfect kmers
         if (currentPerfectKmerSize > 0) {
-            reference.getStatsByType(type).addPerfectKmer(currentPerfectKmerSize); // Reference
+            referenceShard.addPerfectKmer(currentPerfectKmerSize); // Reference
 
             // Bodge - need to change
             for (int l=0; l<nk; l++) {
@@ -109,23 +144,52 @@ public class AlignmentMerger {
         }
     }
     
+    /**
+     * Move on to the next alignment column, setting hitChar and queryChar.
+     * Columns are read from the runs of differences, without building gapped
+     * strings.
+     */
+    private void nextColumn() {
+        while (differencesOpOffset == (differences.getOperation(differencesOp) >>> 4)) {
+            differencesOp++;
+            differencesOpOffset = 0;
+        }
+        
+        int code = differences.getOperation(differencesOp) & 0xf;
+        if (code == AlignmentDifferences.MATCH) {
+            queryChar = differences.getQueryBase(differencesQueryPtr++);
+            hitChar = queryChar;
+        } else if (code == AlignmentDifferences.INSERTION) {
+            queryChar = differences.getQueryBase(differencesQueryPtr++);
+            hitChar = '-';
+        } else if (code == AlignmentDifferences.DELETION) {
+            queryChar = '-';
+            hitChar = differences.getHitBase(differencesHitPtr++);
+        } else {
+            queryChar = differences.getQueryBase(differencesQueryPtr++);
+            hitChar = differences.getHitBase(differencesHitPtr++);
+        }
+        differencesOpOffset++;
+    }
+    
     /**
      * Merge in a new alignment
      * @param a a Alignment
      */
     public void addAlignment(Alignment a) {
-        String hitSeq = a.getHitString().toUpperCase();
-        String querySeq = a.getQueryString().toUpperCase();
-        int hitSize = hitSeq.length();
-        int querySize = querySeq.length();
         int loopFrom = 0;
-        int loopTo = hitSize <= querySize ? hitSize:querySize;
+        int loopTo = a.getDifferences().getColumnCount();
         int queryPos = a.getQueryStart();
         int hitPos = a.getHitStart();
-        String currentKmer = "";
         AlignmentInfo ai;
         boolean mergeAlignment = true;
 
+        differences = a.getDifferences();
+        differencesOp = 0;
+        differencesOpOffset = 0;
+        differencesQueryPtr = 0;
+        differencesHitPtr = 0;
+
         // Deal with hit and query names
         if (queryName == null) {
             queryName = a.getQueryName();
@@ -144,18 +208,19 @@ public class AlignmentMerger {
             System.exit(1);
         }
         
-        options.getLog().println("Merging new block");
-        options.getLog().println("    queryPos = "+queryPos);
-        options.getLog().println("      hitPos = "+hitPos);
-        options.getLog().println("   querySize = "+querySize);
-        options.getLog().println("     hitSize = "+hitSize);
+        if (debug) {
+            options.getLog().debug("Merging new block");
+            options.getLog().debug("    queryPos = "+queryPos);
+            options.getLog().debug("      hitPos = "+hitPos);
+            options.getLog().debug("     columns = "+loopTo);
+        }
          
         // Check for new block too far from current block
         if ((overallHitStart != -1) && (hitPos < overallHitStart)) {
             int remainingQuerySequence = a.getQuerySequenceSize() - (overallQueryEnd - overallQueryStart);
             int maximumDistance = remainingQuerySequence * 2;
             if ((overallHitStart - hitPos) > maximumDistance) {
-                options.getLog().println("WARNING: hitPos too far (>"+maximumDistance+") from overallHitStart ("+overallHitStart+")");
+                options.getLog().warn("WARNING: hitPos too far (>"+maximumDistance+") from overallHitStart ("+overallHitStart+")");
                 mergeAlignment = false;
             }
         }
@@ -165,7 +230,7 @@ public class AlignmentMerger {
             int maximumDistance = remainingQuerySequence * 2;
  
             if ((hitPos - overallHitEnd) > maximumDistance) {
-                options.getLog().println("WARNING: hitPos too far from (>"+maximumDistance+") from overallHitEnd ("+overallHitEnd+")");
+                options.getLog().warn("WARNING: hitPos too far from (>"+maximumDistance+") from overallHitEnd ("+overallHitEnd+")");
                 mergeAlignment = false;
             }
         }
@@ -174,12 +239,14 @@ public class AlignmentMerger {
             int queryDistanceFromStart = Math.abs(queryPos - overallQueryStart);
             int hitDistanceFromStart = Math.abs(hitPos - overallHitStart);
             int difference = Math.abs(queryDistanceFromStart - hitDistanceFromStart);
-            options.getLog().println("queryDistanceFromStart = "+queryDistanceFromStart);
-            options.getLog().println("hitDistanceFromStart = "+hitDistanceFromStart);
-            options.getLog().println("difference = " + difference);
+            if (debug) {
+                options.getLog().debug("queryDistanceFromStart = "+queryDistanceFromStart);
+                options.getLog().debug("hitDistanceFromStart = "+hitDistanceFromStart);
+                options.getLog().debug("difference = " + difference);
+            }
             
             if (difference > (queryDistanceFromStart * 0.2)) {
-                options.getLog().println("WARNING: query offset too far from hit offet - extra alignment ignored");
+                options.getLog().warn("WARNING: query offset too far from hit offet - extra alignment ignored");
                 mergeAlignment = false;
             }
         }
@@ -194,29 +261,30 @@ public class AlignmentMerger {
             // Store alignment size
             if ((overallQueryStart == -1) || (queryPos < overallQueryStart)) {
                 overallQueryStart = queryPos;
-                options.getLog().println("Modifying overallQueryStart = "+overallQueryStart);
+                if (debug) {
+                    options.getLog().debug("Modifying overallQueryStart = "+overallQueryStart);
+                }
             }        
             if ((overallHitStart == -1) || (hitPos < overallHitStart)) {
                 overallHitStart = hitPos;
-                options.getLog().println("Modifying overallHitStart = "+overallHitStart);
+                if (debug) {
+                    options.getLog().debug("Modifying overallHitStart = "+overallHitStart);
+                }
             }        
 
-            // Expect these to be equal
-            if (hitSize != querySize) {
-                System.out.println("hitSize not equal to querySize");
-            }
-
             currentPerfectKmerSize = 0;
             insertionSize = 0;
             deletionSize = 0;
-            errorKmer = "";
+            errorLength = 0;
+            currentLength = 0;
 
             // If alignment starts in middle of area already covered, move to end
             if (covered[queryPos] == 1) {
                 while((loopFrom < loopTo) && (covered[queryPos] == 1)) {
-                    if (hitSeq.charAt(loopFrom)== '-') {
+                    nextColumn();
+                    if (hitChar == '-') {
                         queryPos++;
-                    } else if (querySeq.charAt(loopFrom) == '-') {
+                    } else if (queryChar == '-') {
                         hitPos++;
                     } else {
                         queryPos++;
@@ -226,8 +294,10 @@ public class AlignmentMerger {
                 }
             }
 
-            options.getLog().println("    loopFrom = "+loopFrom);        
-            options.getLog().println("      loopTo = "+loopTo);        
+            if (debug) {
+                options.getLog().debug("    loopFrom = "+loopFrom);
+                options.getLog().debug("      loopTo = "+loopTo);
+            }
 
             for (int i=loopFrom; i<loopTo; i++) {
                 // If we've ventured into previously covered territory, break
@@ -235,13 +305,17 @@ public class AlignmentMerger {
                     break;
                 }
 
+                nextColumn();
+                hitChar = Character.toUpperCase(hitChar);
+                queryChar = Character.toUpperCase(queryChar);
+
                 // Identical bases
-                if (hitSeq.charAt(i) == querySeq.charAt(i)) {
+                if (hitChar == queryChar) {
                     // Check if there are any insertions or deletions to store
                     checkStoreInsertionsOrDeletions();
 
                     currentPerfectKmerSize++;
-                    currentKmer += querySeq.charAt(i);
+                    addCurrentBase(queryChar);
 
                     // If reached end, store perfect sequence length
                     if (i == (loopTo-1)) {
@@ -261,12 +335,12 @@ public class AlignmentMerger {
                     }
 
                     // Insertion
-                    if (hitSeq.charAt(i) == '-') {
+                    if (hitChar == '-') {
                         // If new insertion, check if we have a previous deletion we were tracking
                         // And store the current perfect kmer as the one associated with this insertion
                         if (insertionSize == 0) {
                             checkStoreInsertionsOrDeletions();
-                            errorKmer = currentKmer;
+                            setErrorKmer();
                         }
 
                         // Keep track of insertion size
@@ -277,12 +351,12 @@ public class AlignmentMerger {
                     }
 
                     // Deletion
-                    else if (querySeq.charAt(i) == '-') {
+                    else if (queryChar == '-') {
                         // If new deletion, check if we have a previous insertion we were tracking
                         // And store the current perfect kmer as the one associated with this deletion
                         if (deletionSize == 0) {
                             checkStoreInsertionsOrDeletions();
-                            errorKmer = currentKmer;
+                            setErrorKmer();
                         }
 
                         // Keep track of size
@@ -298,10 +372,10 @@ public class AlignmentMerger {
                         checkStoreInsertionsOrDeletions();
 
                         // Store current perfect kmer associated with this substitution
-                        errorKmer = currentKmer;
+                        setErrorKmer();
 
                         // Store substitution
-                        reference.getStatsByType(type).addSubstitutionError(errorKmer, hitSeq.charAt(i), querySeq.charAt(i), overallStats); // Reference
+                        shard.addSubstitutionError(referenceShard, errorBases, errorLength, hitChar, queryChar); // Reference
 
                         // Mark this position and move on
                         covered[queryPos] = 1;
@@ -311,22 +385,28 @@ public class AlignmentMerger {
                 }
 
                     // Reset current kmer
-                    currentKmer = "";
+                    currentLength = 0;
                 }     
 
                 alignmentSize++;
             }
 
-            options.getLog().println("    queryPos = " + queryPos);
-            options.getLog().println("      hitPos = " + hitPos);
+            if (debug) {
+                options.getLog().debug("    queryPos = " + queryPos);
+                options.getLog().debug("      hitPos = " + hitPos);
+            }
 
             if ((overallQueryEnd == -1) || (queryPos > overallQueryEnd)) {
                 overallQueryEnd = queryPos;
-                options.getLog().println("Modifying overallQueryEnd = "+overallQueryEnd);
+                if (debug) {
+                    options.getLog().debug("Modifying overallQueryEnd = "+overallQueryEnd);
+                }
             }
             if ((overallHitEnd == -1) || (hitPos > overallHitEnd)) {
                 overallHitEnd = hitPos;
-                options.getLog().println("Modifying overallHitEnd = "+overallHitEnd);
+                if (debug) {
+                    options.getLog().debug("Modifying overallHitEnd = "+overallHitEnd);
+                }
             }
 
             //reference.getStatsByType(type).addCoverage(a.getHitStart(), a.getHitAlignmentSize()); // Reference
@@ -353,11 +433,11 @@ public class AlignmentMerger {
         ai.addkCounts(nk, kSizes, kCounts);        
         
         overallStats.writekCounts(queryName, querySeqSize, nk, kSizes, kCounts); // ReadSetStats
-        overallStats.addReadWithAlignment(); // ReadSetStats
-        overallStats.addReadBestKmer(longestPerfectKmer); // ReadSetStats
+        shard.addReadWithAlignment(longestPerfectKmer); // ReadSetStats
         
-        reference.getStatsByType(type).addAlignmentStats(querySeqSize, alignmentSize, alignmentSizeWithoutIndels, identicalBases, "?", "?"); // Reference
-        reference.getStatsByType(type).addReadBestKmer(longestPerfectKmer); // Reference
+        referenceShard.addAlignmentStats(querySeqSize, alignmentSize, alignmentSizeWithoutIndels, identicalBases, "?", "?"); // Reference
+        referenceShard.addReadBestKmer(longestPerfectKmer); // Reference
+        referenceShard.addCoverage(overallHitStart, overallHitEnd - overallHitStart + 1); // Reference
         
         return ai;
     }
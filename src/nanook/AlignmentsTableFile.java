@@ -7,7 +7,7 @@
 
 package nanook;
 
-import java.io.*;
+import java.io.Serializable;
 
 /**
  * Represents alignment summary file written by tool and used for graph plotting.
@@ -17,54 +17,43 @@ import java.io.*;
 public class AlignmentsTableFile implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private String filename;
-    private transient PrintWriter pw = null;
-    private int count = 0;
+    private transient TableWriter writer = null;
 
     /**
      * Constructor.
      * @param f filename of output file
+     * @param sortRows true to write rows in sorted order, for reproducible output
      */
-    public AlignmentsTableFile(String f) {
+    public AlignmentsTableFile(String f, boolean sortRows) {
         filename = f;        
-        writeHeader();
-    }
-    
-    private synchronized void openFile(boolean append) {
-        try {
-            pw = new PrintWriter(new FileWriter(filename, append));
-        } catch (IOException e) {
-            System.out.println("AlignmentsTableFile exception");
-            e.printStackTrace();
-        }
+        writer = new TableWriter(filename, getHeader(), sortRows);
     }
     
     /**
-     * Write header row to file.
+     * Get header row.
+     * @return header
      */
-    private synchronized void writeHeader() {
-        openFile(false);
-        pw.print("Filename\t");
-        pw.print("QueryName\t");
-        pw.print("QueryGC\t");
-        pw.print("QueryStart\t");
-        pw.print("QueryBasesCovered\t");
-        pw.print("QueryStrand\t");
-        pw.print("QueryLength\t");
-        pw.print("HitName\t");
-        pw.print("HitStart\t");
-        pw.print("HitBasesCovered\t");
-        pw.print("HitStrand\t");
-        pw.print("HitLength\t");
-        pw.print("AlignmentSize\t");
-        pw.print("IdenticalBases\t");
-        pw.print("AlignmentPercentIdentity\t");
-        pw.print("QueryPercentIdentity\t");
-        pw.print("LongestPerfectKmer\t");
-        pw.print("MeanPerfectKmer\t");
-        pw.print("PercentQueryAligned\t");
-        pw.print("nk15\tnk17\tnk19\tnk21\tnk23\tnk25");
-        pw.println("");
-        pw.close();
+    private String getHeader() {
+        return "Filename\t" +
+               "QueryName\t" +
+               "QueryGC\t" +
+               "QueryStart\t" +
+               "QueryBasesCovered\t" +
+               "QueryStrand\t" +
+               "QueryLength\t" +
+               "HitName\t" +
+               "HitStart\t" +
+               "HitBasesCovered\t" +
+               "HitStrand\t" +
+               "HitLength\t" +
+               "AlignmentSize\t" +
+               "IdenticalBases\t" +
+               "AlignmentPercentIdentity\t" +
+               "QueryPercentIdentity\t" +
+               "LongestPerfectKmer\t" +
+               "MeanPerfectKmer\t" +
+               "PercentQueryAligned\t" +
+               "nk15\tnk17\tnk19\tnk21\tnk23\tnk25";
     }
     
     /**
@@ -74,7 +63,7 @@ public class AlignmentsTableFile implements Serializable {
      * @param queryLine query object
      * @param ais AlignmentInfo statistics
      */
-    public synchronized void writeAlignment(ReadSetStats stats, String alignmentFilename, MAFAlignmentLine hitLine, MAFAlignmentLine queryLine, AlignmentInfo ais) {
+    public void writeAlignment(ReadSetStats stats, String alignmentFilename, MAFAlignmentLine hitLine, MAFAlignmentLine queryLine, AlignmentInfo ais) {
         String outputLine = String.format("%s\t%s\t%.2f\t%d\t%d\t%s\t%d\t%s\t%d\t%d\t%s\t%d\t%d\t%d\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%s",
                 alignmentFilename,
                 queryLine.getName(),
@@ -97,18 +86,21 @@ public class AlignmentsTableFile implements Serializable {
                 ais.getPercentQueryAligned(),
                 ais.getkCounts());
         
-        openFile(true);
-        pw.println(outputLine);
-        pw.close();
-        
-        count++;
+        writer.writeRow(outputLine);
     }
     
-    public synchronized void writeMergedAlignment(ReadSetStats stats, String alignmentFilename, AlignmentMerger merger, AlignmentInfo ais) {
+    /**
+     * Write a merged alignment line.
+     * @param alignmentFilename filename of alignment, or read ID
+     * @param readFilename read file, used to look up GC
+     * @param merger AlignmentMerger with merged alignment
+     * @param ais AlignmentInfo statistics
+     */
+    public void writeMergedAlignment(ReadSetStats stats, String alignmentFilename, String readFilename, AlignmentMerger merger, AlignmentInfo ais) {
         String outputLine = String.format("%s\t%s\t%.2f\t%d\t%d\t%s\t%d\t%s\t%d\t%d\t%s\t%d\t%d\t%d\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%s",
                 alignmentFilename,
                 ais.getQueryName(),
-                stats.getGC(alignmentFilename, ais.getQueryName()),
+                stats.getGC(readFilename, ais.getQueryName()),
                 merger.getOverallQueryStart(),
                 merger.getOverallQuerySize(),
                 merger.getOverallQueryStrand(),
@@ -127,20 +119,21 @@ public class AlignmentsTableFile implements Serializable {
                 ais.getPercentQueryAligned(),
                 ais.getkCounts());
         
-        openFile(true);
-        pw.println(outputLine);
-        pw.close();
-        
-        count++;
+        writer.writeRow(outputLine);
     }    
     
     /**
      * Used when no alignment found for this query.
      * @param alignmentFilename - alignment filename
      */
-    public synchronized void writeNoAlignmentMessage(String alignmentFilename) {
-        openFile(true);
-        pw.println(alignmentFilename+"\tNO ALIGNMENTS");
-        pw.close();
+    public void writeNoAlignmentMessage(String alignmentFilename) {
+        writer.writeRow(alignmentFilename+"\tNO ALIGNMENTS");
+    }
+    
+    /**
+     * Write any remaining rows and close file.
+     */
+    public void close() {
+        writer.close();
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads alignment records from a BAM file, decoding them straight from the
+ * binary format. Decompression is done in parallel by BGZFInputStream.
+ *
+ * @author Richard Leggett
+ */
+public class BAMFileReader {
+    private String filename;
+    private BGZFInputStream bgzf;
+    private DataInputStream in;
+    private String[] referenceNames;
+    private byte[] int32 = new byte[4];
+
+    /**
+     * Constructor - reads header
+     * @param f BAM file
+     * @param nThreads number of threads to decompress with
+     */
+    public BAMFileReader(String f, int nThreads) throws IOException {
+        filename = f;
+        bgzf = new BGZFInputStream(filename, nThreads);
+        in = new DataInputStream(bgzf);
+
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        if ((magic[0] != 'B') || (magic[1] != 'A') || (magic[2] != 'M') || (magic[3] != 1)) {
+            throw new IOException("File "+filename+" isn't a BAM file");
+        }
+
+        // Skip SAM header text - reference names are also in binary form
+        int textLength = readInt32();
+        in.readFully(new byte[textLength]);
+
+        int nReferences = readInt32();
+        referenceNames = new String[nReferences];
+        for (int i=0; i<nReferences; i++) {
+            byte[] name = new byte[readInt32()];
+            in.readFully(name);
+            referenceNames[i] = new String(name, 0, name.length - 1, StandardCharsets.ISO_8859_1);
+            readInt32();
+        }
+    }
+
+    private int readInt32() throws IOException {
+        in.readFully(int32);
+        return (int32[0] & 0xff) | ((int32[1] & 0xff) << 8) | ((int32[2] & 0xff) << 16) | ((int32[3] & 0xff) << 24);
+    }
+
+    /**
+     * Get next alignment record
+     * @return record, or null at end of file
+     */
+    public BAMRecord next() throws IOException {
+        int blockSize;
+
+        try {
+            blockSize = readInt32();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        byte[] data = new byte[blockSize];
+        in.readFully(data);
+
+        return new BAMRecord(data, referenceNames);
+    }
+
+    public void close() {
+        try {
+            bgzf.close();
+        } catch (IOException e) {
+            System.out.println("BAMFileReader exception:");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One alignment record from a BAM file, holding the fields SAMParser needs
+ * in binary form. CIGAR operations are kept packed as in BAM (length in the
+ * upper 28 bits, operation in the lower 4), so no CIGAR text is built.
+ *
+ * @author Richard Leggett
+ */
+public class BAMRecord {
+    public final static String CIGAR_OPERATIONS = "MIDNSHP=X";
+    private final static char[] SEQ_BASES = "=ACMGRSVTWYHKDBN".toCharArray();
+    private String readName;
+    private int flags;
+    private String hitName;
+    private int hitStart;
+    private int mapQuality;
+    private int[] cigar;
+    private String sequence;
+    private byte[] tags;
+
+    private static int readInt32(byte[] b, int offset) {
+        return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8) | ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+    }
+
+    private static int readUInt16(byte[] b, int offset) {
+        return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+    }
+
+    /**
+     * Decode a record
+     * @param b record data, after the block_size field
+     * @param referenceNames reference names from BAM header
+     */
+    public BAMRecord(byte[] b, String[] referenceNames) {
+        int refID = readInt32(b, 0);
+        int readNameLength = b[8] & 0xff;
+        int nCigar = readUInt16(b, 12);
+        int seqLength = readInt32(b, 16);
+        int offset = 32;
+
+        hitStart = readInt32(b, 4);
+        mapQuality = b[9] & 0xff;
+        flags = readUInt16(b, 14);
+        hitName = ((refID >= 0) && (refID < referenceNames.length)) ? referenceNames[refID] : "*";
+
+        // Read name is NUL terminated
+        readName = new String(b, offset, readNameLength - 1, StandardCharsets.ISO_8859_1);
+        offset += readNameLength;
+
+        cigar = new int[nCigar];
+        for (int i=0; i<nCigar; i++) {
+            cigar[i] = readInt32(b, offset);
+            offset += 4;
+        }
+
+        if (seqLength > 0) {
+            char[] seq = new char[seqLength];
+            for (int i=0; i<seqLength; i++) {
+                int packed = b[offset + (i >> 1)] & 0xff;
+                seq[i] = SEQ_BASES[((i & 1) == 0) ? (packed >> 4) : (packed & 0xf)];
+            }
+            sequence = new String(seq);
+        } else {
+            sequence = "*";
+        }
+        offset += ((seqLength + 1) >> 1) + seqLength;
+
+        tags = new byte[b.length - offset];
+        System.arraycopy(b, offset, tags, 0, tags.length);
+    }
+
+    public String getReadName() {
+        return readName;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public String getHitName() {
+        return hitName;
+    }
+
+    /**
+     * Get hit start
+     * @return 0-based start position
+     */
+    public int getHitStart() {
+        return hitStart;
+    }
+
+    public int getMapQuality() {
+        return mapQuality;
+    }
+
+    /**
+     * Get CIGAR operations, packed as in BAM
+     * @return array of operations
+     */
+    public int[] getCigar() {
+        return cigar;
+    }
+
+    public String getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get optional fields, undecoded
+     * @return tag data
+     */
+    public byte[] getTags() {
+        return tags;
+    }
+
+    /**
+     * Get size of a single tag value
+     * @param type value type
+     * @return size in bytes, or -1 if not fixed size
+     */
+    private static int getValueSize(char type) {
+        switch(type) {
+            case 'A':
+            case 'c':
+            case 'C':
+                return 1;
+            case 's':
+            case 'S':
+                return 2;
+            case 'i':
+            case 'I':
+            case 'f':
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Find a string (type Z) optional field, such as cs or MD
+     * @param tag two character tag
+     * @return value, or null if not present
+     */
+    public String getStringTag(String tag) {
+        int offset = 0;
+
+        while (offset + 3 <= tags.length) {
+            boolean found = (tags[offset] == tag.charAt(0)) && (tags[offset + 1] == tag.charAt(1));
+            char type = (char)tags[offset + 2];
+            offset += 3;
+
+            if ((type == 'Z') || (type == 'H')) {
+                int end = offset;
+                while ((end < tags.length) && (tags[end] != 0)) {
+                    end++;
+                }
+                if (found && (type == 'Z')) {
+                    return new String(tags, offset, end - offset, StandardCharsets.ISO_8859_1);
+                }
+                offset = end + 1;
+            } else if (type == 'B') {
+                if (offset + 5 > tags.length) {
+                    break;
+                }
+                int size = getValueSize((char)tags[offset]);
+                if (size < 0) {
+                    break;
+                }
+                offset += 5 + (size * readInt32(tags, offset + 1));
+            } else {
+                int size = getValueSize(type);
+                if (size < 0) {
+                    break;
+                }
+                offset += size;
+            }
+        }
+
+        return null;
+    }
+}
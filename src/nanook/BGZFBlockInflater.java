@@ -0,0 +1,55 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.concurrent.Callable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the deflate data of one BGZF block, so that blocks can be
+ * decompressed on a pool of threads.
+ *
+ * @author Richard Leggett
+ */
+public class BGZFBlockInflater implements Callable<byte[]> {
+    private byte[] compressed;
+    private int uncompressedSize;
+
+    /**
+     * Constructor
+     * @param c raw deflate data of block
+     * @param u uncompressed size, from block trailer
+     */
+    public BGZFBlockInflater(byte[] c, int u) {
+        compressed = c;
+        uncompressedSize = u;
+    }
+
+    public byte[] call() throws DataFormatException {
+        byte[] data = new byte[uncompressedSize];
+        Inflater inflater = new Inflater(true);
+
+        inflater.setInput(compressed);
+        int n = 0;
+        while ((n < uncompressedSize) && !inflater.finished()) {
+            int got = inflater.inflate(data, n, uncompressedSize - n);
+            if ((got == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            n += got;
+        }
+        inflater.end();
+
+        if (n != uncompressedSize) {
+            throw new DataFormatException("BGZF block decompressed to "+n+" bytes, expected "+uncompressedSize);
+        }
+
+        return data;
+    }
+}
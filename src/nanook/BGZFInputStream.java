@@ -0,0 +1,157 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a BGZF file (as used by BAM), decompressing blocks in parallel.
+ * Compressed blocks are read in order on the calling thread and handed to
+ * a pool of threads to inflate, keeping a few blocks per thread in flight.
+ * Decompressed data is returned in file order.
+ *
+ * @author Richard Leggett
+ */
+public class BGZFInputStream extends InputStream {
+    private final static int BLOCKS_PER_THREAD = 4;
+    private String filename;
+    private DataInputStream in;
+    private ThreadPoolExecutor executor;
+    private LinkedList<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+    private int maxPendingBlocks;
+    private boolean endOfFile = false;
+    private byte[] block = new byte[0];
+    private int blockPos = 0;
+
+    /**
+     * Constructor
+     * @param f filename
+     * @param nThreads number of threads to decompress with
+     */
+    public BGZFInputStream(String f, int nThreads) throws IOException {
+        filename = f;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1024 * 1024));
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        maxPendingBlocks = nThreads * BLOCKS_PER_THREAD;
+    }
+
+    private int readUInt16(byte[] b, int offset) {
+        return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+    }
+
+    private int readInt32(byte[] b, int offset) {
+        return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8) | ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Read next compressed block and queue it for decompression.
+     * @return false at end of file
+     */
+    private boolean queueNextBlock() throws IOException {
+        byte[] header = new byte[12];
+
+        try {
+            in.readFully(header);
+        } catch (EOFException e) {
+            return false;
+        }
+
+        if (((header[0] & 0xff) != 31) || ((header[1] & 0xff) != 139) || ((header[3] & 4) == 0)) {
+            throw new IOException("File "+filename+" isn't BGZF compressed");
+        }
+
+        // Find BSIZE in the BC extra subfield
+        byte[] extra = new byte[readUInt16(header, 10)];
+        in.readFully(extra);
+        int blockSize = -1;
+        for (int i=0; i+4<=extra.length; ) {
+            int subfieldLength = readUInt16(extra, i + 2);
+            if ((extra[i] == 66) && (extra[i + 1] == 67) && (subfieldLength == 2)) {
+                blockSize = readUInt16(extra, i + 4) + 1;
+            }
+            i += 4 + subfieldLength;
+        }
+
+        if (blockSize < 0) {
+            throw new IOException("Missing BGZF block size in "+filename);
+        }
+
+        byte[] compressed = new byte[blockSize - 12 - extra.length - 8];
+        byte[] trailer = new byte[8];
+        in.readFully(compressed);
+        in.readFully(trailer);
+
+        pendingBlocks.add(executor.submit(new BGZFBlockInflater(compressed, readInt32(trailer, 4))));
+
+        return true;
+    }
+
+    /**
+     * Move on to next decompressed block.
+     * @return false at end of file
+     */
+    private boolean nextBlock() throws IOException {
+        do {
+            while ((!endOfFile) && (pendingBlocks.size() < maxPendingBlocks)) {
+                endOfFile = !queueNextBlock();
+            }
+
+            if (pendingBlocks.size() == 0) {
+                return false;
+            }
+
+            try {
+                block = pendingBlocks.removeFirst().get();
+            } catch (Exception e) {
+                throw new IOException("Couldn't decompress "+filename+": "+e.getMessage());
+            }
+            blockPos = 0;
+        } while (block.length == 0);
+
+        return true;
+    }
+
+    public int read() throws IOException {
+        if ((blockPos >= block.length) && !nextBlock()) {
+            return -1;
+        }
+
+        return block[blockPos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if ((blockPos >= block.length) && !nextBlock()) {
+            return -1;
+        }
+
+        int n = Math.min(len, block.length - blockPos);
+        System.arraycopy(block, blockPos, b, off, n);
+        blockPos += n;
+
+        return n;
+    }
+
+    public void close() throws IOException {
+        executor.shutdownNow();
+        in.close();
+    }
+}
@@ -17,10 +17,10 @@ import java.util.regex.Pattern;
  * @author Richard Leggett
  */
 public class CIGARString {
-    private StringBuilder queryString = new StringBuilder("");
-    private StringBuilder hitString = new StringBuilder("");
+    private AlignmentDifferences differences = new AlignmentDifferences();
     private String alignmentFilename;
     private String hitFilename;
+    private ReferenceSequenceStore hitStore;
     private String cigarString;
     private String querySeq;
     private String queryFilename;
@@ -30,6 +30,20 @@ public class CIGARString {
     private int hitStart;
     private int queryAlnSize;
     private int hitAlnSize;
+    private int[] cigarOps = null;
+    private CharSequence hitSeq;
+    private int hitPtr = 0;
+    private int queryPtr = 0;
+    private boolean displayResult = false;
+    private boolean donePreClipping = false;
+    private int tagCtr = 0;
+    private boolean continueParsing = true;
+    private int totalCount = 0;
+    private int delCount = 0;
+    private int insCount = 0;
+    private int matchCount = 0;
+    private boolean processed = true;
+    private boolean debug = false;
     
     /**
      * Constructor
@@ -38,15 +52,17 @@ public class CIGARString {
      * @param qf
      * @param hs hit start position (0-based)
      * @param hf
+     * @param store shared store of reference sequences
      * @param hr 
      */
-    public CIGARString(String cs, String qseq, String qf, String qi, int hs, String hf, ReferenceSequence hr, String af) {
+    public CIGARString(String cs, String qseq, String qf, String qi, int hs, String hf, ReferenceSequenceStore store, ReferenceSequence hr, String af) {
         cigarString = cs;
         querySeq = qseq;
         queryFilename = qf;
         queryID = qi;
         hitStart = hs;
         hitFilename = hf;
+        hitStore = store;
         hitReference = hr;
         queryStart = 0;
         alignmentFilename = af;
@@ -116,25 +132,43 @@ public class CIGARString {
         return cigarString;
     }
     
+    /**
+     * Constructor for CIGAR operations from a BAM record, packed as length in
+     * the upper 28 bits and operation in the lower 4, avoiding any text parsing.
+     */
+    public CIGARString(int[] ops, String qseq, String qf, String qi, int hs, String hf, ReferenceSequenceStore store, ReferenceSequence hr, String af) {
+        this((String)null, qseq, qf, qi, hs, hf, store, hr, af);
+        cigarOps = ops;
+    }
+    
+    /**
+     * Get CIGAR as text, building it if we only have BAM operations
+     * @return CIGAR string
+     */
+    private String getCigarString() {
+        if ((cigarString == null) && (cigarOps != null)) {
+            StringBuilder sb = new StringBuilder();
+            for (int j=0; j<cigarOps.length; j++) {
+                sb.append(cigarOps[j] >>> 4);
+                sb.append(getBAMOperation(cigarOps[j]));
+            }
+            cigarString = sb.toString();
+        }
+        
+        return cigarString;
+    }
+    
+    private char getBAMOperation(int op) {
+        int code = op & 0xf;
+        return code < BAMRecord.CIGAR_OPERATIONS.length() ? BAMRecord.CIGAR_OPERATIONS.charAt(code) : '?';
+    }
+    
     public boolean processString() {
         String value = "";        
-        SequenceReader r = new SequenceReader(true);
-        r.indexFASTAFile(hitFilename, null, true);
         int l = 3*querySeq.length();
-        String hitSeq = r.getSubSequence(hitReference.getId(), hitStart, hitStart+l);
-        int hitPtr = 0;
-        int queryPtr = 0;
-        boolean displayResult = false;
-        boolean donePreClipping = false;
-        int tagCtr = 0;
         int i = 0;
-        boolean continueParsing = true;
-        int totalCount = 0;
-        int delCount = 0;
-        int insCount = 0;
-        int matchCount = 0;
-        boolean processed = true;
-        boolean debug = false;
+        
+        hitSeq = hitStore.getSubSequence(hitReference.getId(), hitStart, hitStart+l);
         
         //if (queryFilename.startsWith("N79596_Lambda8kbp_LCv4_test_3559_1_ch60_file49_strand_BaseCalled_Complement.fasta.sam")) {
         //if (queryFilename.startsWith("N79596_Lambda8kbp_LCv4_test_3559_1_ch96_file14_strand_BaseCalled_2D.fasta.sam")) {
@@ -144,7 +178,7 @@ public class CIGARString {
         
         if (debug) {
             System.out.println("Query filename: "+queryFilename);
-            System.out.println("CIGAR: "+cigarString);
+            System.out.println("CIGAR: "+getCigarString());
             System.out.println("  Hit: "+hitSeq.length()+" "+hitSeq);
             System.out.println("Query: "+querySeq.length()+" "+querySeq);
         }
@@ -153,127 +187,30 @@ public class CIGARString {
             hitAlnSize = 0;
             queryAlnSize = 0;
             hitAlnSize = 0;
-            while ((i<cigarString.length()) && (continueParsing)) {
-            //for (int i=0; i<cigarString.length(); i++) {
-                if (debug) {
-                    System.out.println("hitPtr="+hitPtr+" queryPtr="+queryPtr);
-                    //System.out.println("Query: " + queryString.toString());
-                    //System.out.println("  Hit: " + hitString.toString());
+            if (cigarOps != null) {
+                for (int j=0; (j<cigarOps.length) && (continueParsing); j++) {
+                    processOperation(cigarOps[j] >>> 4, getBAMOperation(cigarOps[j]));
                 }
-                char c = cigarString.charAt(i);
-
-                if (Character.isDigit(c)) {
-                    value = value + c;
-                } else {
-                    int n = Integer.parseInt(value);
-                    totalCount += n;
+            } else {
+                while ((i<cigarString.length()) && (continueParsing)) {
+                //for (int i=0; i<cigarString.length(); i++) {
                     if (debug) {
-                        System.out.println(n + " " + c);
+                        System.out.println("hitPtr="+hitPtr+" queryPtr="+queryPtr);
                     }
-                    switch(c) {
-                        case 'M':
-                        case '=':
-                        case 'X':
-                            if (debug) {
-                                System.out.println(hitString.length() + " " + hitPtr);
-                                //System.out.println("Hit up: " + hitSeq.substring(hitPtr));
-                            }
-                            queryString.append(querySeq.substring(queryPtr, queryPtr + n));
-                            hitString.append(hitSeq.substring(hitPtr, hitPtr + n));
-                            queryPtr += n;
-                            hitPtr += n;
-                            queryAlnSize += n;
-                            hitAlnSize += n;
-                            donePreClipping = true;
-                            matchCount+=n;
-                            break;
-                        case 'I':
-                            if (n > 200) {
-                                // DEBUG MODE TURNS OFF THIS
-                                System.out.println("");
-                                System.out.println("Error: large I ("+n+") - read "+queryID+" ignored");
-                                processed = false;
-                                continueParsing = false;
-                            } else {
-                                queryString.append(querySeq.substring(queryPtr, queryPtr + n));
-                                for (int j=0; j<n; j++) {
-                                    hitString.append('-'); 
-                                }
-                                queryPtr += n;
-                                queryAlnSize += n;
-                            }
-                            donePreClipping = true;
-                            insCount+=n;
-                            break;
-                        case 'D':
-                            if (n > 500) {
-                                System.out.println("Warning: large D ("+n+") on "+ queryID);
-                                //processed = false;
-                                //continueParsing = false;
-                            }
-                            
-                            hitString.append(hitSeq.substring(hitPtr, hitPtr + n));
-                            for (int j=0; j<n; j++) {
-                                queryString.append('-'); 
-                            }
-                            hitPtr += n;
-                            hitAlnSize += n;
-                            donePreClipping = true;
-                            delCount+=n;
-                            break;
-                        case 'N':
-                            System.out.println("Warning: encountered N in CIGAR format!");
-                            System.out.println("");
-                            displayResult = true;
-                            hitString.append(hitSeq.substring(hitPtr, hitPtr + n));
-                            for (int j=0; j<n; j++) {
-                                queryString.append('-'); 
-                            }
-                            queryPtr += n;
-                            hitPtr += n;
-                            donePreClipping = true;
-                            break;
-                        case 'S':
-                            //System.out.println("Warnning: encountered S in CIGAR format!");
-                            queryPtr += n;
-                            if (!donePreClipping) {
-                                queryStart += n;
-                            }
-                            displayResult = true;                        
-                            break;
-                        case 'H':
-                            //System.out.println("Warning: encountered H in CIGAR format!");
-                            if (!donePreClipping) {
-                                queryStart += n;
-                            } else {
-                                //System.out.println("Warning: hard clipping at end");
-                            }
-                            displayResult = true;
-                            break;
-                        case 'P':
-                            System.out.println("Warning: encountered P in CIGAR format!");
-                            System.out.println("");
-                            displayResult = true;
-                            donePreClipping = true;
-                            break;
-                        default:
-                            System.out.println("Unrecognised character in CIGAR string: "+c);
-                            processed = false;
-                            break;
+                    char c = cigarString.charAt(i);
+
+                    if (Character.isDigit(c)) {
+                        value = value + c;
+                    } else {
+                        processOperation(Integer.parseInt(value), c);
+                        value="";
                     }
-                    value="";
-                    tagCtr++;
+
+                    i++;
                     if (debug) {
-                        //System.out.println("qseq="+querySeq.length()+" matchCount="+matchCount+" insCount="+insCount+" delCount="+delCount+" totalCount="+totalCount);
-                        //System.out.println("Query: "+queryString.toString());
-                        //System.out.println("  Hit: "+hitString.toString());
+                        System.out.println("i="+i+" and length="+cigarString.length());
                     }
                 }
-
-                i++;
-                if (debug) {
-                    System.out.println("i="+i+" and length="+cigarString.length());
-                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -282,19 +219,126 @@ public class CIGARString {
             System.out.println("Alignment file: " + alignmentFilename);
             System.out.println("    Query file: " + queryFilename);
             System.out.println("      Hit file: " + hitFilename);
-            System.out.println("  CIGAR string: " + cigarString);
+            System.out.println("  CIGAR string: " + getCigarString());
             System.exit(1);
         }
         
-        //if (displayResult) {
-            //System.out.println(queryFilename);
-            //System.out.println("Query: " + queryString.toString());
-            //System.out.println("  Hit: " + hitString.toString());
-            //System.exit(1);
-        //}        
         return processed;
     }
     
+    /**
+     * Process one CIGAR operation
+     * @param n length
+     * @param c operation
+     */
+    private void processOperation(int n, char c) {
+        totalCount += n;
+        if (debug) {
+            System.out.println(n + " " + c);
+        }
+        switch(c) {
+            case 'M':
+            case '=':
+            case 'X':
+                if (debug) {
+                    System.out.println(differences.getColumnCount() + " " + hitPtr);
+                    //System.out.println("Hit up: " + hitSeq.substring(hitPtr));
+                }
+                differences.addQueryBases(querySeq, queryPtr, queryPtr + n);
+                for (int j=0; j<n; j++) {
+                    char h = hitSeq.charAt(hitPtr + j);
+                    if (Character.toUpperCase(querySeq.charAt(queryPtr + j)) == Character.toUpperCase(h)) {
+                        differences.addOperation(1, AlignmentDifferences.MATCH);
+                    } else {
+                        differences.addHitBase(h);
+                        differences.addOperation(1, AlignmentDifferences.SUBSTITUTION);
+                    }
+                }
+                queryPtr += n;
+                hitPtr += n;
+                queryAlnSize += n;
+                hitAlnSize += n;
+                donePreClipping = true;
+                matchCount+=n;
+                break;
+            case 'I':
+                if (n > 200) {
+                    // DEBUG MODE TURNS OFF THIS
+                    System.out.println("");
+                    System.out.println("Error: large I ("+n+") - read "+queryID+" ignored");
+                    processed = false;
+                    continueParsing = false;
+                } else {
+                    differences.addQueryBases(querySeq, queryPtr, queryPtr + n);
+                    differences.addOperation(n, AlignmentDifferences.INSERTION);
+                    queryPtr += n;
+                    queryAlnSize += n;
+                }
+                donePreClipping = true;
+                insCount+=n;
+                break;
+            case 'D':
+                if (n > 500) {
+                    System.out.println("Warning: large D ("+n+") on "+ queryID);
+                    //processed = false;
+                    //continueParsing = false;
+                }
+
+                for (int j=0; j<n; j++) {
+                    differences.addHitBase(hitSeq.charAt(hitPtr + j));
+                }
+                differences.addOperation(n, AlignmentDifferences.DELETION);
+                hitPtr += n;
+                hitAlnSize += n;
+                donePreClipping = true;
+                delCount+=n;
+                break;
+            case 'N':
+                System.out.println("Warning: encountered N in CIGAR format!");
+                System.out.println("");
+                displayResult = true;
+                for (int j=0; j<n; j++) {
+                    differences.addHitBase(hitSeq.charAt(hitPtr + j));
+                }
+                differences.addOperation(n, AlignmentDifferences.DELETION);
+                queryPtr += n;
+                hitPtr += n;
+                donePreClipping = true;
+                break;
+            case 'S':
+                //System.out.println("Warnning: encountered S in CIGAR format!");
+                queryPtr += n;
+                if (!donePreClipping) {
+                    queryStart += n;
+                }
+                displayResult = true;                        
+                break;
+            case 'H':
+                //System.out.println("Warning: encountered H in CIGAR format!");
+                if (!donePreClipping) {
+                    queryStart += n;
+                } else {
+                    //System.out.println("Warning: hard clipping at end");
+                }
+                displayResult = true;
+                break;
+            case 'P':
+                System.out.println("Warning: encountered P in CIGAR format!");
+                System.out.println("");
+                displayResult = true;
+                donePreClipping = true;
+                break;
+            default:
+                System.out.println("Unrecognised character in CIGAR string: "+c);
+                processed = false;
+                break;
+        }
+        tagCtr++;
+        if (debug) {
+            //System.out.println("qseq="+querySeq.length()+" matchCount="+matchCount+" insCount="+insCount+" delCount="+delCount+" totalCount="+totalCount);
+        }
+    }
+    
     public int getQueryStart() {
         return queryStart;
     }
@@ -307,11 +351,12 @@ public class CIGARString {
         return hitAlnSize;
     }
     
-    public String getQueryString() {
-        return queryString.toString();
-    }
-
-    public String getHitString() {
-        return hitString.toString();
+    /**
+     * Get alignment columns
+     * @return differences between query and hit
+     */
+    public AlignmentDifferences getDifferences() {
+        differences.trim();
+        return differences;
     }
 }
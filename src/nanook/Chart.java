@@ -0,0 +1,415 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import javax.imageio.ImageIO;
+
+/**
+ * Simple chart drawn with Java2D, in the style of the R/ggplot2 graphs -
+ * grey panel, white grid lines, title above. Supports lines, bars, points
+ * and text labels, which cover the graphs NanoOK plots for each reference.
+ * Saved as PNG, or as a PDF containing the image.
+ *
+ * @author Richard Leggett
+ */
+public class Chart {
+    private final static int LINE = 0;
+    private final static int BARS = 1;
+    private final static int POINTS = 2;
+    private final static int LABELS = 3;
+    private final static Color PANEL_COLOUR = new Color(235, 235, 235);
+    private final static Color GRID_COLOUR = Color.WHITE;
+    private final static Color TEXT_COLOUR = new Color(77, 77, 77);
+    private final static int PDF_DPI = 200;
+    private int width;
+    private int height;
+    private float textSize;
+    private String title = null;
+    private String xLabel = null;
+    private String yLabel = null;
+    private double xMin = Double.NaN;
+    private double xMax = Double.NaN;
+    private double yMin = Double.NaN;
+    private double yMax = Double.NaN;
+    private double xStep = 0;
+    private ArrayList<Integer> layerTypes = new ArrayList<Integer>();
+    private ArrayList<double[]> layerX = new ArrayList<double[]>();
+    private ArrayList<double[]> layerY = new ArrayList<double[]>();
+    private ArrayList<Color> layerColours = new ArrayList<Color>();
+    private ArrayList<Double> layerSizes = new ArrayList<Double>();
+    private ArrayList<String[]> layerLabels = new ArrayList<String[]>();
+
+    /**
+     * Constructor
+     * @param w width in pixels
+     * @param h height in pixels
+     * @param t text size in pixels
+     */
+    public Chart(int w, int h, float t) {
+        width = w;
+        height = h;
+        textSize = t;
+    }
+
+    public void setTitle(String t) {
+        title = t;
+    }
+
+    public void setXLabel(String l) {
+        xLabel = l;
+    }
+
+    public void setYLabel(String l) {
+        yLabel = l;
+    }
+
+    /**
+     * Fix x axis range, rather than fitting it to the data. Data outside the
+     * range isn't drawn.
+     * @param min minimum
+     * @param max maximum
+     */
+    public void setXRange(double min, double max) {
+        xMin = min;
+        xMax = max;
+    }
+
+    /**
+     * Fix y axis range, rather than fitting it to the data.
+     * @param min minimum
+     * @param max maximum
+     */
+    public void setYRange(double min, double max) {
+        yMin = min;
+        yMax = max;
+    }
+
+    /**
+     * Set gap between x axis ticks, rather than choosing one
+     * @param s step
+     */
+    public void setXStep(double s) {
+        xStep = s;
+    }
+
+    private void addLayer(int type, double[] x, double[] y, Color c, double size, String[] labels) {
+        layerTypes.add(type);
+        layerX.add(x);
+        layerY.add(y);
+        layerColours.add(c);
+        layerSizes.add(size);
+        layerLabels.add(labels);
+    }
+
+    /**
+     * Add line joining points, in order
+     * @param x x values
+     * @param y y values
+     * @param c colour
+     */
+    public void addLine(double[] x, double[] y, Color c) {
+        addLayer(LINE, x, y, c, 0, null);
+    }
+
+    /**
+     * Add bars from zero, centred on x values
+     * @param x x values
+     * @param y heights
+     * @param barWidth width of each bar, in x units
+     * @param c colour
+     */
+    public void addBars(double[] x, double[] y, double barWidth, Color c) {
+        addLayer(BARS, x, y, c, barWidth, null);
+    }
+
+    /**
+     * Add points, drawn as semi-transparent circles
+     * @param x x values
+     * @param y y values
+     * @param c colour
+     */
+    public void addPoints(double[] x, double[] y, Color c) {
+        addLayer(POINTS, x, y, c, 0, null);
+    }
+
+    /**
+     * Add text labels, centred on points
+     * @param x x values
+     * @param y y values
+     * @param labels labels
+     */
+    public void addLabels(double[] x, double[] y, String[] labels) {
+        addLayer(LABELS, x, y, Color.BLACK, 0, labels);
+    }
+
+    /**
+     * Find a gap between axis ticks giving around five ticks - 1, 2 or 5
+     * times a power of ten.
+     * @param range axis range
+     * @return gap
+     */
+    private static double getTickStep(double range) {
+        double rough = range / 5;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(rough)));
+        double r = rough / magnitude;
+
+        if (r < 1.5) {
+            return magnitude;
+        } else if (r < 3.5) {
+            return 2 * magnitude;
+        } else if (r < 7.5) {
+            return 5 * magnitude;
+        }
+
+        return 10 * magnitude;
+    }
+
+    /**
+     * Format a tick label with enough decimal places for the step
+     * @param v value
+     * @param step gap between ticks
+     * @return label
+     */
+    private static String formatTick(double v, double step) {
+        int places = Math.max(0, (int)Math.ceil(-Math.log10(step) - 1e-9));
+
+        if (Math.abs(v) < step * 1e-6) {
+            v = 0;
+        }
+
+        return String.format("%." + places + "f", v);
+    }
+
+    /**
+     * Work out axis ranges not set explicitly from the data, with a margin
+     * of 5% as ggplot2 does. Bars always include zero.
+     * @return minX, maxX, minY, maxY
+     */
+    private double[] getRanges() {
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+
+        for (int l=0; l<layerTypes.size(); l++) {
+            double[] x = layerX.get(l);
+            double[] y = layerY.get(l);
+            double halfWidth = layerTypes.get(l) == BARS ? layerSizes.get(l) / 2 : 0;
+
+            if (layerTypes.get(l) == BARS) {
+                minY = Math.min(minY, 0);
+                maxY = Math.max(maxY, 0);
+            }
+
+            for (int i=0; i<x.length; i++) {
+                if (Double.isNaN(x[i]) || Double.isNaN(y[i])) {
+                    continue;
+                }
+                minX = Math.min(minX, x[i] - halfWidth);
+                maxX = Math.max(maxX, x[i] + halfWidth);
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+        }
+
+        if (minX > maxX) {
+            minX = 0;
+            maxX = 1;
+            minY = 0;
+            maxY = 1;
+        }
+
+        double[] r = {minX, maxX, minY, maxY};
+        double xMargin = (maxX > minX) ? (maxX - minX) * 0.05 : 1;
+        double yMargin = (maxY > minY) ? (maxY - minY) * 0.05 : 1;
+
+        r[0] = Double.isNaN(xMin) ? minX - xMargin : xMin;
+        r[1] = Double.isNaN(xMax) ? maxX + xMargin : xMax;
+        r[2] = Double.isNaN(yMin) ? minY - yMargin : yMin;
+        r[3] = Double.isNaN(yMax) ? maxY + yMargin : yMax;
+
+        return r;
+    }
+
+    /**
+     * Draw the chart
+     * @return image
+     */
+    public BufferedImage draw() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Font font = new Font("SansSerif", Font.PLAIN, Math.round(textSize));
+        Font tickFont = new Font("SansSerif", Font.PLAIN, Math.round(textSize * 0.8f));
+        FontMetrics fm = g.getFontMetrics(font);
+        FontMetrics tfm = g.getFontMetrics(tickFont);
+        double[] r = getRanges();
+        double xStepUsed = xStep > 0 ? xStep : getTickStep(r[1] - r[0]);
+        double yStep = getTickStep(r[3] - r[2]);
+
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        // Work out space for y tick labels
+        int yTickWidth = 0;
+        for (long k = (long)Math.ceil(r[2] / yStep); k * yStep <= r[3] + (yStep * 1e-9); k++) {
+            yTickWidth = Math.max(yTickWidth, tfm.stringWidth(formatTick(k * yStep, yStep)));
+        }
+
+        int left = (int)(width * 0.02) + (yLabel != null ? fm.getHeight() : 0) + yTickWidth + (int)(textSize * 0.4);
+        int right = width - (int)(width * 0.02) - (tfm.stringWidth(formatTick(Math.floor(r[1] / xStepUsed) * xStepUsed, xStepUsed)) / 2);
+        int top = (int)(height * 0.02) + (title != null ? fm.getHeight() : 0);
+        int bottom = height - (int)(height * 0.04) - (xLabel != null ? fm.getHeight() : 0) - tfm.getHeight();
+        double plotWidth = right - left;
+        double plotHeight = bottom - top;
+        double xScale = plotWidth / (r[1] - r[0]);
+        double yScale = plotHeight / (r[3] - r[2]);
+
+        // Panel and grid
+        g.setColor(PANEL_COLOUR);
+        g.fillRect(left, top, right - left, bottom - top);
+        g.setFont(tickFont);
+
+        for (long k = (long)Math.ceil(r[0] / xStepUsed); k * xStepUsed <= r[1] + (xStepUsed * 1e-9); k++) {
+            double v = k * xStepUsed;
+            double px = left + (v - r[0]) * xScale;
+            String s = formatTick(v, xStepUsed);
+            g.setColor(GRID_COLOUR);
+            g.setStroke(new BasicStroke(Math.max(1, textSize / 20)));
+            g.draw(new Line2D.Double(px, top, px, bottom));
+            g.setColor(TEXT_COLOUR);
+            g.drawString(s, (float)(px - tfm.stringWidth(s) / 2.0), bottom + tfm.getAscent() + textSize * 0.2f);
+        }
+
+        for (long k = (long)Math.ceil(r[2] / yStep); k * yStep <= r[3] + (yStep * 1e-9); k++) {
+            double v = k * yStep;
+            double py = bottom - (v - r[2]) * yScale;
+            String s = formatTick(v, yStep);
+            g.setColor(GRID_COLOUR);
+            g.setStroke(new BasicStroke(Math.max(1, textSize / 20)));
+            g.draw(new Line2D.Double(left, py, right, py));
+            g.setColor(TEXT_COLOUR);
+            g.drawString(s, left - tfm.stringWidth(s) - textSize * 0.2f, (float)(py + tfm.getAscent() / 2.0 - tfm.getDescent() / 2.0));
+        }
+
+        // Data
+        g.setClip(left, top, right - left, bottom - top);
+        for (int l=0; l<layerTypes.size(); l++) {
+            int type = layerTypes.get(l);
+            double[] x = layerX.get(l);
+            double[] y = layerY.get(l);
+            Color c = layerColours.get(l);
+
+            if (type == LINE) {
+                Path2D.Double path = new Path2D.Double();
+                boolean started = false;
+                for (int i=0; i<x.length; i++) {
+                    double px = left + (x[i] - r[0]) * xScale;
+                    double py = bottom - (y[i] - r[2]) * yScale;
+                    if (started) {
+                        path.lineTo(px, py);
+                    } else {
+                        path.moveTo(px, py);
+                        started = true;
+                    }
+                }
+                g.setColor(c);
+                g.setStroke(new BasicStroke(Math.max(1, textSize / 16), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                g.draw(path);
+            } else if (type == BARS) {
+                double barWidth = layerSizes.get(l);
+                g.setColor(c);
+                for (int i=0; i<x.length; i++) {
+                    double x0 = left + (x[i] - barWidth / 2 - r[0]) * xScale;
+                    double y0 = bottom - (Math.max(0, y[i]) - r[2]) * yScale;
+                    double y1 = bottom - (Math.min(0, y[i]) - r[2]) * yScale;
+                    g.fill(new Rectangle2D.Double(x0, y0, barWidth * xScale, y1 - y0));
+                }
+            } else if (type == POINTS) {
+                double radius = textSize / 8;
+                g.setColor(new Color(c.getRed(), c.getGreen(), c.getBlue(), 128));
+                g.setStroke(new BasicStroke(Math.max(1, textSize / 14)));
+                for (int i=0; i<x.length; i++) {
+                    double px = left + (x[i] - r[0]) * xScale;
+                    double py = bottom - (y[i] - r[2]) * yScale;
+                    g.draw(new Ellipse2D.Double(px - radius, py - radius, radius * 2, radius * 2));
+                }
+            } else if (type == LABELS) {
+                String[] labels = layerLabels.get(l);
+                Font labelFont = new Font("SansSerif", Font.PLAIN, Math.max(6, Math.round(textSize * 0.3f)));
+                FontMetrics lfm = g.getFontMetrics(labelFont);
+                g.setFont(labelFont);
+                g.setColor(c);
+                for (int i=0; i<x.length; i++) {
+                    double px = left + (x[i] - r[0]) * xScale;
+                    double py = bottom - (y[i] - r[2]) * yScale;
+                    g.drawString(labels[i], (float)(px - lfm.stringWidth(labels[i]) / 2.0), (float)(py + lfm.getAscent() / 2.0));
+                }
+            }
+        }
+        g.setClip(null);
+
+        // Title and axis labels
+        g.setFont(font);
+        g.setColor(Color.BLACK);
+        if (title != null) {
+            g.drawString(title, left, top - fm.getDescent() - textSize * 0.2f);
+        }
+
+        if (xLabel != null) {
+            g.drawString(xLabel, (float)(left + (plotWidth - fm.stringWidth(xLabel)) / 2.0), height - (int)(height * 0.04) - fm.getDescent());
+        }
+
+        if (yLabel != null) {
+            AffineTransform t = g.getTransform();
+            g.translate((int)(width * 0.02) + fm.getAscent(), top + (plotHeight + fm.stringWidth(yLabel)) / 2.0);
+            g.rotate(-Math.PI / 2);
+            g.drawString(yLabel, 0, 0);
+            g.setTransform(t);
+        }
+
+        g.dispose();
+
+        return image;
+    }
+
+    /**
+     * Draw and save chart
+     * @param filename filename, without extension
+     * @param format "png" or "pdf"
+     */
+    public void save(String filename, String format) {
+        BufferedImage image = draw();
+
+        try {
+            if (format.equals("png")) {
+                ImageIO.write(image, "PNG", new File(filename + ".png"));
+            } else {
+                PDFImageWriter.write(image, filename + ".pdf", PDF_DPI);
+            }
+        } catch (Exception e) {
+            System.out.println("Chart exception:");
+            e.printStackTrace();
+        }
+    }
+}
@@ -146,6 +146,12 @@ public class ComparisonReportWriter {
             for (int i=0; i<sampleComparer.getNumberOfSamples(); i++) {
                 OverallStats os = sampleComparer.getSample(i);
                 ReferenceSequence rs = os.getStatsByType(type).getOptions().getReferences().getReferenceById(refSeq.getId());
+                
+                // No kmer abundances for a sample without alignments to this sequence
+                if (!rs.isInitialised()) {
+                    continue;
+                }
+                
                 rs.getStatsByType(type).sortKmerAbundance();
                 ArrayList<KmerAbundance> ka = rs.getStatsByType(type).getKmerAbundance();
                 pw.print(sampleComparer.getSampleName(i).replaceAll("_", "\\\\_"));
@@ -0,0 +1,136 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Table read from one of the whitespace separated analysis files, for
+ * plotting. Columns are found by name if the file has a header line, or by
+ * index otherwise.
+ *
+ * @author Richard Leggett
+ */
+public class DataTable {
+    private String filename;
+    private ArrayList<String> columnNames = new ArrayList<String>();
+    private ArrayList<String[]> rows = new ArrayList<String[]>();
+
+    /**
+     * Constructor - reads the file
+     * @param f filename
+     * @param header true if the first line names the columns
+     */
+    public DataTable(String f, boolean header) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        String line;
+
+        filename = f;
+
+        while ((line = br.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+
+            String[] values = line.split("\\s+");
+            if (header && (columnNames.size() == 0)) {
+                for (int i=0; i<values.length; i++) {
+                    columnNames.add(values[i]);
+                }
+            } else {
+                rows.add(values);
+            }
+        }
+
+        br.close();
+    }
+
+    /**
+     * Read a table, if the file exists
+     * @param f filename
+     * @param header true if the first line names the columns
+     * @return table, or null if there's no file or it can't be read
+     */
+    public static DataTable read(String f, boolean header) {
+        if (!new File(f).exists()) {
+            return null;
+        }
+
+        try {
+            return new DataTable(f, header);
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't read " + f);
+            return null;
+        }
+    }
+
+    public int getNumberOfRows() {
+        return rows.size();
+    }
+
+    /**
+     * Get index of a named column
+     * @param name column name
+     * @return index
+     */
+    private int getColumnIndex(String name) {
+        int c = columnNames.indexOf(name);
+
+        if (c == -1) {
+            throw new IllegalArgumentException("No column " + name + " in " + filename);
+        }
+
+        return c;
+    }
+
+    /**
+     * Get a column as numbers. Values which aren't numbers are NaN.
+     * @param c column index
+     * @return values
+     */
+    public double[] getColumn(int c) {
+        double[] values = new double[rows.size()];
+
+        for (int i=0; i<rows.size(); i++) {
+            String[] row = rows.get(i);
+            try {
+                values[i] = c < row.length ? Double.parseDouble(row[c]) : Double.NaN;
+            } catch (NumberFormatException e) {
+                values[i] = Double.NaN;
+            }
+        }
+
+        return values;
+    }
+
+    public double[] getColumn(String name) {
+        return getColumn(getColumnIndex(name));
+    }
+
+    /**
+     * Get a column as strings
+     * @param name column name
+     * @return values
+     */
+    public String[] getStrings(String name) {
+        int c = getColumnIndex(name);
+        String[] values = new String[rows.size()];
+
+        for (int i=0; i<rows.size(); i++) {
+            String[] row = rows.get(i);
+            values[i] = c < row.length ? row[c] : "";
+        }
+
+        return values;
+    }
+}
@@ -8,6 +8,7 @@
 package nanook;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -29,6 +30,10 @@ public class Fast5File {
     private int highestBasecall1D = -1;
     private int highestBasecall2D = -1;
     private double meanQScore = 0;
+    private Fast5Reader reader = null;
+    private MultiReadFast5File multiReadFile = null;
+    private String readGroup = null;
+    private String pathPrefix = "";
     
     /**
      * Constructor
@@ -38,53 +43,135 @@ public class Fast5File {
         options = o;
         filename = f;
         log = options.getLog();
+        reader = openReader(options, filename);
         indexFile();
     }
     
+    /**
+     * Constructor for one read of a multi-read file
+     * @param o program options
+     * @param m file containing the read, whose reader is shared with its other reads
+     * @param r reader shared with other reads of the file
+     * @param g read group (e.g. read_xxx), or null for a single read file
+     */
+    public Fast5File(NanoOKOptions o, MultiReadFast5File m, Fast5Reader r, String g) {
+        options = o;
+        multiReadFile = m;
+        filename = m.getFilename();
+        log = options.getLog();
+        reader = r;
+        readGroup = g;
+        if (readGroup != null) {
+            pathPrefix = "/" + readGroup;
+        }
+        indexFile();
+    }
+    
+    /**
+     * Open native reader, unless user has asked for h5dump or file can't be parsed natively
+     * @param options program options
+     * @param filename FAST5 filename
+     * @return reader
+     */
+    public static Fast5Reader openReader(NanoOKOptions options, String filename) {
+        if (!options.useH5dump()) {
+            try {
+                return new NativeFast5Reader(filename);
+            } catch (Exception e) {
+                options.getLog().warn("Warning: couldn't open "+filename+" natively ("+e+"), using h5dump");
+            }
+        }
+        
+        return new H5DumpFast5Reader(filename);
+    }
+    
+    /**
+     * Switch to h5dump after native reader failed
+     * @param e exception thrown by native reader
+     */
+    private void fallBackToH5dump(Exception e) {
+        log.warn("Warning: native read of "+filename+" failed ("+e+"), using h5dump");
+        if (multiReadFile != null) {
+            reader = multiReadFile.getFallbackReader();
+        } else {
+            reader.close();
+            reader = new H5DumpFast5Reader(filename);
+        }
+    }
+    
+    /**
+     * Close file
+     */
+    public void close() {
+        if ((reader != null) && (multiReadFile == null)) {
+            reader.close();
+        }
+        reader = null;
+    }
+    
+    /**
+     * Get read group within a multi-read file
+     * @return group name, or null for single read files
+     */
+    public String getReadGroup() {
+        return readGroup;
+    }
+    
     /**
      * Index groups and datasets
      */
     public void indexFile() {
-        boolean[] typesAvailable = new boolean[3];
-        ProcessLogger pl = new ProcessLogger();
-        ArrayList<String> response;
+        ArrayList<String> groupList = new ArrayList<String>();
+        ArrayList<String> datasetList = new ArrayList<String>();
        
-        log.println("Indexing file "+filename);
+        log.debug("Indexing file "+filename+(readGroup == null ? "":" "+readGroup));
 
-        response = pl.getCommandOutput("h5dump -n "+filename, true, true);
-        for (int i=0; i<response.size(); i++) {
-            String s = response.get(i).trim();
-            String[] cols = s.split("(\\s+)");
-            if (cols[0].equals("dataset")) {
-                datasets.add(cols[1]);
-            } else if (cols[0].equals("group")) {
-                groups.add(cols[1]);
-                if (cols[1].startsWith("/Analyses/Basecall_2D_")) {
-                    Pattern outPattern = Pattern.compile("^/Analyses/Basecall_2D_(\\d+)$");
-                    Matcher outMatcher = outPattern.matcher(cols[1]);
-                    if (outMatcher.find()) {
-                        int index = Integer.parseInt(outMatcher.group(1));
-                        if (index > highestBasecall2D) {
-                            highestBasecall2D = index;
-                        }
-                    }                    
-                } else if (cols[1].startsWith("/Analyses/Basecall_1D_")) {
-                    Pattern outPattern = Pattern.compile("^/Analyses/Basecall_1D_(\\d+)$");
-                    Matcher outMatcher = outPattern.matcher(cols[1]);
-                    if (outMatcher.find()) {
-                        int index = Integer.parseInt(outMatcher.group(1));
-                        if (index > highestBasecall1D) {
-                            highestBasecall1D = index;
-                        }
-                    }                    
-                }
-            }            
+        try {
+            reader.listObjects(pathPrefix.length() == 0 ? "/":pathPrefix, groupList, datasetList);
+        } catch (Exception e) {
+            fallBackToH5dump(e);
+            groupList.clear();
+            datasetList.clear();
+            try {
+                reader.listObjects(pathPrefix.length() == 0 ? "/":pathPrefix, groupList, datasetList);
+            } catch (IOException e2) {
+                log.warn("Error: couldn't index "+filename);
+            }
+        }
+        
+        // Paths are stored relative to read group
+        for (int i=0; i<datasetList.size(); i++) {
+            datasets.add(datasetList.get(i).substring(pathPrefix.length()));
+        }
+        
+        for (int i=0; i<groupList.size(); i++) {
+            String group = groupList.get(i).substring(pathPrefix.length());
+            groups.add(group);
+            if (group.startsWith("/Analyses/Basecall_2D_")) {
+                Pattern outPattern = Pattern.compile("^/Analyses/Basecall_2D_(\\d+)$");
+                Matcher outMatcher = outPattern.matcher(group);
+                if (outMatcher.find()) {
+                    int index = Integer.parseInt(outMatcher.group(1));
+                    if (index > highestBasecall2D) {
+                        highestBasecall2D = index;
+                    }
+                }                    
+            } else if (group.startsWith("/Analyses/Basecall_1D_")) {
+                Pattern outPattern = Pattern.compile("^/Analyses/Basecall_1D_(\\d+)$");
+                Matcher outMatcher = outPattern.matcher(group);
+                if (outMatcher.find()) {
+                    int index = Integer.parseInt(outMatcher.group(1));
+                    if (index > highestBasecall1D) {
+                        highestBasecall1D = index;
+                    }
+                }                    
+            }
         }
         
         // Old format files did not have separate Basecall_1D section
         if ((highestBasecall1D == -1) && (highestBasecall2D == -1)) {
             isCorrupt = true;
-            log.println("Error: couldn't find Basecall_1D or Basecall_2D in "+filename);
+            log.warn("Error: couldn't find Basecall_1D or Basecall_2D in "+filename);
         } else if ((highestBasecall1D == -1) && (highestBasecall2D >= 0)) {
             oldFormat = true;
             highestBasecall1D = highestBasecall2D;
@@ -92,25 +179,26 @@ public class Fast5File {
             if ((highestBasecall1D >=0) && (highestBasecall2D >=0)) {
                 if (highestBasecall1D != highestBasecall2D) {
                     //isCorrupt = true;
-                    log.println("Warning: Basecall_1D and Basecall_2D highest indicies not the same in "+filename);
+                    log.warn("Warning: Basecall_1D and Basecall_2D highest indicies not the same in "+filename);
                 }
             }
         }
 
-        log.println("    Highest1D: "+highestBasecall1D+" Highest2D: "+highestBasecall2D);
+        log.debug("    Highest1D: "+highestBasecall1D+" Highest2D: "+highestBasecall2D);
     }
     
     public double getMeanQAttribute(String attribute) {
-        ProcessLogger pl = new ProcessLogger();
-        ArrayList<String> response = pl.getCommandOutput("h5dump -a "+attribute+" "+filename, true, true);
         double meanq = 0;
-
-        // Look for value beginning (0): 
-        int l;
-        for (l=0; l<response.size(); l++) {
-            String line = response.get(l);
-            if (line.contains("(0):")) {
-                meanq = Double.parseDouble(line.substring(line.indexOf("(0):") + 5));
+        
+        try {
+            meanq = reader.getNumericAttribute(attribute);
+        } catch (Exception e) {
+            // A missing attribute comes back as 0, so only unsupported or malformed files end up here
+            fallBackToH5dump(e);
+            try {
+                meanq = reader.getNumericAttribute(attribute);
+            } catch (IOException e2) {
+                log.warn("Error: couldn't read "+attribute+" from "+filename);
             }
         }
 
@@ -126,46 +214,36 @@ public class Fast5File {
      * @return 
      */
     public FastAQFile getFastqFromDataset(String dataset) {
-        ProcessLogger pl = new ProcessLogger();
-        ArrayList<String> response = pl.getCommandOutput("h5dump -d "+dataset+" "+filename, true, true);
         FastAQFile ff = null;
-                
-        // Look for start of FASTQ section
-        int l;
-        for (l=0; l<response.size(); l++) {
-            if (response.get(l).contains("\"@")) {
-                break;
+        String fastq = null;
+        
+        try {
+            fastq = reader.getFastqDataset(dataset);
+        } catch (Exception e) {
+            fallBackToH5dump(e);
+            try {
+                fastq = reader.getFastqDataset(dataset);
+            } catch (IOException e2) {
+                log.warn("Error: couldn't read "+dataset+" from "+filename);
             }
         }
-        
-        // Parse FASTQ portion with regex
-        if (l < response.size()) {
+                
+        // Split FASTQ record into lines
+        if (fastq != null) {
+            String[] lines = fastq.split("\n");
             String id = null;
             String seq = null;
             String qual = null;
             
-            // Header row
-            Pattern outPattern = Pattern.compile("@(.+)");
-            Matcher outMatcher = outPattern.matcher(response.get(l));
-            if (outMatcher.find()) {
-                id = outMatcher.group(1);
-            }
-            
-            // Sequence
-            outPattern = Pattern.compile("(\\s*)(\\S+)");
-            outMatcher = outPattern.matcher(response.get(l+1));
-            if (outMatcher.find()) {
-                seq = outMatcher.group(2);
-            }
-            
-            // Qualities
-            outPattern = Pattern.compile("(\\s*)(\\S+)");
-            outMatcher = outPattern.matcher(response.get(l+3));
-            if (outMatcher.find()) {
-                qual = outMatcher.group(2);
+            if ((lines.length >= 4) && (lines[0].startsWith("@"))) {
+                id = lines[0].substring(1).trim();
+                seq = lines[1].trim();
+                qual = lines[3].trim();
             }
             
             // Fix IDs
+            Pattern outPattern;
+            Matcher outMatcher;
             if (id != null) {
                 outPattern = Pattern.compile("00000000-0000-0000-0000-000000000000(.+)");
                 outMatcher = outPattern.matcher(id);
@@ -193,7 +271,7 @@ public class Fast5File {
         String indexString;
         double meanQ = 0;
         
-        log.println("    Trying to get mean Q type "+type+" from "+filename+" with index "+index);
+        log.debug("    Trying to get mean Q type "+type+" from "+filename+" with index "+index);
         
         if (!isCorrupt) {
             if (index == -1) {
@@ -210,7 +288,7 @@ public class Fast5File {
                 } 
                 
                 if (index > highestIndex) {
-                    log.println("Error: index higher than highest Basecall available");
+                    log.warn("Error: index higher than highest Basecall available");
                     isCorrupt = true;
                 }            
             }
@@ -250,9 +328,9 @@ public class Fast5File {
         }
         
         if (meanQAttributePath != null) {
-            log.println("    Path: "+meanQAttributePath);
-            meanQ = getMeanQAttribute(meanQAttributePath);
-            log.println("    MeanQ: "+meanQ);
+            log.debug("    Path: "+meanQAttributePath);
+            meanQ = getMeanQAttribute(pathPrefix + meanQAttributePath);
+            log.debug("    MeanQ: "+meanQ);
         }
         
         return meanQ;        
@@ -269,7 +347,7 @@ public class Fast5File {
         String indexString;
         FastAQFile ff = null;
         
-        log.println("    Trying to get FASTQ type "+type+" from "+filename+" with index "+index);
+        log.debug("    Trying to get FASTQ type "+type+" from "+filename+" with index "+index);
         
         if (!isCorrupt) {
             if (index == -1) {
@@ -286,7 +364,7 @@ public class Fast5File {
                 } 
                 
                 if (index > highestIndex) {
-                    log.println("Error: index higher than highest Basecall available");
+                    log.warn("Error: index higher than highest Basecall available");
                     isCorrupt = true;
                 }            
             }
@@ -326,12 +404,12 @@ public class Fast5File {
         }
         
         if (fastqDatasetPath != null) {
-            log.println("    Path: "+fastqDatasetPath);
+            log.debug("    Path: "+fastqDatasetPath);
             if (datasets.contains(fastqDatasetPath)) {
-                log.println("    Found data: "+fastqDatasetPath);
-                ff = getFastqFromDataset(fastqDatasetPath);
+                log.debug("    Found data: "+fastqDatasetPath);
+                ff = getFastqFromDataset(pathPrefix + fastqDatasetPath);
             } else {
-                log.println("    Not there: "+fastqDatasetPath);
+                log.debug("    Not there: "+fastqDatasetPath);
             }
         }
         
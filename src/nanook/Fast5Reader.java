@@ -0,0 +1,53 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Interface for classes that can read the parts of a FAST5 file NanoOK needs.
+ * A reader may be shared by the threads processing the reads of a multi-read
+ * file, so implementations must be thread safe.
+ *
+ * @author Richard Leggett
+ */
+public interface Fast5Reader {
+    /**
+     * List all groups and datasets below a path.
+     * @param root path to start from, "/" for whole file
+     * @param groups list to add group paths to
+     * @param datasets list to add dataset paths to
+     */
+    public void listObjects(String root, ArrayList<String> groups, ArrayList<String> datasets) throws IOException;
+
+    /**
+     * Get names of read groups (read_*) in the root of a multi-read file.
+     * @return list of names, empty for single read files
+     */
+    public ArrayList<String> getReadGroups() throws IOException;
+
+    /**
+     * Get the contents of a FASTQ dataset.
+     * @param path path to dataset
+     * @return FASTQ record as multi-line String, or null if not found
+     */
+    public String getFastqDataset(String path) throws IOException;
+
+    /**
+     * Get a numeric attribute.
+     * @param path path to attribute, where last component is attribute name
+     * @return value, or 0 if not present
+     */
+    public double getNumericAttribute(String path) throws IOException;
+
+    /**
+     * Release any resources.
+     */
+    public void close();
+}
@@ -97,6 +97,31 @@ public class FastAQFile {
         return sequence.length();
     }
     
+    /**
+     * Get GC content, counting upper case bases only, as SequenceReader does
+     * @return percentage GC, or 0 for an empty read
+     */
+    public double getGC() {
+        int gc = 0;
+        
+        if (sequence.length() == 0) {
+            return 0;
+        }
+        
+        for (int i=0; i<sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if ((c == 'G') || (c == 'C')) {
+                gc++;
+            }
+        }
+        
+        return 100.0 * (double)gc / (double)sequence.length();
+    }
+    
+    public String getSequence() {
+        return sequence;
+    }
+    
     public String getID() {
         return id;
     }
@@ -0,0 +1,97 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads a FASTA or FASTQ file containing many reads one read at a time, so
+ * large multi-read files can be processed without holding them in memory.
+ * Format is detected from the first character of the file. Read IDs are
+ * the first word of the header.
+ *
+ * @author Richard Leggett
+ */
+public class FastAQStreamReader {
+    private String filename;
+    private BufferedReader br;
+    private String nextHeader = null;
+    private boolean isFastq = false;
+
+    public FastAQStreamReader(String f) throws IOException {
+        filename = f;
+        br = new BufferedReader(new FileReader(filename));
+        nextHeader = br.readLine();
+
+        if (nextHeader != null) {
+            if (nextHeader.startsWith("@")) {
+                isFastq = true;
+            } else if (!nextHeader.startsWith(">")) {
+                throw new IOException("File "+filename+" isn't FASTA or FASTQ");
+            }
+        }
+    }
+
+    /**
+     * Get next read.
+     * @return read, or null at end of file
+     */
+    public FastAQFile next() throws IOException {
+        String header = nextHeader;
+        String id;
+        String seq;
+        String qual = null;
+
+        if (header == null) {
+            return null;
+        }
+
+        id = header.substring(1).trim().split("\\s+")[0];
+
+        if (isFastq) {
+            seq = br.readLine();
+            String plus = br.readLine();
+            qual = br.readLine();
+            if ((seq == null) || (plus == null) || (qual == null) || (!plus.startsWith("+"))) {
+                throw new IOException("Badly formatted FASTQ entry for "+id+" in "+filename);
+            }
+            seq = seq.trim();
+            nextHeader = br.readLine();
+        } else {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            nextHeader = null;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(">")) {
+                    nextHeader = line;
+                    break;
+                }
+                sb.append(line.trim());
+            }
+            seq = sb.toString();
+        }
+
+        // Skip blank lines between records
+        while ((nextHeader != null) && (nextHeader.trim().length() == 0)) {
+            nextHeader = br.readLine();
+        }
+
+        return new FastAQFile(id, seq, qual);
+    }
+
+    public void close() {
+        try {
+            br.close();
+        } catch (IOException e) {
+            System.out.println("FastAQStreamReader exception:");
+            e.printStackTrace();
+        }
+    }
+}
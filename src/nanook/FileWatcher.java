@@ -8,27 +8,65 @@
 package nanook;
 
 import java.io.File;
-import java.util.*;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Watches directories for new files. Where the filesystem supports it, new
+ * files and batch directories are picked up from WatchService events. Every
+ * directory is still rescanned in full every getFileWatcherScanInterval
+ * seconds, and on every pass if it couldn't be registered, to catch
+ * filesystems (e.g. NFS) that don't emit events.
+ * 
+ * Worker threads block in getPendingFile until a file is queued, and are
+ * released by shutdown once the watcher has timed out.
+ * 
+ * @author Richard Leggett
+ */
 public class FileWatcher {
     private NanoOKOptions options;
     private int filesToProcess = 0;
     private int filesProcessed = 0;
+    private int filesDone = 0;
     private int lastCompleted = -1;
     private long lastFileTime = System.nanoTime();
-    private long secsSinceLast = 0;
     private boolean useProgressBar = false;
     private ArrayList<FileWatcherItem> batchContainersToWatch = new ArrayList();
     private ArrayList<FileWatcherItem> fileDirsToWatch = new ArrayList();
     private Hashtable<String, Integer> batchDirs = new Hashtable();
-    private Hashtable<String, Integer> allFiles = new Hashtable();
-    private LinkedList<FileWatcherItem> pendingFiles = new LinkedList<FileWatcherItem>();
+    private HashSet<String> allFiles = new HashSet<String>();
+    private LinkedBlockingDeque<FileWatcherItem> pendingFiles = new LinkedBlockingDeque<FileWatcherItem>();
+    private final static FileWatcherItem SHUTDOWN = new FileWatcherItem((String)null, 0);
+    private WatchService watchService = null;
+    private Hashtable<WatchKey, FileWatcherItem> fileDirKeys = new Hashtable<WatchKey, FileWatcherItem>();
+    private Hashtable<WatchKey, FileWatcherItem> batchContainerKeys = new Hashtable<WatchKey, FileWatcherItem>();
+    private HashSet<String> registeredDirs = new HashSet<String>();
+    private long lastFullScanTime = 0;
+    private boolean fullScanNeeded = true;
+    private int newFileCount = 0;
     
     public FileWatcher(NanoOKOptions o) {
         options = o;
+        
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (Exception e) {
+            options.getLog().warn("Warning: can't watch for file events ("+e+"), falling back to scanning");
+            watchService = null;
+        }
     }
     
     //public FileWatcher(NanoOKOptions o, String d) {
@@ -39,25 +77,140 @@ public class FileWatcher {
     public void addBatchContainer(String d, int pf) {
         options.getLog().println("Added batch dir: "+d);
         batchContainersToWatch.add(new FileWatcherItem(d, pf));
+        fullScanNeeded = true;
     }
     
     public void addWatchDir(String d, int pf) {
         options.getLog().println("Added watch dir: "+d);
         fileDirsToWatch.add(new FileWatcherItem(d, pf));
+        fullScanNeeded = true;
+    }
+    
+    /**
+     * Register a directory with the watch service, if not already registered.
+     * @param dir directory to register
+     * @param keys table to store key in
+     * @return true if directory is registered
+     */
+    private boolean registerDir(FileWatcherItem dir, Hashtable<WatchKey, FileWatcherItem> keys) {
+        if (watchService == null) {
+            return false;
+        }
+        
+        if (registeredDirs.contains(dir.getPathname())) {
+            return true;
+        }
+        
+        try {
+            WatchKey key = Paths.get(dir.getPathname()).register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            keys.put(key, dir);
+            registeredDirs.add(dir.getPathname());
+            options.getLog().debug("Registered "+dir.getPathname()+" for events");
+            return true;
+        } catch (IOException e) {
+            options.getLog().debug("Couldn't register "+dir.getPathname()+" for events ("+e+")");
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Store a file if we haven't seen it before.
+     * @param file file to check
+     * @param pf pass or fail type of directory
+     */
+    private void checkNewFile(File file, int pf) {
+        if (file.isFile()) {
+            if (!file.getName().startsWith(("."))) {
+                if (!allFiles.contains(file.getPath())) {
+                    newFileCount++;
+                    options.getLog().debug("Got file "+file.getPath());
+                    allFiles.add(file.getPath());
+                    this.addPendingFile(file.getPath(), pf);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Start watching a batch directory if we haven't seen it before.
+     * @param file directory to check
+     * @param pf pass or fail type of container
+     * @return new FileWatcherItem, or null if not a new batch directory
+     */
+    private FileWatcherItem checkNewBatchDir(File file, int pf) {
+        if (file.isDirectory()) {
+            if (!file.getName().startsWith(("."))) {
+                if (!batchDirs.containsKey(file.getPath())) {
+                    FileWatcherItem dir = new FileWatcherItem(file.getPath(), pf);
+                    options.getLog().println("Got batch dir "+file.getPath());
+                    batchDirs.put(file.getPath(), 1);
+                    fileDirsToWatch.add(dir);
+                    registerDir(dir, fileDirKeys);
+                    return dir;
+                }
+            }
+        }
+        
+        return null;
     }
     
     public synchronized void addPendingFile(String s, int pf) {
-        pendingFiles.add(new FileWatcherItem(s, pf));
         filesToProcess++;
+        pendingFiles.addLast(new FileWatcherItem(s, pf));
     }
     
-    public synchronized FileWatcherItem getPendingFile() {
-        if (pendingFiles.size() > 0) {
-            filesProcessed++;
-            return pendingFiles.removeFirst();
-        } else {
+    /**
+     * Put an item at the front of the queue, so that the remaining reads of an
+     * open multi-read file are shared between threads before another file is started.
+     * @param fwi item to add
+     */
+    public synchronized void addPendingItemFirst(FileWatcherItem fwi) {
+        filesToProcess++;
+        pendingFiles.addFirst(fwi);
+    }
+    
+    /**
+     * Get next item to process, waiting until one is available. Callers must
+     * call pendingFileDone when they have finished with the item.
+     * @return next item, or null once shutdown has been called
+     */
+    public FileWatcherItem getPendingFile() {
+        FileWatcherItem fwi;
+        
+        try {
+            fwi = pendingFiles.takeFirst();
+        } catch (InterruptedException e) {
             return null;
         }
+        
+        if (fwi == SHUTDOWN) {
+            return null;
+        }
+        
+        synchronized(this) {
+            filesProcessed++;
+        }
+        
+        return fwi;
+    }
+    
+    /**
+     * Mark an item returned by getPendingFile as finished with.
+     */
+    public synchronized void pendingFileDone() {
+        filesDone++;
+    }
+    
+    /**
+     * Release worker threads waiting in getPendingFile. Anything already
+     * queued is still handed out first.
+     * @param n number of worker threads
+     */
+    public void shutdown(int n) {
+        for (int i=0; i<n; i++) {
+            pendingFiles.addLast(SHUTDOWN);
+        }
     }
 
     public void writeProgress() {
@@ -86,95 +239,206 @@ public class FileWatcher {
         }
     }
     
-    private void checkForNewBatchDirs() {
-        int count = 0;
+    private void checkForNewBatchDirs(boolean fullScan) {
         for (int i=0; i<batchContainersToWatch.size(); i++) {
             FileWatcherItem dir = batchContainersToWatch.get(i);
             int pf = dir.getPassOrFail();
             String dirName = dir.getPathname();
+            
+            if (!fullScan && registeredDirs.contains(dirName)) {
+                continue;
+            }
+            
+            registerDir(dir, batchContainerKeys);
+            
             File d = new File(dirName);
             File[] listOfFiles = d.listFiles();
 
-            options.getLog().println("Scanning for new batch dirs "+dirName);
+            options.getLog().debug("Scanning for new batch dirs "+dirName);
 
             if (listOfFiles == null) {
-                options.getLog().println("Directory "+dirName+" doesn't exist");
+                options.getLog().debug("Directory "+dirName+" doesn't exist");
             } else if (listOfFiles.length <= 0) {
-                options.getLog().println("Directory "+dirName+" empty");
+                options.getLog().debug("Directory "+dirName+" empty");
             } else {
                 for (File file : listOfFiles) {
-                    if (file.isDirectory()) {
-                        if (!file.getName().startsWith(("."))) {
-                            if (!batchDirs.containsKey(file.getPath())) {
-                                count++;
-                                options.getLog().println("Got batch dir "+file.getPath());
-                                batchDirs.put(file.getPath(), 1);
-                                fileDirsToWatch.add(new FileWatcherItem(file.getPath(), pf));
-                            }
-                        }
-                    }
+                    checkNewBatchDir(file, pf);
                 }            
             }    
         }
     }
     
-    public void scan() {
-        int count = 0;
+    /**
+     * Scan a directory for files we haven't seen before.
+     * @param dir directory to scan
+     */
+    private void scanDir(FileWatcherItem dir) {
+        String dirName = dir.getPathname();
+        File d = new File(dirName);
+        File[] listOfFiles = d.listFiles();
+
+        options.getLog().debug("Scanning "+dirName);
+
+        if (listOfFiles == null) {
+            options.getLog().debug("Directory "+dirName+" doesn't exist");
+        } else if (listOfFiles.length <= 0) {
+            options.getLog().debug("Directory "+dirName+" empty");
+        } else {
+            for (File file : listOfFiles) {
+                checkNewFile(file, dir.getPassOrFail());
+            }            
+        }    
+    }
+    
+    /**
+     * Deal with any events waiting on the watch service.
+     * @param maxWait milliseconds to wait for the first event
+     */
+    private void processEvents(long maxWait) {
+        WatchKey key;
+        
+        try {
+            key = watchService.poll(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return;
+        }
+        
+        for (; key != null; key = watchService.poll()) {
+            FileWatcherItem dir = fileDirKeys.get(key);
+            boolean isBatchContainer = false;
+            
+            if (dir == null) {
+                dir = batchContainerKeys.get(key);
+                isBatchContainer = true;
+            }
+            
+            if (dir == null) {
+                key.cancel();
+                continue;
+            }
+            
+            for (WatchEvent<?> event: key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    options.getLog().debug("Event overflow on "+dir.getPathname());
+                    fullScanNeeded = true;
+                } else {
+                    Path name = (Path)event.context();
+                    File file = new File(dir.getPathname(), name.toString());
+                    
+                    if (isBatchContainer) {
+                        FileWatcherItem batchDir = checkNewBatchDir(file, dir.getPassOrFail());
+                        
+                        // Files may have been written before we registered the directory
+                        if (batchDir != null) {
+                            scanDir(batchDir);
+                        }
+                    } else {
+                        checkNewFile(file, dir.getPassOrFail());
+                    }
+                }
+            }
+            
+            // If directory has gone, go back to scanning it
+            if (!key.reset()) {
+                fileDirKeys.remove(key);
+                batchContainerKeys.remove(key);
+                registeredDirs.remove(dir.getPathname());
+            }
+        }
+    }
+    
+    /**
+     * Look for new files, waiting for up to maxWait ms for some to arrive.
+     * @param maxWait milliseconds to wait
+     */
+    public void scan(long maxWait) {
+        long now;
+        boolean fullScan;
+        
+        newFileCount = 0;
+        
+        // Directories are registered in a full scan, so don't wait for events before one
+        if (fullScanNeeded) {
+            maxWait = 0;
+        }
+        
+        if (watchService != null) {
+            processEvents(maxWait);
+        } else {
+            try {
+                Thread.sleep(maxWait);
+            } catch (InterruptedException e) {
+            }
+        }
+
+        now = System.nanoTime();
+        fullScan = fullScanNeeded ||
+                   (watchService == null) ||
+                   ((now - lastFullScanTime) / 1000000000 >= options.getFileWatcherScanInterval());
                 
         if (options.usingBatchDirs()) {
-            checkForNewBatchDirs();
+            checkForNewBatchDirs(fullScan);
         }
         
         for (int i=0; i<fileDirsToWatch.size(); i++) {
             FileWatcherItem dir = fileDirsToWatch.get(i);
-            String dirName = dir.getPathname();
-            File d = new File(dirName);
-            File[] listOfFiles = d.listFiles();
-
-            options.getLog().println("Scanning "+dirName);
-
-            if (listOfFiles == null) {
-                options.getLog().println("Directory "+dirName+" doesn't exist");
-            } else if (listOfFiles.length <= 0) {
-                options.getLog().println("Directory "+dirName+" empty");
-            } else {
-                for (File file : listOfFiles) {
-                    if (file.isFile()) {
-                        if (!file.getName().startsWith(("."))) {
-                            if (!allFiles.containsKey(file.getPath())) {
-                                count++;
-                                options.getLog().println("Got file "+file.getPath());
-                                allFiles.put(file.getPath(), 1);
-                                this.addPendingFile(file.getPath(), dir.getPassOrFail());
-                            }
-                        }
-                    }
-                }            
-            }    
+            boolean registered = registeredDirs.contains(dir.getPathname());
+            
+            // Register before scanning, so nothing created in between is missed
+            if (!registered) {
+                registerDir(dir, fileDirKeys);
+            }
+            
+            if (fullScan || !registered) {
+                scanDir(dir);
+            }
         }
         
-        options.getLog().println("Found "+count + " new files.");
+        if (fullScan) {
+            options.getLog().debug("Full scan of "+fileDirsToWatch.size()+" directories");
+            lastFullScanTime = now;
+            fullScanNeeded = false;
+        }
+        
+        options.getLog().debug("Found "+newFileCount + " new files.");
 
-        if (count == 0) {
-            long timeSince = System.nanoTime() - lastFileTime;
-            secsSinceLast = timeSince / 1000000000;
-            options.getLog().println("Not seen file for " + (secsSinceLast) + "s");
+        if (newFileCount == 0) {
+            options.getLog().debug("Not seen file for " + getSecsSinceLastFile() + "s");
         } else {
             lastFileTime = System.nanoTime();
         }
     }
     
+    /**
+     * Stop watching for events.
+     */
+    public void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                options.getLog().warn("Warning: couldn't close watch service ("+e+")");
+            }
+            watchService = null;
+        }
+    }
+    
     public long getSecsSinceLastFile() {
-        return secsSinceLast;
+        return (System.nanoTime() - lastFileTime) / 1000000000;
     }
     
     public int getPendingFiles() {
         return pendingFiles.size();
     }
     
-    public boolean timedOut() {
-        if (pendingFiles.size() == 0) {        
-            if (secsSinceLast >= options.getFileWatcherTimeout()) {
+    /**
+     * Check if every queued file has been finished with and no new ones have
+     * been seen for the timeout period.
+     * @return true if timed out
+     */
+    public synchronized boolean timedOut() {
+        if (filesDone == filesToProcess) {        
+            if (getSecsSinceLastFile() >= options.getFileWatcherTimeout()) {
                 return true;
             }
         }
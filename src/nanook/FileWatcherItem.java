@@ -1,14 +1,46 @@
 package nanook;
 
+import java.util.ArrayList;
+
 public class FileWatcherItem {
     private String pathname;
     private int passOrFail;
+    private MultiReadFast5File multiReadFile = null;
+    private ArrayList<String> alignmentBatch = null;
     
     public FileWatcherItem(String p, int pf) {
         pathname = p;
         passOrFail = pf;
     }
     
+    public FileWatcherItem(MultiReadFast5File m, int pf) {
+        pathname = m.getFilename();
+        passOrFail = pf;
+        multiReadFile = m;
+    }
+    
+    public FileWatcherItem(ArrayList<String> b, int pf) {
+        pathname = b.get(0);
+        passOrFail = pf;
+        alignmentBatch = b;
+    }
+    
+    /**
+     * Get open multi-read file still to be worked through
+     * @return file, or null if this item is a plain pathname
+     */
+    public MultiReadFast5File getMultiReadFile() {
+        return multiReadFile;
+    }
+    
+    /**
+     * Get batch of read files to align together
+     * @return list of read files, or null if this item isn't a batch
+     */
+    public ArrayList<String> getAlignmentBatch() {
+        return alignmentBatch;
+    }
+    
     public String getPathname() {
         return pathname;
     }
@@ -10,8 +10,7 @@ package nanook;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Arrays;
 
 /**
  * Count GC content in references
@@ -19,25 +18,16 @@ import java.util.logging.Logger;
  * @author Richard Leggett
  */
 public class GCCounter {
-    PrintWriter pw = null;
     int binSize = 0;
-    int currentGCPosition = 0;
     int currentGCCounter = 0;
     int currentGC = 0;
     int counts[];
+    int gcCounts[] = new int[16];
+    int nBins = 0;
     
-    public GCCounter(int bs, String outputFilename) {
+    public GCCounter(int bs) {
         binSize = bs;
         counts = new int[binSize*2];
-        currentGCPosition = binSize;
-
-        try {
-            pw = new PrintWriter(new FileWriter(outputFilename));
-        } catch (IOException e) {
-            System.out.println("GCCounter exception:");
-            e.printStackTrace();
-            System.exit(1);
-        }
     }
     
     /**
@@ -45,30 +35,53 @@ public class GCCounter {
      */
     private void storeGC() {
         int gc = 0;
-        double pc;
                 
         for (int i=0; i<binSize; i++) {
             gc += counts[i];
         }
         
-        pc = (100.0 * (double)gc) / (double)binSize;        
-        if (pw != null) {
-            pw.println(currentGCPosition + "\t" + pc);
+        if (nBins == gcCounts.length) {
+            gcCounts = Arrays.copyOf(gcCounts, nBins * 2);
         }
+        gcCounts[nBins++] = gc;
+    }
+    
+    /**
+     * Get number of G/C bases in each bin
+     * @return counts
+     */
+    public int[] getGCCounts() {
+        return Arrays.copyOf(gcCounts, nBins);
     }
     
     /**
-     * Close file
+     * Write GC file for graph plotting
+     * @param outputFilename output filename
+     * @param binSize bin size
+     * @param gcCounts number of G/C bases in each bin, from getGCCounts
      */
-    public void closeFile() {
-        pw.close();
+    public static void writeGCFile(String outputFilename, int binSize, int[] gcCounts) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(outputFilename));
+            int currentGCPosition = binSize;
+            for (int i=0; i<gcCounts.length; i++) {
+                double pc = (100.0 * (double)gcCounts[i]) / (double)binSize;        
+                pw.println(currentGCPosition + "\t" + pc);
+                currentGCPosition += binSize;
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("GCCounter exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
     
     /**
      * Process sequence string
      * @param line 
      */
-    public void addString(String line) {
+    public void addString(CharSequence line) {
         for (int i=0; i<line.length(); i++) {
             if ((line.charAt(i) == 'G') || (line.charAt(i) == 'C') || (line.charAt(i) == 'g') || (line.charAt(i) == 'c')) {
                 counts[currentGCCounter] = 1;
@@ -85,7 +98,6 @@ public class GCCounter {
                 for (int j=binSize; j<(binSize*2); j++) {
                     counts[currentGCCounter++] = counts[j];
                 }
-                currentGCPosition += binSize;
                 currentGC = 0;
             }
         }                    
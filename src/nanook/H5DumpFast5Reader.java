@@ -0,0 +1,149 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read FAST5 files by running h5dump and parsing its output.
+ *
+ * @author Richard Leggett
+ */
+public class H5DumpFast5Reader implements Fast5Reader {
+    private String filename;
+    private ArrayList<String> allGroups = null;
+    private ArrayList<String> allDatasets = null;
+
+    /**
+     * Constructor
+     * @param f filename
+     */
+    public H5DumpFast5Reader(String f) {
+        filename = f;
+    }
+
+    /**
+     * Run h5dump -n once and keep the listing, as reads of a multi-read file will each ask for it.
+     */
+    private synchronized void indexFile() {
+        if (allGroups == null) {
+            ProcessLogger pl = new ProcessLogger();
+            ArrayList<String> response = pl.getCommandOutput("h5dump -n "+filename, true, true);
+
+            allGroups = new ArrayList<String>();
+            allDatasets = new ArrayList<String>();
+            for (int i=0; i<response.size(); i++) {
+                String s = response.get(i).trim();
+                String[] cols = s.split("(\\s+)");
+                if (cols.length > 1) {
+                    if (cols[0].equals("dataset")) {
+                        allDatasets.add(cols[1]);
+                    } else if (cols[0].equals("group")) {
+                        allGroups.add(cols[1]);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void addBelow(String root, ArrayList<String> from, ArrayList<String> to) {
+        for (int i=0; i<from.size(); i++) {
+            String s = from.get(i);
+            if (root.equals("/") || s.equals(root) || s.startsWith(root + "/")) {
+                to.add(s);
+            }
+        }
+    }
+
+    public void listObjects(String root, ArrayList<String> groups, ArrayList<String> datasets) {
+        indexFile();
+        addBelow(root, allGroups, groups);
+        addBelow(root, allDatasets, datasets);
+    }
+
+    public ArrayList<String> getReadGroups() {
+        ArrayList<String> readGroups = new ArrayList<String>();
+
+        indexFile();
+        for (int i=0; i<allGroups.size(); i++) {
+            String s = allGroups.get(i);
+            if (s.startsWith("/read_") && (s.indexOf('/', 1) == -1)) {
+                readGroups.add(s.substring(1));
+            }
+        }
+
+        return readGroups;
+    }
+
+    public String getFastqDataset(String path) {
+        ProcessLogger pl = new ProcessLogger();
+        ArrayList<String> response = pl.getCommandOutput("h5dump -d "+path+" "+filename, true, true);
+
+        // Look for start of FASTQ section
+        int l;
+        for (l=0; l<response.size(); l++) {
+            if (response.get(l).contains("\"@")) {
+                break;
+            }
+        }
+
+        // Parse FASTQ portion with regex
+        if (l + 3 < response.size()) {
+            String id = null;
+            String seq = null;
+            String qual = null;
+
+            // Header row
+            Pattern outPattern = Pattern.compile("@(.+)");
+            Matcher outMatcher = outPattern.matcher(response.get(l));
+            if (outMatcher.find()) {
+                id = outMatcher.group(1);
+            }
+
+            // Sequence
+            outPattern = Pattern.compile("(\\s*)(\\S+)");
+            outMatcher = outPattern.matcher(response.get(l+1));
+            if (outMatcher.find()) {
+                seq = outMatcher.group(2);
+            }
+
+            // Qualities
+            outMatcher = outPattern.matcher(response.get(l+3));
+            if (outMatcher.find()) {
+                qual = outMatcher.group(2);
+            }
+
+            if ((id != null) && (seq != null) && (qual != null)) {
+                return "@" + id + "\n" + seq + "\n+\n" + qual + "\n";
+            }
+        }
+
+        return null;
+    }
+
+    public double getNumericAttribute(String path) {
+        ProcessLogger pl = new ProcessLogger();
+        ArrayList<String> response = pl.getCommandOutput("h5dump -a "+path+" "+filename, true, true);
+        double value = 0;
+
+        // Look for value beginning (0):
+        for (int l=0; l<response.size(); l++) {
+            String line = response.get(l);
+            if (line.contains("(0):")) {
+                value = Double.parseDouble(line.substring(line.indexOf("(0):") + 5));
+            }
+        }
+
+        return value;
+    }
+
+    public void close() {
+    }
+}
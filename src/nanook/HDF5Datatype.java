@@ -0,0 +1,78 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Parsed HDF5 datatype message - only the fields NanoOK needs to decode
+ * numbers and strings.
+ *
+ * @author Richard Leggett
+ */
+public class HDF5Datatype {
+    public final static int CLASS_FIXED_POINT = 0;
+    public final static int CLASS_FLOATING_POINT = 1;
+    public final static int CLASS_STRING = 3;
+    public final static int CLASS_VARIABLE_LENGTH = 9;
+    private int typeClass;
+    private int size;
+    private boolean bigEndian = false;
+    private boolean signed = false;
+    private boolean variableLengthString = false;
+
+    /**
+     * Constructor
+     * @param c datatype class
+     * @param s size in bytes of one element
+     * @param bitField first byte of class bit field
+     */
+    public HDF5Datatype(int c, int s, int bitField) {
+        typeClass = c;
+        size = s;
+
+        switch(typeClass) {
+            case CLASS_FIXED_POINT:
+                bigEndian = (bitField & 0x01) == 0x01;
+                signed = (bitField & 0x08) == 0x08;
+                break;
+            case CLASS_FLOATING_POINT:
+                bigEndian = (bitField & 0x01) == 0x01;
+                break;
+            case CLASS_VARIABLE_LENGTH:
+                variableLengthString = (bitField & 0x0F) == 1;
+                break;
+        }
+    }
+
+    public int getTypeClass() {
+        return typeClass;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isBigEndian() {
+        return bigEndian;
+    }
+
+    public boolean isSigned() {
+        return signed;
+    }
+
+    public boolean isString() {
+        return (typeClass == CLASS_STRING) || variableLengthString;
+    }
+
+    public boolean isVariableLengthString() {
+        return variableLengthString;
+    }
+
+    public boolean isNumeric() {
+        return (typeClass == CLASS_FIXED_POINT) || (typeClass == CLASS_FLOATING_POINT);
+    }
+}
@@ -0,0 +1,888 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal pure-Java reader for the parts of the HDF5 format used by FAST5
+ * files - groups (symbol table or compact link storage), scalar string
+ * datasets with compact or contiguous layout, and numeric or string
+ * attributes. Anything else (dense link storage, chunked datasets, shared
+ * datatypes) results in an UnsupportedOperationException, so callers can
+ * fall back to h5dump. Reads are positional and parsed headers are kept in
+ * concurrent caches, so one instance can be shared by several threads.
+ *
+ * @author Richard Leggett
+ */
+public class HDF5File {
+    private final static byte[] SIGNATURE = {(byte)0x89, 'H', 'D', 'F', '\r', '\n', 0x1A, '\n'};
+    private final static long UNDEFINED_ADDRESS = -1;
+    private final static int MSG_DATASPACE = 0x01;
+    private final static int MSG_LINK_INFO = 0x02;
+    private final static int MSG_DATATYPE = 0x03;
+    private final static int MSG_LINK = 0x06;
+    private final static int MSG_LAYOUT = 0x08;
+    private final static int MSG_ATTRIBUTE = 0x0C;
+    private final static int MSG_CONTINUATION = 0x10;
+    private final static int MSG_SYMBOL_TABLE = 0x11;
+    private final static int MSG_ATTRIBUTE_INFO = 0x15;
+    private String filename;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private long baseAddress = 0;
+    private int offsetSize = 8;
+    private int lengthSize = 8;
+    private long rootAddress;
+    private ConcurrentHashMap<Long, HDF5Object> objectCache = new ConcurrentHashMap<Long, HDF5Object>();
+    private ConcurrentHashMap<Long, ByteBuffer> globalHeapCache = new ConcurrentHashMap<Long, ByteBuffer>();
+
+    /**
+     * Open file and read superblock.
+     * @param f filename
+     * @throws IOException if not a readable HDF5 file
+     */
+    public HDF5File(String f) throws IOException {
+        filename = f;
+        file = new RandomAccessFile(filename, "r");
+        channel = file.getChannel();
+
+        try {
+            readSuperblock();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Close file.
+     */
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.out.println("HDF5File exception closing "+filename);
+        }
+    }
+
+    /**
+     * Read bytes from file, relative to the base address.
+     */
+    private ByteBuffer read(long address, long length) throws IOException {
+        return readAbsolute(baseAddress + address, length);
+    }
+
+    private ByteBuffer readAbsolute(long position, long length) throws IOException {
+        if ((length < 0) || (length > Integer.MAX_VALUE)) {
+            throw new IOException("Bad read length "+length+" in "+filename);
+        }
+
+        ByteBuffer b = ByteBuffer.allocate((int)length).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining()) {
+            int n = channel.read(b, position + b.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        b.flip();
+
+        return b;
+    }
+
+    private ByteBuffer readExactly(long address, long length) throws IOException {
+        ByteBuffer b = read(address, length);
+
+        if (b.limit() < length) {
+            throw new IOException("Unexpected end of file at "+address+" in "+filename);
+        }
+
+        return b;
+    }
+
+    private static long readUnsigned(ByteBuffer b, int pos, int size) {
+        long value = 0;
+
+        for (int i=size-1; i>=0; i--) {
+            value = (value << 8) | (b.get(pos + i) & 0xFF);
+        }
+
+        return value;
+    }
+
+    private long readOffset(ByteBuffer b, int pos) {
+        boolean undefined = true;
+
+        for (int i=0; i<offsetSize; i++) {
+            if (b.get(pos + i) != (byte)0xFF) {
+                undefined = false;
+                break;
+            }
+        }
+
+        return undefined ? UNDEFINED_ADDRESS:readUnsigned(b, pos, offsetSize);
+    }
+
+    private long readLength(ByteBuffer b, int pos) {
+        return readUnsigned(b, pos, lengthSize);
+    }
+
+    private static ByteBuffer slice(ByteBuffer b, int pos, int length) {
+        ByteBuffer d = b.duplicate();
+        d.position(pos);
+        d.limit(pos + length);
+        return d.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static boolean hasSignature(ByteBuffer b, int pos, String sig) {
+        if (b.limit() < pos + sig.length()) {
+            return false;
+        }
+
+        for (int i=0; i<sig.length(); i++) {
+            if (b.get(pos + i) != (byte)sig.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int pad8(int n) {
+        return (n + 7) & ~7;
+    }
+
+    private static String readName(ByteBuffer b, int pos, int maxLength) {
+        int l = 0;
+
+        while ((l < maxLength) && (pos + l < b.limit()) && (b.get(pos + l) != 0)) {
+            l++;
+        }
+
+        byte[] bytes = new byte[l];
+        for (int i=0; i<l; i++) {
+            bytes[i] = b.get(pos + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find and parse superblock. It can be at 0, 512, 1024, 2048...
+     */
+    private void readSuperblock() throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer sb = null;
+
+        while (position < fileSize) {
+            ByteBuffer b = readAbsolute(position, 128);
+            boolean found = b.limit() >= SIGNATURE.length;
+
+            for (int i=0; found && i<SIGNATURE.length; i++) {
+                if (b.get(i) != SIGNATURE[i]) {
+                    found = false;
+                }
+            }
+
+            if (found) {
+                sb = b;
+                break;
+            }
+
+            position = (position == 0) ? 512:position * 2;
+        }
+
+        if (sb == null) {
+            throw new IOException("No HDF5 superblock in "+filename);
+        }
+
+        int version = sb.get(8);
+
+        if ((version == 0) || (version == 1)) {
+            offsetSize = sb.get(13);
+            lengthSize = sb.get(14);
+            int pos = (version == 0) ? 24:28;
+            baseAddress = readOffset(sb, pos);
+            // Skip base, free-space, end of file and driver info addresses, then root link name offset
+            pos += (4 * offsetSize) + offsetSize;
+            rootAddress = readOffset(sb, pos);
+        } else if ((version == 2) || (version == 3)) {
+            offsetSize = sb.get(9);
+            lengthSize = sb.get(10);
+            int pos = 12;
+            baseAddress = readOffset(sb, pos);
+            // Skip base, superblock extension and end of file addresses
+            pos += 3 * offsetSize;
+            rootAddress = readOffset(sb, pos);
+        } else {
+            throw new UnsupportedOperationException("HDF5 superblock version "+version+" in "+filename);
+        }
+
+        if (baseAddress == UNDEFINED_ADDRESS) {
+            baseAddress = position;
+        }
+    }
+
+    /**
+     * Read and parse an object header.
+     * @param address object header address
+     * @return parsed object
+     */
+    private HDF5Object readObject(long address) throws IOException {
+        HDF5Object obj = objectCache.get(address);
+
+        if (obj != null) {
+            return obj;
+        }
+
+        obj = new HDF5Object(address);
+        ByteBuffer prefix = read(address, 64);
+
+        if ((prefix.limit() > 0) && (prefix.get(0) == 1)) {
+            readObjectHeaderV1(obj, prefix);
+        } else if (hasSignature(prefix, 0, "OHDR")) {
+            readObjectHeaderV2(obj, prefix);
+        } else {
+            throw new IOException("Unrecognised object header at "+address+" in "+filename);
+        }
+
+        // Another thread may have parsed the same header meanwhile - keep whichever got there first
+        HDF5Object existing = objectCache.putIfAbsent(address, obj);
+
+        return existing != null ? existing:obj;
+    }
+
+    private void readObjectHeaderV1(HDF5Object obj, ByteBuffer prefix) throws IOException {
+        int nMessages = prefix.getShort(2) & 0xFFFF;
+        long headerSize = prefix.getInt(8) & 0xFFFFFFFFL;
+        LinkedList<long[]> blocks = new LinkedList<long[]>();
+        int seen = 0;
+
+        // Messages start after 12 byte prefix, aligned to 8 bytes
+        blocks.add(new long[] {obj.getAddress() + 16, headerSize});
+
+        while ((!blocks.isEmpty()) && (seen < nMessages)) {
+            long[] block = blocks.removeFirst();
+            ByteBuffer b = readExactly(block[0], block[1]);
+            int pos = 0;
+
+            while ((pos + 8 <= b.limit()) && (seen < nMessages)) {
+                int type = b.getShort(pos) & 0xFFFF;
+                int size = b.getShort(pos + 2) & 0xFFFF;
+                int flags = b.get(pos + 4) & 0xFF;
+                pos += 8;
+                if (pos + size > b.limit()) {
+                    throw new IOException("Bad object header message at "+obj.getAddress()+" in "+filename);
+                }
+                processMessage(obj, type, flags, slice(b, pos, size), blocks);
+                pos += size;
+                seen++;
+            }
+        }
+    }
+
+    private void readObjectHeaderV2(HDF5Object obj, ByteBuffer prefix) throws IOException {
+        int flags = prefix.get(5) & 0xFF;
+        int pos = 6;
+        boolean trackCreationOrder = (flags & 0x04) == 0x04;
+        LinkedList<long[]> blocks = new LinkedList<long[]>();
+
+        if ((flags & 0x20) == 0x20) {
+            pos += 16;
+        }
+
+        if ((flags & 0x10) == 0x10) {
+            pos += 4;
+        }
+
+        int sizeBytes = 1 << (flags & 0x03);
+        long chunkSize = readUnsigned(prefix, pos, sizeBytes);
+        pos += sizeBytes;
+        blocks.add(new long[] {obj.getAddress() + pos, chunkSize});
+
+        while (!blocks.isEmpty()) {
+            long[] block = blocks.removeFirst();
+            ByteBuffer b = readExactly(block[0], block[1]);
+            int p = 0;
+            int end = b.limit();
+
+            // Continuation chunks have signature at start and checksum at end
+            if (hasSignature(b, 0, "OCHK")) {
+                p = 4;
+                end -= 4;
+            }
+
+            int headerLength = trackCreationOrder ? 6:4;
+            while (p + headerLength <= end) {
+                int type = b.get(p) & 0xFF;
+                int size = b.getShort(p + 1) & 0xFFFF;
+                int msgFlags = b.get(p + 3) & 0xFF;
+                p += headerLength;
+                if (p + size > end) {
+                    break;
+                }
+                processMessage(obj, type, msgFlags, slice(b, p, size), blocks);
+                p += size;
+            }
+        }
+    }
+
+    private void processMessage(HDF5Object obj, int type, int flags, ByteBuffer m, LinkedList<long[]> blocks) throws IOException {
+        switch(type) {
+            case MSG_DATASPACE:
+                obj.setElementCount(parseDataspace(m));
+                break;
+            case MSG_LINK_INFO:
+                parseLinkInfo(obj, m);
+                break;
+            case MSG_DATATYPE:
+                if ((flags & 0x02) == 0x02) {
+                    throw new UnsupportedOperationException("Shared datatype in "+filename);
+                }
+                obj.setDatatype(parseDatatype(m, 0));
+                break;
+            case MSG_LINK:
+                parseLink(obj, m);
+                break;
+            case MSG_LAYOUT:
+                parseLayout(obj, m);
+                break;
+            case MSG_ATTRIBUTE:
+                parseAttribute(obj, m);
+                break;
+            case MSG_CONTINUATION:
+                blocks.add(new long[] {readOffset(m, 0), readLength(m, offsetSize)});
+                break;
+            case MSG_SYMBOL_TABLE:
+                obj.setSymbolTable(readOffset(m, 0), readOffset(m, offsetSize));
+                break;
+            case MSG_ATTRIBUTE_INFO:
+                parseAttributeInfo(obj, m);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private long parseDataspace(ByteBuffer m) {
+        int version = m.get(0);
+        int rank = m.get(1) & 0xFF;
+        int flags = m.get(2);
+        int pos = 8;
+        long count = 1;
+
+        if (version >= 2) {
+            pos = 4;
+            if (m.get(3) == 2) {
+                return 0;
+            }
+        }
+
+        for (int i=0; i<rank; i++) {
+            count *= readLength(m, pos);
+            pos += lengthSize;
+        }
+
+        return count;
+    }
+
+    private HDF5Datatype parseDatatype(ByteBuffer m, int pos) {
+        int typeClass = m.get(pos) & 0x0F;
+        int bitField = m.get(pos + 1) & 0xFF;
+        int size = m.getInt(pos + 4);
+
+        return new HDF5Datatype(typeClass, size, bitField);
+    }
+
+    private void parseLinkInfo(HDF5Object obj, ByteBuffer m) {
+        int flags = m.get(1);
+        int pos = 2;
+
+        if ((flags & 0x01) == 0x01) {
+            pos += 8;
+        }
+
+        obj.setLinkInfo(readOffset(m, pos) != UNDEFINED_ADDRESS);
+    }
+
+    private void parseAttributeInfo(HDF5Object obj, ByteBuffer m) {
+        int flags = m.get(1);
+        int pos = 2;
+
+        if ((flags & 0x01) == 0x01) {
+            pos += 2;
+        }
+
+        obj.setDenseAttributes(readOffset(m, pos) != UNDEFINED_ADDRESS);
+    }
+
+    private void parseLink(HDF5Object obj, ByteBuffer m) {
+        int flags = m.get(1) & 0xFF;
+        int pos = 2;
+        int linkType = 0;
+
+        if ((flags & 0x08) == 0x08) {
+            linkType = m.get(pos++);
+        }
+
+        if ((flags & 0x04) == 0x04) {
+            pos += 8;
+        }
+
+        if ((flags & 0x10) == 0x10) {
+            pos++;
+        }
+
+        int lengthBytes = 1 << (flags & 0x03);
+        int nameLength = (int)readUnsigned(m, pos, lengthBytes);
+        pos += lengthBytes;
+        String name = readName(m, pos, nameLength);
+        pos += nameLength;
+
+        // Only hard links are followed
+        if (linkType == 0) {
+            obj.addLink(name, readOffset(m, pos));
+        }
+    }
+
+    private void parseLayout(HDF5Object obj, ByteBuffer m) {
+        int version = m.get(0);
+
+        if (version < 3) {
+            int rank = m.get(1) & 0xFF;
+            int layoutClass = m.get(2);
+            int pos = 8;
+            long address = UNDEFINED_ADDRESS;
+
+            if (layoutClass != HDF5Object.LAYOUT_COMPACT) {
+                address = readOffset(m, pos);
+                pos += offsetSize;
+            }
+            pos += rank * 4;
+
+            if (layoutClass == HDF5Object.LAYOUT_COMPACT) {
+                int size = m.getInt(pos);
+                obj.setLayout(layoutClass, UNDEFINED_ADDRESS, size, slice(m, pos + 4, size));
+            } else {
+                obj.setLayout(layoutClass, address, -1, null);
+            }
+        } else {
+            int layoutClass = m.get(1);
+
+            if (layoutClass == HDF5Object.LAYOUT_COMPACT) {
+                int size = m.getShort(2) & 0xFFFF;
+                obj.setLayout(layoutClass, UNDEFINED_ADDRESS, size, slice(m, 4, size));
+            } else if (layoutClass == HDF5Object.LAYOUT_CONTIGUOUS) {
+                obj.setLayout(layoutClass, readOffset(m, 2), readLength(m, 2 + offsetSize), null);
+            } else {
+                obj.setLayout(layoutClass, UNDEFINED_ADDRESS, -1, null);
+            }
+        }
+    }
+
+    private void parseAttribute(HDF5Object obj, ByteBuffer m) {
+        int version = m.get(0);
+        int flags = m.get(1);
+        int nameSize = m.getShort(2) & 0xFFFF;
+        int datatypeSize = m.getShort(4) & 0xFFFF;
+        int dataspaceSize = m.getShort(6) & 0xFFFF;
+        int pos = 8;
+
+        if ((version >= 2) && ((flags & 0x03) != 0)) {
+            throw new UnsupportedOperationException("Shared attribute datatype in "+filename);
+        }
+
+        if (version >= 3) {
+            pos++;
+        }
+
+        String name = readName(m, pos, nameSize);
+        pos += (version == 1) ? pad8(nameSize):nameSize;
+        HDF5Datatype type = parseDatatype(m, pos);
+        pos += (version == 1) ? pad8(datatypeSize):datatypeSize;
+        pos += (version == 1) ? pad8(dataspaceSize):dataspaceSize;
+
+        obj.addAttribute(name, type, slice(m, pos, m.limit() - pos));
+    }
+
+    /**
+     * Get links of a group, reading the symbol table if necessary.
+     */
+    private LinkedHashMap<String, Long> getLinks(HDF5Object obj) throws IOException {
+        LinkedHashMap<String, Long> links = obj.getLinks();
+
+        if (links == null) {
+            links = new LinkedHashMap<String, Long>();
+
+            if (obj.hasDenseLinks()) {
+                throw new UnsupportedOperationException("Dense link storage in "+filename);
+            }
+
+            if (obj.hasSymbolTable()) {
+                ByteBuffer heap = readLocalHeap(obj.getSymbolTableHeap());
+                readGroupBTree(obj.getSymbolTableBTree(), heap, links, new HashSet<Long>());
+            }
+
+            obj.setLinks(links);
+        }
+
+        return links;
+    }
+
+    private ByteBuffer readLocalHeap(long address) throws IOException {
+        ByteBuffer h = readExactly(address, 8 + (2 * lengthSize) + offsetSize);
+
+        if (!hasSignature(h, 0, "HEAP")) {
+            throw new IOException("Bad local heap at "+address+" in "+filename);
+        }
+
+        long dataSize = readLength(h, 8);
+        long dataAddress = readOffset(h, 8 + (2 * lengthSize));
+
+        return readExactly(dataAddress, dataSize);
+    }
+
+    private void readGroupBTree(long address, ByteBuffer heap, Map<String, Long> links, HashSet<Long> visited) throws IOException {
+        if (!visited.add(address)) {
+            return;
+        }
+
+        ByteBuffer h = readExactly(address, 8 + (2 * offsetSize));
+
+        if (!hasSignature(h, 0, "TREE") || (h.get(4) != 0)) {
+            throw new IOException("Bad group B-tree node at "+address+" in "+filename);
+        }
+
+        int level = h.get(5) & 0xFF;
+        int entries = h.getShort(6) & 0xFFFF;
+        ByteBuffer b = readExactly(address + 8 + (2 * offsetSize), ((entries + 1) * lengthSize) + (entries * offsetSize));
+
+        for (int i=0; i<entries; i++) {
+            long child = readOffset(b, lengthSize + (i * (lengthSize + offsetSize)));
+            if (level > 0) {
+                readGroupBTree(child, heap, links, visited);
+            } else {
+                readSymbolNode(child, heap, links);
+            }
+        }
+    }
+
+    private void readSymbolNode(long address, ByteBuffer heap, Map<String, Long> links) throws IOException {
+        ByteBuffer h = readExactly(address, 8);
+
+        if (!hasSignature(h, 0, "SNOD")) {
+            throw new IOException("Bad symbol table node at "+address+" in "+filename);
+        }
+
+        int nSymbols = h.getShort(6) & 0xFFFF;
+        int entrySize = (2 * offsetSize) + 24;
+        ByteBuffer b = readExactly(address + 8, nSymbols * entrySize);
+
+        for (int i=0; i<nSymbols; i++) {
+            int pos = i * entrySize;
+            long nameOffset = readOffset(b, pos);
+            long objectAddress = readOffset(b, pos + offsetSize);
+            links.put(readName(heap, (int)nameOffset, heap.limit()), objectAddress);
+        }
+    }
+
+    /**
+     * Find an object from its path.
+     * @param path path from root, e.g. /Analyses/Basecall_1D_000
+     * @return object or null if it doesn't exist
+     */
+    private HDF5Object getObject(String path) throws IOException {
+        HDF5Object obj = readObject(rootAddress);
+        String[] parts = path.split("/");
+
+        for (int i=0; i<parts.length; i++) {
+            if (parts[i].length() > 0) {
+                if (!obj.isGroup()) {
+                    return null;
+                }
+
+                Long child = getLinks(obj).get(parts[i]);
+                if (child == null) {
+                    return null;
+                }
+
+                obj = readObject(child);
+            }
+        }
+
+        return obj;
+    }
+
+    /**
+     * Check if an object exists
+     * @param path path from root
+     * @return true if exists
+     */
+    public boolean exists(String path) throws IOException {
+        return getObject(path) != null;
+    }
+
+    /**
+     * Get names of the members of a group.
+     * @param path path to group
+     * @return list of names, empty if group doesn't exist
+     */
+    public ArrayList<String> getMemberNames(String path) throws IOException {
+        ArrayList<String> names = new ArrayList<String>();
+        HDF5Object obj = getObject(path);
+
+        if ((obj != null) && obj.isGroup()) {
+            names.addAll(getLinks(obj).keySet());
+        }
+
+        return names;
+    }
+
+    /**
+     * List all groups and datasets below (and including) a path, as h5dump -n would.
+     * @param path starting path
+     * @param groups list to add group paths to
+     * @param datasets list to add dataset paths to
+     */
+    public void listObjects(String path, ArrayList<String> groups, ArrayList<String> datasets) throws IOException {
+        HDF5Object obj = getObject(path);
+
+        if (obj != null) {
+            listObjects(obj, path.equals("/") ? "":path, groups, datasets, new HashSet<Long>());
+        }
+    }
+
+    private void listObjects(HDF5Object obj, String path, ArrayList<String> groups, ArrayList<String> datasets, HashSet<Long> visited) throws IOException {
+        if (!visited.add(obj.getAddress())) {
+            return;
+        }
+
+        if (obj.isGroup()) {
+            groups.add(path.length() == 0 ? "/":path);
+            for (Map.Entry<String, Long> link : getLinks(obj).entrySet()) {
+                listObjects(readObject(link.getValue()), path + "/" + link.getKey(), groups, datasets, visited);
+            }
+        } else if (obj.isDataset()) {
+            datasets.add(path);
+        }
+    }
+
+    /**
+     * Get raw bytes of first element of a dataset.
+     */
+    private ByteBuffer getFirstElement(HDF5Object obj, int elementSize) throws IOException {
+        if (obj.getLayoutClass() == HDF5Object.LAYOUT_COMPACT) {
+            return obj.getCompactData();
+        } else if (obj.getLayoutClass() == HDF5Object.LAYOUT_CONTIGUOUS) {
+            if (obj.getDataAddress() == UNDEFINED_ADDRESS) {
+                return null;
+            }
+            return readExactly(obj.getDataAddress(), elementSize);
+        } else {
+            throw new UnsupportedOperationException("Dataset layout class "+obj.getLayoutClass()+" in "+filename);
+        }
+    }
+
+    /**
+     * Read a global heap object, as used by variable length strings.
+     */
+    private ByteBuffer readGlobalHeapObject(long collectionAddress, int index) throws IOException {
+        ByteBuffer collection = globalHeapCache.get(collectionAddress);
+
+        if (collection == null) {
+            ByteBuffer h = readExactly(collectionAddress, 8 + lengthSize);
+            if (!hasSignature(h, 0, "GCOL")) {
+                throw new IOException("Bad global heap at "+collectionAddress+" in "+filename);
+            }
+            collection = readExactly(collectionAddress, readLength(h, 8));
+            ByteBuffer existing = globalHeapCache.putIfAbsent(collectionAddress, collection);
+            if (existing != null) {
+                collection = existing;
+            }
+        }
+
+        int pos = 8 + lengthSize;
+        while (pos + 8 + lengthSize <= collection.limit()) {
+            int objectIndex = collection.getShort(pos) & 0xFFFF;
+            int size = (int)readLength(collection, pos + 8);
+
+            if (objectIndex == 0) {
+                break;
+            }
+
+            if (objectIndex == index) {
+                return slice(collection, pos + 8 + lengthSize, size);
+            }
+
+            pos += 8 + lengthSize + pad8(size);
+        }
+
+        throw new IOException("Global heap object "+index+" not found in "+filename);
+    }
+
+    /**
+     * Decode a string from data of the given type.
+     */
+    private String decodeString(HDF5Datatype type, ByteBuffer data) throws IOException {
+        if (type.isVariableLengthString()) {
+            int length = data.getInt(0);
+            long collection = readOffset(data, 4);
+            int index = data.getInt(4 + offsetSize);
+
+            if ((length == 0) || (collection == UNDEFINED_ADDRESS)) {
+                return "";
+            }
+
+            ByteBuffer s = readGlobalHeapObject(collection, index);
+            return readName(s, 0, Math.min(length, s.limit()));
+        } else if (type.getTypeClass() == HDF5Datatype.CLASS_STRING) {
+            return readName(data, 0, Math.min(type.getSize(), data.limit())).trim();
+        }
+
+        throw new UnsupportedOperationException("Datatype class "+type.getTypeClass()+" is not a string in "+filename);
+    }
+
+    /**
+     * Decode a number from data of the given type.
+     */
+    private double decodeNumber(HDF5Datatype type, ByteBuffer data) throws IOException {
+        ByteBuffer b = data.duplicate().order(type.isBigEndian() ? ByteOrder.BIG_ENDIAN:ByteOrder.LITTLE_ENDIAN);
+
+        if (type.getTypeClass() == HDF5Datatype.CLASS_FLOATING_POINT) {
+            if (type.getSize() == 8) {
+                return b.getDouble(0);
+            } else if (type.getSize() == 4) {
+                return b.getFloat(0);
+            }
+        } else if (type.getTypeClass() == HDF5Datatype.CLASS_FIXED_POINT) {
+            switch(type.getSize()) {
+                case 1: return type.isSigned() ? b.get(0):(b.get(0) & 0xFF);
+                case 2: return type.isSigned() ? b.getShort(0):(b.getShort(0) & 0xFFFF);
+                case 4: return type.isSigned() ? b.getInt(0):(b.getInt(0) & 0xFFFFFFFFL);
+                case 8: return b.getLong(0);
+            }
+        } else if (type.isString()) {
+            return Double.parseDouble(decodeString(type, data).trim());
+        }
+
+        throw new UnsupportedOperationException("Can't decode datatype class "+type.getTypeClass()+" size "+type.getSize()+" as number in "+filename);
+    }
+
+    /**
+     * Read a scalar (or first element of a) string dataset.
+     * @param path path to dataset
+     * @return String, or null if dataset doesn't exist
+     */
+    public String readStringDataset(String path) throws IOException {
+        HDF5Object obj = getObject(path);
+
+        if ((obj == null) || !obj.isDataset() || (obj.getElementCount() < 1)) {
+            return null;
+        }
+
+        HDF5Datatype type = obj.getDatatype();
+        if ((type == null) || !type.isString()) {
+            throw new UnsupportedOperationException("Dataset "+path+" is not a string in "+filename);
+        }
+
+        int elementSize = type.isVariableLengthString() ? 8 + offsetSize:type.getSize();
+        ByteBuffer data = getFirstElement(obj, elementSize);
+
+        return data == null ? null:decodeString(type, data);
+    }
+
+    /**
+     * Check if object has an attribute.
+     * @param path path to group or dataset
+     * @param name attribute name
+     * @return true if present
+     */
+    public boolean hasAttribute(String path, String name) throws IOException {
+        HDF5Object obj = getObject(path);
+        return (obj != null) && (obj.getAttributeType(name) != null);
+    }
+
+    private HDF5Object getAttributeOwner(String path, String name) throws IOException {
+        HDF5Object obj = getObject(path);
+
+        if (obj == null) {
+            return null;
+        }
+
+        if ((obj.getAttributeType(name) == null) && obj.hasDenseAttributes()) {
+            throw new UnsupportedOperationException("Dense attribute storage in "+filename);
+        }
+
+        return obj.getAttributeType(name) == null ? null:obj;
+    }
+
+    /**
+     * Read a numeric attribute.
+     * @param path path to group or dataset
+     * @param name attribute name
+     * @return value
+     * @throws IOException if attribute not present
+     */
+    public double readNumericAttribute(String path, String name) throws IOException {
+        HDF5Object obj = getAttributeOwner(path, name);
+
+        if (obj == null) {
+            throw new IOException("No attribute "+name+" on "+path+" in "+filename);
+        }
+
+        return decodeNumber(obj.getAttributeType(name), obj.getAttributeData(name));
+    }
+
+    /**
+     * Read a numeric attribute that may not be present.
+     * @param path path to group or dataset
+     * @param name attribute name
+     * @param defaultValue value to return if attribute not present
+     * @return value
+     */
+    public double readNumericAttribute(String path, String name, double defaultValue) throws IOException {
+        HDF5Object obj = getAttributeOwner(path, name);
+
+        if (obj == null) {
+            return defaultValue;
+        }
+
+        return decodeNumber(obj.getAttributeType(name), obj.getAttributeData(name));
+    }
+
+    /**
+     * Read a string attribute.
+     * @param path path to group or dataset
+     * @param name attribute name
+     * @return value, or null if not present
+     */
+    public String readStringAttribute(String path, String name) throws IOException {
+        HDF5Object obj = getAttributeOwner(path, name);
+
+        if (obj == null) {
+            return null;
+        }
+
+        return decodeString(obj.getAttributeType(name), obj.getAttributeData(name));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Parsed HDF5 object header (a group or a dataset).
+ *
+ * @author Richard Leggett
+ */
+public class HDF5Object {
+    public final static int LAYOUT_NONE = -1;
+    public final static int LAYOUT_COMPACT = 0;
+    public final static int LAYOUT_CONTIGUOUS = 1;
+    public final static int LAYOUT_CHUNKED = 2;
+    private long address;
+    private boolean group = false;
+    private long symbolTableBTree = -1;
+    private long symbolTableHeap = -1;
+    private boolean denseLinks = false;
+    private boolean denseAttributes = false;
+    private volatile LinkedHashMap<String, Long> links = null;
+    private HashMap<String, HDF5Datatype> attributeTypes = new HashMap<String, HDF5Datatype>();
+    private HashMap<String, ByteBuffer> attributeData = new HashMap<String, ByteBuffer>();
+    private HDF5Datatype datatype = null;
+    private long elementCount = 1;
+    private int layoutClass = LAYOUT_NONE;
+    private long dataAddress = -1;
+    private long dataSize = 0;
+    private ByteBuffer compactData = null;
+
+    public HDF5Object(long a) {
+        address = a;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public boolean isGroup() {
+        return group;
+    }
+
+    public boolean isDataset() {
+        return layoutClass != LAYOUT_NONE;
+    }
+
+    public void setSymbolTable(long btree, long heap) {
+        group = true;
+        symbolTableBTree = btree;
+        symbolTableHeap = heap;
+    }
+
+    public long getSymbolTableBTree() {
+        return symbolTableBTree;
+    }
+
+    public long getSymbolTableHeap() {
+        return symbolTableHeap;
+    }
+
+    public boolean hasSymbolTable() {
+        return symbolTableBTree != -1;
+    }
+
+    public void setLinkInfo(boolean dense) {
+        group = true;
+        denseLinks = dense;
+    }
+
+    public boolean hasDenseLinks() {
+        return denseLinks;
+    }
+
+    public void setDenseAttributes(boolean dense) {
+        denseAttributes = dense;
+    }
+
+    public boolean hasDenseAttributes() {
+        return denseAttributes;
+    }
+
+    /**
+     * Add a hard link found in a link message or symbol table.
+     * @param name link name
+     * @param target object header address
+     */
+    public void addLink(String name, long target) {
+        group = true;
+        if (links == null) {
+            links = new LinkedHashMap<String, Long>();
+        }
+        links.put(name, target);
+    }
+
+    /**
+     * Get links, or null if they haven't been read yet.
+     * @return map of link name to object header address
+     */
+    public LinkedHashMap<String, Long> getLinks() {
+        return links;
+    }
+
+    public void setLinks(LinkedHashMap<String, Long> l) {
+        links = l;
+    }
+
+    public void addAttribute(String name, HDF5Datatype type, ByteBuffer data) {
+        attributeTypes.put(name, type);
+        attributeData.put(name, data);
+    }
+
+    public HDF5Datatype getAttributeType(String name) {
+        return attributeTypes.get(name);
+    }
+
+    public ByteBuffer getAttributeData(String name) {
+        return attributeData.get(name);
+    }
+
+    public void setDatatype(HDF5Datatype t) {
+        datatype = t;
+    }
+
+    public HDF5Datatype getDatatype() {
+        return datatype;
+    }
+
+    public void setElementCount(long n) {
+        elementCount = n;
+    }
+
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    public void setLayout(int c, long a, long s, ByteBuffer compact) {
+        layoutClass = c;
+        dataAddress = a;
+        dataSize = s;
+        compactData = compact;
+    }
+
+    public int getLayoutClass() {
+        return layoutClass;
+    }
+
+    public long getDataAddress() {
+        return dataAddress;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    public ByteBuffer getCompactData() {
+        return compactData;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Counts of small non-negative integers, such as perfect kmer or indel
+ * sizes. Nothing is allocated until the first count is added, and the
+ * array then grows to fit the largest value seen, so a reference that
+ * gets no alignments costs almost nothing. Not thread safe - callers
+ * synchronize as they did for the arrays this replaces.
+ *
+ * @author Richard Leggett
+ */
+public class IntHistogram implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    private final static int INITIAL_SIZE = 64;
+    private int[] counts = null;
+
+    /**
+     * Add to count for a value
+     * @param value value
+     * @param n amount to add
+     */
+    public void add(int value, int n) {
+        if (counts == null) {
+            counts = new int[Math.max(INITIAL_SIZE, value + 1)];
+        } else if (value >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, value + 1));
+        }
+
+        counts[value] += n;
+    }
+
+    /**
+     * Increment count for a value
+     * @param value value
+     */
+    public void add(int value) {
+        add(value, 1);
+    }
+
+    /**
+     * Get count for a value
+     * @param value value
+     * @return count
+     */
+    public int get(int value) {
+        return ((counts != null) && (value < counts.length)) ? counts[value] : 0;
+    }
+
+    /**
+     * Add counts from another histogram
+     * @param h histogram to add
+     */
+    public void add(IntHistogram h) {
+        if (h.counts != null) {
+            for (int i=h.counts.length-1; i>=0; i--) {
+                if (h.counts[i] != 0) {
+                    add(i, h.counts[i]);
+                }
+            }
+        }
+    }
+}
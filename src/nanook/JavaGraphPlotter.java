@@ -0,0 +1,157 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.awt.Color;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plots graphs with Chart, in this process, instead of starting Rscript for
+ * each reference. Each reference and type is plotted by a separate task, so
+ * graphs are drawn in parallel. Produces the graphs included in the report,
+ * with the same filenames as nanook_plot_reference.R and
+ * nanook_plot_lengths.R.
+ *
+ * @author Richard Leggett
+ */
+public class JavaGraphPlotter {
+    public final static int TEXT_SIZE = 40;
+    private final static Color[] TYPE_COLOURS = {new Color(0xCF746D), new Color(0x91A851), new Color(0x68B5B9)};
+    private ThreadPoolExecutor executor;
+    private NanoOKOptions options;
+    private long lastCompleted = -1;
+
+    /**
+     * Constructor.
+     * @param o NanoOKOptions object
+     */
+    public JavaGraphPlotter(NanoOKOptions o) {
+        options = o;
+        executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Get colour used for a type (Template, Complement, 2D)
+     * @param type type
+     * @return colour
+     */
+    public static Color getTypeColour(int type) {
+        return TYPE_COLOURS[type];
+    }
+
+    /**
+     * Make a chart with title and axis labels
+     * @param w width
+     * @param h height
+     * @param title title
+     * @param xLabel x axis label
+     * @param yLabel y axis label
+     * @return chart
+     */
+    public static Chart makeChart(int w, int h, String title, String xLabel, String yLabel) {
+        Chart c = new Chart(w, h, TEXT_SIZE);
+        c.setTitle(title);
+        c.setXLabel(xLabel);
+        c.setYLabel(yLabel);
+        return c;
+    }
+
+    /**
+     * Count values into bins, closed on the left as with R's hist(right=FALSE).
+     * Values outside the bins are ignored.
+     * @param values values
+     * @param start start of first bin
+     * @param binWidth width of each bin
+     * @param nBins number of bins
+     * @return bin midpoints, then counts
+     */
+    public static double[][] histogram(double[] values, double start, double binWidth, int nBins) {
+        double[][] h = new double[2][nBins];
+
+        for (int i=0; i<nBins; i++) {
+            h[0][i] = start + (i * binWidth) + (binWidth / 2);
+        }
+
+        for (int i=0; i<values.length; i++) {
+            if (!Double.isNaN(values[i])) {
+                int b = (int)Math.floor((values[i] - start) / binWidth);
+                if ((b >= 0) && (b < nBins)) {
+                    h[1][b]++;
+                }
+            }
+        }
+
+        return h;
+    }
+
+    /**
+     * Write progress
+     */
+    private void writeProgress() {
+        long completed = executor.getCompletedTaskCount();
+        long total = executor.getTaskCount();
+        long e = 0;
+        long s = NanoOKOptions.PROGRESS_WIDTH;
+
+        if (total > 0) {
+            e = NanoOKOptions.PROGRESS_WIDTH * completed / total;
+            s = NanoOKOptions.PROGRESS_WIDTH - e;
+        }
+
+        if (completed != lastCompleted) {
+            System.out.print("\r[");
+            for (int i=0; i<e; i++) {
+                System.out.print("=");
+            }
+            for (int i=0; i<s; i++) {
+                System.out.print(" ");
+            }
+            System.out.print("] " + completed +"/" +  total);
+            lastCompleted = completed;
+        }
+    }
+
+    /**
+     * Plot graphs for the types being processed and for references with
+     * enough alignments.
+     */
+    public void plot() throws InterruptedException {
+        for (int t=0; t<3; t++) {
+            if (options.isProcessingReadType(t)) {
+                executor.execute(new LengthGraphsRunnable(options, t));
+            }
+        }
+
+        Set<String> ids = options.getReferences().getAllIds();
+        for (String id : ids) {
+            ReferenceSequence rs = options.getReferences().getReferenceById(id);
+            if (rs.getTotalNumberOfAlignments() > NanoOKOptions.MIN_ALIGNMENTS) {
+                executor.execute(new ReferenceGraphsRunnable(options, rs.getName(), NanoOKOptions.TYPE_ALL));
+                for (int t=0; t<3; t++) {
+                    if (options.isProcessingReadType(t)) {
+                        executor.execute(new ReferenceGraphsRunnable(options, rs.getName(), t));
+                    }
+                }
+            }
+            writeProgress();
+        }
+
+        // That's all - wait for all threads to finish
+        executor.shutdown();
+        while (!executor.isTerminated()) {
+            writeProgress();
+            Thread.sleep(100);
+        }
+
+        writeProgress();
+        System.out.println("");
+    }
+}
@@ -54,6 +54,29 @@ public class KmerMotifStatistic implements Serializable {
         //System.out.println("Adding motif "+kmer+" to size "+kSize);
     }
     
+    /**
+     * Add counts from other statistics objects (e.g. per-thread shards). Keys are
+     * added in sorted order, so the result doesn't depend on the order of the shards.
+     * @param others statistics to add
+     */
+    public void addAll(ArrayList<KmerMotifStatistic> others) {
+        TreeMap<String, Integer> combined = new TreeMap<String, Integer>();
+        
+        for (int i=0; i<others.size(); i++) {
+            KmerMotifStatistic other = others.get(i);
+            for (Map.Entry<String, Integer> e : other.motifs.entrySet()) {
+                Integer c = combined.get(e.getKey());
+                combined.put(e.getKey(), c == null ? e.getValue():c + e.getValue());
+            }
+            totalCount += other.totalCount;
+        }
+        
+        for (Map.Entry<String, Integer> e : combined.entrySet()) {
+            Integer currentCount = motifs.get(e.getKey());
+            motifs.put(e.getKey(), currentCount == null ? e.getValue():currentCount + e.getValue());
+        }
+    }
+    
     /**
      * Parse motif, updating count of bases seen at each position.
      * @param motif - kmer motif
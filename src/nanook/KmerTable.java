@@ -10,66 +10,202 @@ package nanook;
 import java.io.Serializable;
 import java.util.Hashtable;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * KmerTable used for 5-mer comparison
- * 
+ * KmerTable used for 5-mer comparison. Each kmer is encoded as 2 bits per
+ * base and used to index an array of 4^k counts, so counting needs no
+ * locking or allocation. Kmers containing bases other than A, C, G or T
+ * are not counted.
+ *
  * @author Richard Leggett
  */
 public class KmerTable implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int MAX_KMER_SIZE = 12;
+    private final static char[] BASES = {'A', 'C', 'G', 'T'};
     private int kmerSize = 5;
-    private Hashtable<String, Integer> counts = new Hashtable();
-   
+    private int mask;
+    private AtomicLongArray counts;
+
     public KmerTable(int k) {
+        if ((k < 1) || (k > MAX_KMER_SIZE)) {
+            throw new IllegalArgumentException("Kmer size must be between 1 and " + MAX_KMER_SIZE);
+        }
+
         kmerSize = k;
+        mask = (1 << (2 * k)) - 1;
+        counts = new AtomicLongArray(1 << (2 * k));
+    }
+
+    /**
+     * Get 2-bit code for a base
+     * @param c base
+     * @return 0-3, or -1 if not A, C, G or T
+     */
+    private static int getBaseCode(char c) {
+        switch(c) {
+            case 'A': case 'a': return 0;
+            case 'C': case 'c': return 1;
+            case 'G': case 'g': return 2;
+            case 'T': case 't': return 3;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Encode a kmer
+     * @param kmer kmer string
+     * @return index into counts, or -1 if kmer is wrong length or contains non-ACGT bases
+     */
+    private int encode(CharSequence kmer) {
+        int code = 0;
+
+        if (kmer.length() != kmerSize) {
+            return -1;
+        }
+
+        for (int i=0; i<kmerSize; i++) {
+            int b = getBaseCode(kmer.charAt(i));
+            if (b < 0) {
+                return -1;
+            }
+            code = (code << 2) | b;
+        }
+
+        return code;
+    }
+
+    /**
+     * Decode an index back to a kmer string
+     * @param code index into counts
+     * @return kmer
+     */
+    private String decode(int code) {
+        char[] kmer = new char[kmerSize];
+
+        for (int i=kmerSize-1; i>=0; i--) {
+            kmer[i] = BASES[code & 3];
+            code >>= 2;
+        }
+
+        return new String(kmer);
+    }
+
+    public void countKmer(String kmer) {
+        int code = encode(kmer);
+
+        if (code >= 0) {
+            counts.incrementAndGet(code);
+        }
+    }
+
+    /**
+     * Count every kmer in a sequence using a rolling 2-bit code. The code is
+     * restarted after any base other than A, C, G or T.
+     * @param seq sequence
+     */
+    public void countKmers(CharSequence seq) {
+        int code = 0;
+        int valid = 0;
+
+        for (int i=0; i<seq.length(); i++) {
+            int b = getBaseCode(seq.charAt(i));
+            if (b < 0) {
+                valid = 0;
+                code = 0;
+            } else {
+                code = ((code << 2) | b) & mask;
+                if (++valid >= kmerSize) {
+                    counts.incrementAndGet(code);
+                }
+            }
+        }
     }
-    
-    public synchronized void countKmer(String kmer) {
-        int count = 0;
-        
-        if (counts.containsKey(kmer)) {
-            count = counts.get(kmer);
+
+    /**
+     * Get count of every kmer, indexed by 2-bit code
+     * @return counts
+     */
+    public long[] getCounts() {
+        long[] c = new long[counts.length()];
+
+        for (int i=0; i<c.length; i++) {
+            c[i] = counts.get(i);
         }
-        
-        count++;
-        
-        counts.put(kmer, count);
+
+        return c;
     }
-    
+
+    /**
+     * Add counts, as returned by getCounts
+     * @param c counts
+     */
+    public void addCounts(long[] c) {
+        for (int i=0; i<c.length; i++) {
+            if (c[i] != 0) {
+                counts.addAndGet(i, c[i]);
+            }
+        }
+    }
+
     public void writeKmerTable() {
-        Set<String> keys = counts.keySet();
-        
+        Set<String> keys = getKeys();
+
         System.out.println("");
         System.out.println("Writing kmer table...");
-        
+
         for(String kmer : keys) {
-            int count = counts.get(kmer);
+            int count = get(kmer);
             System.out.println(kmer + "\t" + count);
         }
 
-        System.out.println("");    
+        System.out.println("");
     }
-    
+
     public int getKmerSize() {
         return kmerSize;
     }
-    
+
+    /**
+     * Get kmers which have been seen at least once
+     * @return sorted set of kmers
+     */
     public Set<String> getKeys() {
-        return counts.keySet();
+        TreeSet<String> keys = new TreeSet<String>();
+
+        for (int i=0; i<counts.length(); i++) {
+            if (counts.get(i) > 0) {
+                keys.add(decode(i));
+            }
+        }
+
+        return keys;
     }
-    
+
     public int get(String kmer) {
+        int code = encode(kmer);
         int value = 0;
-        
-        if (counts.containsKey(kmer)) {
-            value = counts.get(kmer);
+
+        if (code >= 0) {
+            value = (int)counts.get(code);
         }
-        
+
         return value;
     }
-    
+
     public Hashtable getTable() {
-        return counts;
+        Hashtable<String, Integer> table = new Hashtable<String, Integer>();
+
+        for (int i=0; i<counts.length(); i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                table.put(decode(i), (int)count);
+            }
+        }
+
+        return table;
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+
+/**
+ * Plots read length graphs for one type, for JavaGraphPlotter.
+ *
+ * @author Richard Leggett
+ */
+public class LengthGraphsRunnable implements Runnable {
+    private NanoOKOptions options;
+    private int type;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param t type
+     */
+    public LengthGraphsRunnable(NanoOKOptions o, int t) {
+        options = o;
+        type = t;
+    }
+
+    /**
+     * Entry point to thread
+     */
+    public void run() {
+        String typeString = NanoOKOptions.getTypeFromInt(type);
+        String format = options.getImageFormat();
+        String graphPrefix = options.getGraphsDir() + File.separator + "all_" + typeString;
+
+        // Count vs length
+        DataTable lengths = DataTable.read(options.getAnalysisDir() + File.separator + "all_" + typeString + "_lengths.txt", false);
+        if ((lengths != null) && (lengths.getNumberOfRows() > 1)) {
+            double[] values = lengths.getColumn(1);
+            double longest = 0;
+            for (int i=0; i<values.length; i++) {
+                longest = Math.max(longest, values[i]);
+            }
+
+            double[][] h = JavaGraphPlotter.histogram(values, 0, 1000, (int)(longest / 1000) + 1);
+            Chart c = JavaGraphPlotter.makeChart(1200, 800, typeString, "Length", "Count");
+            c.addBars(h[0], h[1], 1000, JavaGraphPlotter.getTypeColour(type));
+            c.save(graphPrefix + "_lengths", format);
+        }
+
+        // Number of perfect 21mers verses length
+        DataTable kmers = DataTable.read(options.getAnalysisDir() + File.separator + "all_" + typeString + "_kmers.txt", true);
+        if ((kmers != null) && (kmers.getNumberOfRows() > 1)) {
+            Chart c = JavaGraphPlotter.makeChart(1200, 800, typeString, "Read length", "Number of perfect 21mers");
+            c.addPoints(kmers.getColumn("Length"), kmers.getColumn("nk21"), JavaGraphPlotter.getTypeColour(type));
+            c.save(graphPrefix + "_21mers", format);
+        }
+    }
+}
@@ -10,6 +10,8 @@ package nanook;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Parser for LAST aligner files.
@@ -50,53 +52,80 @@ public abstract class MAFParser {
      * @return number of alignments parsed
      */
     public int parseFile(String filename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {            
-        alignments = new ArrayList();
-        leafName = new File(filename).getName();
+        ArrayList<String> lines = new ArrayList<String>();
         
-         // Read all alignmnets and put into an ArrayList
         try
         {
             BufferedReader br = new BufferedReader(new FileReader(filename));
             String line;
             
-            do {
-                line = br.readLine();
-                if (line != null) {
-                    if (line.startsWith("a score=")) {
-                        String[] fields = line.substring(8).split(" ");
-                        int score = Integer.parseInt(fields[0]);
-                        String hitLineString = br.readLine();
-                        if(hitLineString.split("\\s+").length < 7)
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+            br.close();
+        } catch (Exception e) {
+            System.out.println("parseFile Exception:");
+            e.printStackTrace();
+            options.getLog().warn("Exception parsing "+filename);
+            options.getLog().close();
+            System.exit(1);
+        }
+        
+        return parseAlignments(filename, new File(filename).getName(), lines, nonAlignedSummaryFile, overallStats);
+    }
+    
+    /**
+     * Parse the alignments for one read, already read into memory.
+     * @param filename name of source, used to look up read
+     * @param name name of read, for the summary file if it doesn't align
+     * @param lines MAF lines
+     * @param nonAlignedSummaryFile an AlignmentTableFile to output details of anything that doesn't align to
+     * @return number of alignments parsed
+     */
+    public int parseAlignments(String filename, String name, List<String> lines, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        alignments = new ArrayList();
+        leafName = name;
+        
+         // Read all alignmnets and put into an ArrayList
+        try
+        {
+            Iterator<String> it = lines.iterator();
+            
+            while (it.hasNext()) {
+                String line = it.next();
+                if (line.startsWith("a score=")) {
+                    String[] fields = line.substring(8).split(" ");
+                    int score = Integer.parseInt(fields[0]);
+                    String hitLineString = it.next();
+                    if(hitLineString.split("\\s+").length < 7)
+                    {
+                        String remainingHitLine = it.next();
+                        assert(remainingHitLine.charAt(0) != 's'); // otherwise the hit line wasn't split!
+                        hitLineString += remainingHitLine;
+                        if(!hasDisplayedLASTMismatchWarning)
                         {
-                            String remainingHitLine = br.readLine();
-                            assert(remainingHitLine.charAt(0) != 's'); // otherwise the hit line wasn't split!
-                            hitLineString += remainingHitLine;
-                            if(!hasDisplayedLASTMismatchWarning)
-                            {
-                                System.out.println("");
-                                System.out.println("Warning: Detected different versions of LAST for indexing and aligning, continuing anyway.");
-                                hasDisplayedLASTMismatchWarning= true;
-                            }
+                            System.out.println("");
+                            System.out.println("Warning: Detected different versions of LAST for indexing and aligning, continuing anyway.");
+                            hasDisplayedLASTMismatchWarning= true;
                         }
-                        MAFAlignmentLine hitLine = new MAFAlignmentLine(hitLineString);
-                        MAFAlignmentLine queryLine = new MAFAlignmentLine(br.readLine());
-                        Alignment al = new Alignment(score,
-                                                     queryLine.getName(), 
-                                                     queryLine.getSeqSize(),
-                                                     queryLine.getStart(),
-                                                     queryLine.getAlnSize(),
-                                                     queryLine.getAlignment(),
-                                                     hitLine.getName(),
-                                                     hitLine.getSeqSize(),
-                                                     hitLine.getStart(),
-                                                     hitLine.getAlnSize(),
-                                                     hitLine.getAlignment(),
-                                                     false);
-                        alignments.add(al);                        
                     }
+                    MAFAlignmentLine hitLine = new MAFAlignmentLine(hitLineString);
+                    MAFAlignmentLine queryLine = new MAFAlignmentLine(it.next());
+                    Alignment al = new Alignment(score,
+                                                 queryLine.getName(), 
+                                                 queryLine.getSeqSize(),
+                                                 queryLine.getStart(),
+                                                 queryLine.getAlnSize(),
+                                                 queryLine.getAlignment(),
+                                                 hitLine.getName(),
+                                                 hitLine.getSeqSize(),
+                                                 hitLine.getStart(),
+                                                 hitLine.getAlnSize(),
+                                                 hitLine.getAlignment(),
+                                                 false);
+                    alignments.add(al);                        
                 }
-            } while (line != null);            
-            br.close();
+            }
             
             if (alignments.size() == 0) {
                 nonAlignedSummaryFile.writeNoAlignmentMessage(leafName);
@@ -106,7 +135,7 @@ public abstract class MAFParser {
         } catch (Exception e) {
             System.out.println("parseFile Exception:");
             e.printStackTrace();
-            options.getLog().println("Exception parsing "+filename);
+            options.getLog().warn("Exception parsing "+filename);
             options.getLog().close();
             System.exit(1);
         }
@@ -23,6 +23,7 @@ import static nanook.NanoOKOptions.TYPE_TEMPLATE;
  */
 public class MotifStatistics implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int MAX_MOTIF_SIZE = 5;
     private KmerMotifStatistic[] insertionMotifs = new KmerMotifStatistic[3];
     private KmerMotifStatistic[] deletionMotifs = new KmerMotifStatistic[3];
     private KmerMotifStatistic[] substitutionMotifs = new KmerMotifStatistic[3];
@@ -55,6 +56,25 @@ public class MotifStatistics implements Serializable {
         }
     }
     
+    /**
+     * Given the end of a stretch of perfect sequence, store motifs at all k size.
+     * Equivalent to addMotifs(motif, kmer) without needing the whole stretch.
+     * @param motif KmerMotifStatistic object to add to
+     * @param bases last MAX_MOTIF_SIZE bases of perfect sequence, most recent last
+     * @param length length of whole stretch of perfect sequence
+     */
+    public void addMotifs(KmerMotifStatistic[] motif, char[] bases, int length) {
+        if (length < 3) {
+            return;
+        }
+        
+        for (int k=3; k<=5; k++) {
+            if (length > k) {
+                motif[k-3].addMotif(new String(bases, bases.length - k, k));
+            }
+        }
+    }
+    
     /**
      * Add a insertion motif.
      * @param kmer motif to add
@@ -79,6 +99,33 @@ public class MotifStatistics implements Serializable {
         addMotifs(substitutionMotifs, kmer);
     }
 
+    /**
+     * Add a insertion motif from the end of a stretch of perfect sequence.
+     * @param bases last MAX_MOTIF_SIZE bases, most recent last
+     * @param length length of stretch
+     */
+    public void addInsertionMotifs(char[] bases, int length) {
+        addMotifs(insertionMotifs, bases, length);
+    }
+    
+    /**
+     * Add a deletion motif from the end of a stretch of perfect sequence.
+     * @param bases last MAX_MOTIF_SIZE bases, most recent last
+     * @param length length of stretch
+     */
+    public void addDeletionMotifs(char[] bases, int length) {
+        addMotifs(deletionMotifs, bases, length);
+    }
+
+    /**
+     * Add a substitution motif from the end of a stretch of perfect sequence.
+     * @param bases last MAX_MOTIF_SIZE bases, most recent last
+     * @param length length of stretch
+     */
+    public void addSubstitutionMotifs(char[] bases, int length) {
+        addMotifs(substitutionMotifs, bases, length);
+    }
+
     /**
      * Output motif counts to screen (debugging).
      * @param motif KmerMotifStatistic object to get counts from
@@ -103,6 +150,28 @@ public class MotifStatistics implements Serializable {
         outputMotifCounts(substitutionMotifs);
     }
     
+    /**
+     * Add motifs from other statistics objects (e.g. per-thread shards).
+     * @param others statistics to add
+     */
+    public void addAll(ArrayList<MotifStatistics> others) {
+        for (int k=0; k<3; k++) {
+            ArrayList<KmerMotifStatistic> ins = new ArrayList<KmerMotifStatistic>();
+            ArrayList<KmerMotifStatistic> del = new ArrayList<KmerMotifStatistic>();
+            ArrayList<KmerMotifStatistic> sub = new ArrayList<KmerMotifStatistic>();
+            
+            for (int i=0; i<others.size(); i++) {
+                ins.add(others.get(i).insertionMotifs[k]);
+                del.add(others.get(i).deletionMotifs[k]);
+                sub.add(others.get(i).substitutionMotifs[k]);
+            }
+            
+            insertionMotifs[k].addAll(ins);
+            deletionMotifs[k].addAll(del);
+            substitutionMotifs[k].addAll(sub);
+        }
+    }
+    
     /**
      * Get a sorted list of insertion motif counts at given kmer size.
      * @param k kmer size required
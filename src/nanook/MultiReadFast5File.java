@@ -0,0 +1,131 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.ArrayList;
+
+/**
+ * A FAST5 file that may contain many reads, each in its own read_* group.
+ * Reads are handed out one at a time by nextRead, so they can be extracted
+ * by several threads without the whole file being loaded. The underlying
+ * reader, and any h5dump reader fallen back to, are shared and closed once
+ * the last read has been finished with.
+ * A single read file is treated as one read with a null read group.
+ *
+ * @author Richard Leggett
+ */
+public class MultiReadFast5File {
+    private NanoOKOptions options;
+    private String filename;
+    private Fast5Reader reader;
+    private Fast5Reader fallbackReader = null;
+    private ArrayList<String> readGroups = new ArrayList<String>();
+    private boolean multiRead = false;
+    private int nextIndex = 0;
+    private int readsInProgress = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     * @param o program options
+     * @param f filename
+     */
+    public MultiReadFast5File(NanoOKOptions o, String f) {
+        options = o;
+        filename = f;
+        reader = Fast5File.openReader(options, filename);
+
+        try {
+            readGroups = reader.getReadGroups();
+        } catch (Exception e) {
+            options.getLog().warn("Warning: couldn't list read groups in "+filename+" natively ("+e+"), using h5dump");
+            reader.close();
+            reader = new H5DumpFast5Reader(filename);
+            readGroups = ((H5DumpFast5Reader)reader).getReadGroups();
+        }
+
+        options.getLog().debug("File "+filename+" contains "+readGroups.size()+" read groups");
+
+        if (readGroups.size() > 0) {
+            multiRead = true;
+        } else {
+            readGroups.add(null);
+        }
+    }
+
+    /**
+     * Check if this is a multi-read file
+     * @return true if file contains read_* groups
+     */
+    public boolean isMultiRead() {
+        return multiRead;
+    }
+
+    /**
+     * Get filename
+     * @return filename
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Check if there are reads still to be handed out
+     * @return true if nextRead will return a read
+     */
+    public synchronized boolean hasNextRead() {
+        return nextIndex < readGroups.size();
+    }
+
+    /**
+     * Get next read. Caller must call readDone when finished with it.
+     * @return Fast5File for read, or null if none left
+     */
+    public synchronized Fast5File nextRead() {
+        if (nextIndex >= readGroups.size()) {
+            return null;
+        }
+
+        readsInProgress++;
+        return new Fast5File(options, this, reader, readGroups.get(nextIndex++));
+    }
+
+    /**
+     * Get the h5dump reader used for reads the native reader fails on. It is
+     * created the first time it's needed and shared, so h5dump only indexes
+     * the file once however many reads fall back to it.
+     * @return h5dump reader
+     */
+    public synchronized Fast5Reader getFallbackReader() {
+        if (fallbackReader == null) {
+            if (reader instanceof H5DumpFast5Reader) {
+                fallbackReader = reader;
+            } else {
+                fallbackReader = new H5DumpFast5Reader(filename);
+            }
+        }
+
+        return fallbackReader;
+    }
+
+    /**
+     * Mark a read as finished with, closing file after the last one.
+     * @param read read returned by nextRead
+     */
+    public synchronized void readDone(Fast5File read) {
+        read.close();
+        readsInProgress--;
+        if ((readsInProgress == 0) && (nextIndex >= readGroups.size()) && (!closed)) {
+            reader.close();
+            if ((fallbackReader != null) && (fallbackReader != reader)) {
+                fallbackReader.close();
+            }
+            closed = true;
+        }
+    }
+}
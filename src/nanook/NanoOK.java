@@ -49,7 +49,7 @@ public class NanoOK {
         }
         
         if (rVersion == null) {
-            System.out.println("*** ERROR: Couldn't find Rscript - is R installed? ***");
+            System.out.println("*** WARNING: Couldn't find Rscript - only needed for -rplots and compare ***");
         } else {
             System.out.println(rVersion);
         }
@@ -82,7 +82,7 @@ public class NanoOK {
         }
         
         if (hVersion == null) {
-            System.out.println("*** ERROR: Couldn't find h5dump - is H5 Tools installed? ***");
+            System.out.println("*** WARNING: Couldn't find h5dump - only needed for FAST5 files NanoOK can't read natively ***");
         } else {
             System.out.println(hVersion);
         }
@@ -128,7 +128,7 @@ public class NanoOK {
     
     public static void testSamToLast(NanoOKOptions options, References references) {
         BWAParser parser = new BWAParser(options, references);
-        AlignmentsTableFile nonAlignedSummaryFile = new AlignmentsTableFile("atf.txt");
+        AlignmentsTableFile nonAlignedSummaryFile = new AlignmentsTableFile("atf.txt", false);
         ReadSetStats readSetStats = new ReadSetStats(options, NanoOKOptions.TYPE_2D);
         options.getReferences().loadReferences();
         parser.parseFile("/Users/leggettr/Desktop/test.fasta.sam", nonAlignedSummaryFile, readSetStats);
@@ -142,7 +142,7 @@ public class NanoOK {
      */
     public static void testParser(NanoOKOptions options, OverallStats overallStats, References references) {
         AlignmentFileParser p = new LastParser(options, references);
-        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile("blob.txt");
+        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile("blob.txt", false);
         //p.parseFile("/Users/leggettr/Documents/Projects/Nanopore/N79681_EvenMC_R7_06082014/last/2D/N79681_EvenMC_R7_0608215_5314_1_ch319_file116_strand.fast5_BaseCalled_2D.fasta.maf", nonAlignedSummary, overallStats);
         //System.exit(0);
     }
@@ -173,7 +173,9 @@ public class NanoOK {
         OverallStats overallStats = new OverallStats(options);
         options.getReferences().setOverallStats(overallStats);
 
-        options.getSampleChecker().checkReadDirectory();
+        if (options.getStreamedReadFile() == null) {
+            options.getSampleChecker().checkReadDirectory();
+        }
         
         // Load reference data
         options.getReferences().loadReferences();
@@ -229,6 +231,7 @@ public class NanoOK {
                 }
             }
             summary.close();            
+            options.getReferences().closeAlignmentSummaryFiles();
             
             // Write files
             System.out.println("Writing analysis files");
@@ -258,6 +261,7 @@ public class NanoOK {
                 options.getReferences().writeReferenceSummary(type);
                 counter++;
             }
+            options.getReferences().writeUnalignedReferences();
             System.out.println("");
 
             System.out.println("Writing object");
@@ -277,8 +281,13 @@ public class NanoOK {
         if (options.doPlotGraphs()) {
             System.out.println("");
             System.out.println("Plotting graphs");
-            RGraphPlotter plotter = new RGraphPlotter(options);
-            plotter.plot(false);                
+            if (options.useRPlots()) {
+                RGraphPlotter plotter = new RGraphPlotter(options);
+                plotter.plot(false);
+            } else {
+                JavaGraphPlotter plotter = new JavaGraphPlotter(options);
+                plotter.plot();
+            }
         }
         
         // Make report
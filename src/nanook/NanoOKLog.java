@@ -11,17 +11,33 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 /**
- * Logging
+ * Logging. Lines are handed to a NanoOKLogWriter thread, so logging doesn't
+ * hold up worker threads, and timestamps are formatted at most once a second
+ * without a lock.
+ * Messages below the current level are discarded before the timestamp is
+ * added, but any string building by the caller has already happened - hot
+ * paths should check isEnabled(LOG_DEBUG) before building debug messages.
  * 
  * @author Richard Leggett
  */
-public class NanoOKLog  implements Serializable {
+public class NanoOKLog implements Serializable, Runnable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int LOG_DEBUG = 0;
+    public final static int LOG_INFO = 1;
+    public final static int LOG_WARN = 2;
+    private final static int BUFFER_LINES = 8192;
+    private final static String NEWLINE = System.getProperty("line.separator");
+    private final static DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("d/M/yyyy HH:mm:ss");
     private transient PrintWriter pw = null;
+    private transient volatile NanoOKLogWriter writer = null;
+    private transient volatile NanoOKLogTime lastTime = null;
+    private int level = LOG_INFO;
     
     public NanoOKLog() {
     }
@@ -29,6 +45,9 @@ public class NanoOKLog  implements Serializable {
     public synchronized void open(String filename) {
         try {
             pw = new PrintWriter(new FileWriter(filename, false));
+            writer = new NanoOKLogWriter(pw, BUFFER_LINES);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this));
         } catch (IOException e) {
             System.out.println("NanoOKLog exception");
             e.printStackTrace();
@@ -36,40 +55,93 @@ public class NanoOKLog  implements Serializable {
     }
     
     public synchronized void close() {
-        if (pw != null) {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        } else if (pw != null) {
             pw.close();
         }
     }
     
-    public String getTime() {
-        GregorianCalendar timeNow = new GregorianCalendar();
-        String s = String.format("%d/%d/%d %02d:%02d:%02d",
-                                 timeNow.get(Calendar.DAY_OF_MONTH),
-                                 timeNow.get(Calendar.MONTH)+1,
-                                 timeNow.get(Calendar.YEAR),
-                                 timeNow.get(Calendar.HOUR_OF_DAY),
-                                 timeNow.get(Calendar.MINUTE),
-                                 timeNow.get(Calendar.SECOND));
-        return s;
+    /**
+     * Shutdown hook - make sure queued lines are written if we exit early
+     */
+    public void run() {
+        close();
     }
-
-    public synchronized void writeTimeStamp() {
-        if (pw != null) {
+    
+    /**
+     * Set level below which messages are discarded
+     * @param l LOG_DEBUG, LOG_INFO or LOG_WARN
+     */
+    public void setLevel(int l) {
+        level = l;
+    }
+    
+    public int getLevel() {
+        return level;
+    }
+    
+    /**
+     * Check if messages of a given level will be written
+     * @param l level
+     * @return true if logging and level enabled
+     */
+    public boolean isEnabled(int l) {
+        return (writer != null) && (l >= level);
+    }
+    
+    /**
+     * Get current time as a string. The string only changes once a second, so
+     * it is formatted once and shared through an immutable holder - threads
+     * that race at the turn of a second just format it again, without a lock.
+     * @return time string
+     */
+    public String getTime() {
+        long now = System.currentTimeMillis() / 1000;
+        NanoOKLogTime t = lastTime;
+        
+        if ((t == null) || (t.getSecond() != now)) {
+            LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochSecond(now), ZoneId.systemDefault());
+            t = new NanoOKLogTime(now, ldt.format(TIME_FORMAT));
+            lastTime = t;
         }
-    }    
+        
+        return t.getText();
+    }
     
-    public synchronized void print(String s) {
-        if (pw != null) {
-            pw.print(getTime() + " " + s);
+    public void print(String s) {
+        NanoOKLogWriter w = writer;
+        
+        if ((w != null) && (LOG_INFO >= level)) {
+            w.add(getTime() + " " + s);
         }
     }
+    
+    /**
+     * Write a line at the given level
+     * @param l level
+     * @param s message
+     */
+    public void println(int l, String s) {
+        NanoOKLogWriter w = writer;
         
-    public synchronized void println(String s) {
-        if (pw != null) {
-            pw.println(getTime() + " " + s);
-            pw.flush();
+        if ((w != null) && (l >= level)) {
+            w.add(getTime() + " " + s + NEWLINE);
         }
     }
+        
+    public void println(String s) {
+        println(LOG_INFO, s);
+    }
+    
+    public void debug(String s) {
+        println(LOG_DEBUG, s);
+    }
+    
+    public void warn(String s) {
+        println(LOG_WARN, s);
+    }
     
     public synchronized PrintWriter getPrintWriter() {
         return pw;
@@ -0,0 +1,45 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Formatted log timestamp for one second. Immutable, so NanoOKLog can share
+ * the current one between threads through a volatile field without locking.
+ *
+ * @author Richard Leggett
+ */
+public class NanoOKLogTime {
+    private final long second;
+    private final String text;
+
+    /**
+     * Constructor
+     * @param s epoch second
+     * @param t formatted time
+     */
+    public NanoOKLogTime(long s, String t) {
+        second = s;
+        text = t;
+    }
+
+    /**
+     * Get epoch second this time is for
+     * @return seconds since epoch
+     */
+    public long getSecond() {
+        return second;
+    }
+
+    /**
+     * Get formatted time
+     * @return time string
+     */
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.PrintWriter;
+
+/**
+ * Background thread for NanoOKLog. Lines are put into a bounded ring buffer
+ * by any thread and written out in batches, with a single flush per batch,
+ * so callers never wait on disk. If the buffer fills, callers wait for space
+ * rather than lines being lost.
+ *
+ * @author Richard Leggett
+ */
+public class NanoOKLogWriter extends Thread {
+    private PrintWriter pw;
+    private String[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closing = false;
+    private boolean finished = false;
+
+    /**
+     * Constructor
+     * @param p PrintWriter to write to
+     * @param capacity maximum number of lines waiting to be written
+     */
+    public NanoOKLogWriter(PrintWriter p, int capacity) {
+        pw = p;
+        buffer = new String[capacity];
+        setName("NanoOKLogWriter");
+        setDaemon(true);
+    }
+
+    /**
+     * Queue text to be written.
+     * @param s text, including any line terminator
+     */
+    public synchronized void add(String s) {
+        while ((count == buffer.length) && (!finished)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        if (!finished) {
+            buffer[(head + count) % buffer.length] = s;
+            count++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writer loop - take everything queued, write it and flush.
+     */
+    public void run() {
+        String[] batch = new String[buffer.length];
+
+        while (true) {
+            int n;
+
+            synchronized(this) {
+                while ((count == 0) && (!closing)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        closing = true;
+                    }
+                }
+
+                if (count == 0) {
+                    finished = true;
+                    notifyAll();
+                    break;
+                }
+
+                n = count;
+                for (int i=0; i<n; i++) {
+                    int index = (head + i) % buffer.length;
+                    batch[i] = buffer[index];
+                    buffer[index] = null;
+                }
+                head = (head + n) % buffer.length;
+                count = 0;
+                notifyAll();
+            }
+
+            for (int i=0; i<n; i++) {
+                pw.print(batch[i]);
+                batch[i] = null;
+            }
+            pw.flush();
+        }
+    }
+
+    /**
+     * Write out anything still queued, stop thread and close file.
+     */
+    public void close() {
+        synchronized(this) {
+            closing = true;
+            notifyAll();
+        }
+
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        pw.close();
+    }
+}
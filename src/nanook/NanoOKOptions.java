@@ -23,7 +23,6 @@ import java.util.logging.Logger;
 public class NanoOKOptions implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     public final static int MAX_KMER = 20000;
-    public final static int MAX_READ_LENGTH = 1000000;
     public final static int MAX_READS = 1000000;
     public final static int MODE_EXTRACT = 1;
     public final static int MODE_ALIGN = 2;
@@ -60,6 +59,7 @@ public class NanoOKOptions implements Serializable {
     private String cardPath = null;
     private String processFile = null;
     private int coverageBinSize = 100;
+    private boolean perBaseCoverage = false;
     private boolean processPassReads = true;
     private boolean processFailReads = true;
     private boolean processSkipReads = true;
@@ -72,9 +72,16 @@ public class NanoOKOptions implements Serializable {
     private boolean processTemplateReads = true;
     private boolean processComplementReads = true;
     private boolean fixIDs = false;
+    private boolean useH5dump = false;
     private boolean fixRandom = false;
     private boolean doKmerCounting = true;
     private boolean showAlignerCommand = false;
+    private int alignBatchSize = 1;
+    private int alignBatchTime = 10;
+    private boolean streamAlignments = false;
+    private boolean keepStreamedReads = false;
+    private String streamedReadFile = null;
+    private String streamedAlignmentFile = null;
     private boolean extractingReads = false;
     private boolean convertingFastQ = false;
     private boolean aligningReads = false;
@@ -88,10 +95,13 @@ public class NanoOKOptions implements Serializable {
     private int readFormat = FASTA;
     private int numThreads = 1;
     private int fileWatcherTimeout = 10;
+    private int fileWatcherScanInterval = 30;
     private int readsPerMultiFastq = 1;
     private String jobQueue = "";
     private NanoOKLog logFile = new NanoOKLog();
     private String imageFormat = "pdf";
+    private boolean useRPlots = false;
+    private boolean batchRPlots = false;
     private int specifiedType = TYPE_2D;
     private String readsDir = "fast5";
     private String fastQConvertDir = "fastq_pass";
@@ -119,6 +129,7 @@ public class NanoOKOptions implements Serializable {
     private transient ArrayList<String> blastProcesses = new ArrayList<String>();
     private int fileCounterOffset = 0;
     private transient ReadFileMerger readFileMerger;
+    private transient AlignmentBatcher alignmentBatcher;
     private transient SampleChecker sampleChecker = new SampleChecker(this);
     private double blastMaxE = 0.001;
     private int blastMaxTargetSeqs = 25;
@@ -223,6 +234,7 @@ public class NanoOKOptions implements Serializable {
             //System.out.println("    -printpath to output FAST5 path in FASTA read header");
             System.out.println("    -mergereads to generate merged FASTA files in addition to single read files");
             System.out.println("    -minquality <value> to set the minimum quality for a 'pass' read");
+            System.out.println("    -h5dump to read FAST5 files with h5dump instead of the built-in reader");
             System.out.println("");
             System.out.println("align options:");
             System.out.println("    -s|-sample <dir> specifies sample directory");
@@ -230,6 +242,10 @@ public class NanoOKOptions implements Serializable {
             System.out.println("    -aligner <name> specifies the aligner (default last)"); 
             System.out.println("    -alignerparams <params> specifies paramters to the aligner");
             System.out.println("    -showaligns echoes aligner commands to screen");
+            System.out.println("    -alignbatch <number> runs the aligner once per batch of this many reads (default 1)");
+            System.out.println("    -alignbatchtime <number> maximum seconds a read waits for its batch to fill (default 10)");
+            System.out.println("    -stream pipes reads to the aligner from memory, keeping one read and one alignment file per batch (for analyse -readfile/-alignmentfile)");
+            System.out.println("    -keepreads with -stream, still writes read and alignment files for each read");
             System.out.println("    -a|-fasta specifies FASTA file input (default)");
             System.out.println("    -q|-fastq specifies FASTQ file input");
             System.out.println("");
@@ -238,7 +254,12 @@ public class NanoOKOptions implements Serializable {
             System.out.println("    -r|-reference <path> specifies path to reference database");
             System.out.println("    -aligner <name> specifies the aligner (default last)");            
             System.out.println("    -coveragebin <int> specifies coverage bin size (default 100)");            
+            System.out.println("    -perbasecoverage keeps coverage at every base and writes it to a _coverage_per_base.txt file");
             System.out.println("    -bitmaps to output bitmap PNG graphs instead of PDF");
+            System.out.println("    -rplots to plot graphs with R, instead of the built in plotter");
+            System.out.println("    -rbatch to plot graphs with R, using a few long running R processes instead of one per reference");
+            System.out.println("    -readfile <file> analyses a single multi-read FASTA/FASTQ file, instead of the sample's read directories");
+            System.out.println("    -alignmentfile <file> SAM, MAF or BAM alignments for -readfile, with each read's alignments together");
             System.out.println("");
             System.out.println("compare options:");
             System.out.println("    -l|-samplelist <file> specifies a sample list file");
@@ -262,8 +283,10 @@ public class NanoOKOptions implements Serializable {
             System.out.println("Other options:");
             System.out.println("    -t|-numthreads <number> specifies the number of threads to use (default 1)");
             System.out.println("    -log <filename> enables debug logging to file");
+            System.out.println("    -loglevel <debug|info|warn> sets level of detail in log (default info)");
             System.out.println("    -force to force NanoOK to ignore warnings");
             System.out.println("    -timeout to set the number of seconds before giving up waiting for new reads (default 2)");
+            System.out.println("    -scaninterval <number> sets seconds between full rescans of watched directories, for filesystems without change events (default 30)");
             System.out.println("");
             System.out.println("Valid aligners: last, bwa, blasr, marginalign, graphmap, minimap2, ngmlr");
             System.out.println("");
@@ -317,12 +340,18 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-coveragebin")) {
                 coverageBinSize = Integer.parseInt(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-perbasecoverage")) {
+                perBaseCoverage = true;
+                i++;
             } else if (args[i].equalsIgnoreCase("-batchdirs")) {
                 System.out.println("-batchdirs option ignore - now detected automatically.");
                 i++;
             } else if (args[i].equalsIgnoreCase("-timeout")) {
                 fileWatcherTimeout = Integer.parseInt(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-scaninterval")) {
+                fileWatcherScanInterval = Integer.parseInt(args[i+1]);
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-fileoffset")) {
                 fileCounterOffset = Integer.parseInt(args[i+1]);
                 i+=2;
@@ -366,6 +395,18 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-log")) {
                 logFile.open(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-loglevel")) {
+                if (args[i+1].equalsIgnoreCase("debug")) {
+                    logFile.setLevel(NanoOKLog.LOG_DEBUG);
+                } else if (args[i+1].equalsIgnoreCase("info")) {
+                    logFile.setLevel(NanoOKLog.LOG_INFO);
+                } else if (args[i+1].equalsIgnoreCase("warn")) {
+                    logFile.setLevel(NanoOKLog.LOG_WARN);
+                } else {
+                    System.out.println("Error: unknown log level "+args[i+1]);
+                    System.exit(1);
+                }
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-type")) {
                 if (args[i+1].equalsIgnoreCase("template")) {
                     specifiedType = TYPE_TEMPLATE;
@@ -415,12 +456,40 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-bitmaps")) {
                 imageFormat = "png";
                 i++;
+            } else if (args[i].equalsIgnoreCase("-rplots")) {
+                useRPlots = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-rbatch")) {
+                useRPlots = true;
+                batchRPlots = true;
+                i++;
             } else if (args[i].equalsIgnoreCase("-fixids")) {
                 fixIDs = true;
                 i++;
+            } else if (args[i].equalsIgnoreCase("-h5dump")) {
+                useH5dump = true;
+                i++;
             } else if (args[i].equalsIgnoreCase("-showaligns")) {
                 showAlignerCommand = true;
                 i++;
+            } else if (args[i].equalsIgnoreCase("-alignbatch")) {
+                alignBatchSize = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-alignbatchtime")) {
+                alignBatchTime = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-stream")) {
+                streamAlignments = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-keepreads")) {
+                keepStreamedReads = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-readfile")) {
+                streamedReadFile = args[i+1];
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-alignmentfile")) {
+                streamedAlignmentFile = args[i+1];
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-deterministic")) {
                 fixRandom = true;
                 i++;                
@@ -484,6 +553,19 @@ public class NanoOKOptions implements Serializable {
             checkParser();
         }
         
+        if ((streamedReadFile != null) || (streamedAlignmentFile != null)) {
+            if ((streamedReadFile == null) || (streamedAlignmentFile == null)) {
+                System.out.println("Error: -readfile and -alignmentfile must be used together");
+                System.exit(1);
+            }
+            
+            // A single read file is one read type - default to template unless one was chosen
+            if (processTemplateReads && processComplementReads && process2DReads) {
+                processComplementReads = false;
+                process2DReads = false;
+            }
+        }
+        
         if (runMode == MODE_PROCESS) {
             if (processFile == null) {
                 System.out.println("Error: you must specify a process file");
@@ -980,6 +1062,22 @@ public class NanoOKOptions implements Serializable {
         return plotGraphs;
     }
     
+    /**
+     * Check if to plot graphs with R, rather than JavaGraphPlotter
+     * @return true to use R
+     */
+    public boolean useRPlots() {
+        return useRPlots;
+    }
+    
+    /**
+     * Check if R plotting scripts are sent to long running R processes
+     * @return true to batch
+     */
+    public boolean batchRPlots() {
+        return batchRPlots;
+    }
+    
     /**
      * Check if to make report or not
      * @return true to make report
@@ -1016,6 +1114,10 @@ public class NanoOKOptions implements Serializable {
         return fixIDs;
     }
     
+    public boolean useH5dump() {
+        return useH5dump;
+    }
+    
     public boolean fixRandom() {
         return fixRandom;
     }
@@ -1089,6 +1191,10 @@ public class NanoOKOptions implements Serializable {
         parser.checkForIndex(getReferenceFile().substring(0, getReferenceFile().lastIndexOf('.')));
     }
     
+    public boolean doPerBaseCoverage() {
+        return perBaseCoverage;
+    }
+    
     public boolean doKmerCounting() {
         return doKmerCounting;
     }
@@ -1113,6 +1219,48 @@ public class NanoOKOptions implements Serializable {
         return showAlignerCommand;
     }
     
+    public int getAlignBatchSize() {
+        return alignBatchSize;
+    }
+    
+    public int getAlignBatchTime() {
+        return alignBatchTime;
+    }
+    
+    public boolean isStreamingAlignments() {
+        return streamAlignments;
+    }
+    
+    /**
+     * Check if each extracted read gets its own read and alignment files. When
+     * streaming to the aligner they are only written if asked for, or needed
+     * for BLAST or merging - otherwise each batch is kept as one file of each.
+     * @return true if writing per-read files
+     */
+    public boolean isWritingReadFiles() {
+        return !(extractingReads && streamAlignments && aligningReads) || keepStreamedReads || blastingReads || mergeFastaFiles;
+    }
+    
+    /**
+     * Get multi-read file to analyse instead of read directories
+     * @return filename, or null if not set
+     */
+    public String getStreamedReadFile() {
+        return streamedReadFile;
+    }
+    
+    public String getStreamedAlignmentFile() {
+        return streamedAlignmentFile;
+    }
+    
+    public synchronized AlignmentBatcher getAlignmentBatcher() {
+        if (alignmentBatcher == null) {
+            alignmentBatcher = new AlignmentBatcher(this);
+        }
+        
+        return alignmentBatcher;
+    }
+    
     public int getBasecallIndex() {
         return basecallIndex;
     }
@@ -1262,6 +1410,10 @@ public class NanoOKOptions implements Serializable {
     public int getFileWatcherTimeout() {
         return fileWatcherTimeout;
     }
+    
+    public int getFileWatcherScanInterval() {
+        return fileWatcherScanInterval;
+    }
 
     private void checkAndMakeDirectory(String dir) {
         File f = new File(dir);
@@ -0,0 +1,61 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Read FAST5 files in-process, using HDF5File. Safe to share between the
+ * threads extracting reads from a multi-read file.
+ *
+ * @author Richard Leggett
+ */
+public class NativeFast5Reader implements Fast5Reader {
+    private HDF5File hdf;
+
+    /**
+     * Constructor
+     * @param f filename
+     */
+    public NativeFast5Reader(String f) throws IOException {
+        hdf = new HDF5File(f);
+    }
+
+    public void listObjects(String root, ArrayList<String> groups, ArrayList<String> datasets) throws IOException {
+        hdf.listObjects(root, groups, datasets);
+    }
+
+    public ArrayList<String> getReadGroups() throws IOException {
+        ArrayList<String> names = hdf.getMemberNames("/");
+        ArrayList<String> readGroups = new ArrayList<String>();
+
+        for (int i=0; i<names.size(); i++) {
+            if (names.get(i).startsWith("read_")) {
+                readGroups.add(names.get(i));
+            }
+        }
+
+        return readGroups;
+    }
+
+    public String getFastqDataset(String path) throws IOException {
+        return hdf.readStringDataset(path);
+    }
+
+    public double getNumericAttribute(String path) throws IOException {
+        int slash = path.lastIndexOf('/');
+        String objectPath = slash > 0 ? path.substring(0, slash):"/";
+
+        return hdf.readNumericAttribute(objectPath, path.substring(slash + 1), 0);
+    }
+
+    public void close() {
+        hdf.close();
+    }
+}
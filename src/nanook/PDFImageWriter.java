@@ -0,0 +1,96 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an image as a single page PDF, so that charts drawn in Java can be
+ * included in the LaTeX report in the same way as PDFs from R.
+ *
+ * @author Richard Leggett
+ */
+public class PDFImageWriter {
+    /**
+     * Write string to PDF as Latin-1 bytes
+     * @param out output
+     * @param s string
+     */
+    private static void write(ByteArrayOutputStream out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(b, 0, b.length);
+    }
+
+    /**
+     * Write image to a PDF file
+     * @param image image
+     * @param filename output filename
+     * @param dpi resolution, which sets the page size
+     */
+    public static void write(BufferedImage image, String filename, int dpi) throws IOException {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        double pageWidth = (w * 72.0) / dpi;
+        double pageHeight = (h * 72.0) / dpi;
+        ByteArrayOutputStream pixels = new ByteArrayOutputStream();
+        DeflaterOutputStream dos = new DeflaterOutputStream(pixels);
+        byte[] row = new byte[w * 3];
+
+        for (int y=0; y<h; y++) {
+            for (int x=0; x<w; x++) {
+                int rgb = image.getRGB(x, y);
+                row[x * 3] = (byte)((rgb >> 16) & 0xFF);
+                row[(x * 3) + 1] = (byte)((rgb >> 8) & 0xFF);
+                row[(x * 3) + 2] = (byte)(rgb & 0xFF);
+            }
+            dos.write(row);
+        }
+        dos.close();
+
+        String content = String.format(Locale.ROOT, "q %.2f 0 0 %.2f 0 0 cm /Im0 Do Q", pageWidth, pageHeight);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+
+        write(out, "%PDF-1.4\n");
+
+        offsets.add(out.size());
+        write(out, "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+
+        offsets.add(out.size());
+        write(out, "2 0 obj\n<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+
+        offsets.add(out.size());
+        write(out, String.format(Locale.ROOT, "3 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 %.2f %.2f] /Resources << /XObject << /Im0 5 0 R >> >> /Contents 4 0 R >>\nendobj\n", pageWidth, pageHeight));
+
+        offsets.add(out.size());
+        write(out, "4 0 obj\n<< /Length " + content.length() + " >>\nstream\n" + content + "\nendstream\nendobj\n");
+
+        offsets.add(out.size());
+        write(out, "5 0 obj\n<< /Type /XObject /Subtype /Image /Width " + w + " /Height " + h + " /ColorSpace /DeviceRGB /BitsPerComponent 8 /Filter /FlateDecode /Length " + pixels.size() + " >>\nstream\n");
+        pixels.writeTo(out);
+        write(out, "\nendstream\nendobj\n");
+
+        int xref = out.size();
+        write(out, "xref\n0 " + (offsets.size() + 1) + "\n0000000000 65535 f \n");
+        for (int i=0; i<offsets.size(); i++) {
+            write(out, String.format("%010d 00000 n \n", offsets.get(i)));
+        }
+        write(out, "trailer\n<< /Size " + (offsets.size() + 1) + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+
+        FileOutputStream fos = new FileOutputStream(filename);
+        out.writeTo(fos);
+        fos.close();
+    }
+}
@@ -8,6 +8,8 @@
 package nanook;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Random;
 
@@ -27,17 +29,67 @@ public class ParserRunnable implements Runnable
     private SequenceReader sr;
     private int type;
     private int passfail;
+    private String alignmentName;
+    private String readID = null;
+    private List<String> alignmentLines = null;
+    private List<BAMRecord> alignmentRecords = null;
+    private Hashtable<String, ReferenceSequence> readReferences = null;
 
     public ParserRunnable(NanoOKOptions o, ReadSetStats s, String rp, String ap, int t, int pf, AlignmentsTableFile nas) {
         options = o;
         readPath = rp;
         alignmentPath = ap;
+        alignmentName = ap;
         stats = s;
         type = t;
         passfail = pf;
         nonAlignedSummary = nas;
     }
 
+    /**
+     * Constructor for the alignments of one read taken from a multi-read
+     * alignment file. Read lengths must already have been added to the stats,
+     * and kmers are counted later from the read file, so the reference chosen
+     * for the read is stored in readReferences.
+     * @param o program options
+     * @param s stats to add to
+     * @param rp multi-read FASTA/FASTQ file
+     * @param ap multi-read alignment file
+     * @param id read ID
+     * @param lines alignment lines for read
+     * @param t type
+     * @param pf pass/fail
+     * @param nas summary of reads without alignments
+     * @param rr filled in with reference for each read ID
+     */
+    public ParserRunnable(NanoOKOptions o, ReadSetStats s, String rp, String ap, String id, List<String> lines, int t, int pf, AlignmentsTableFile nas, Hashtable<String, ReferenceSequence> rr) {
+        this(o, s, rp, ap, t, pf, nas);
+        readID = id;
+        alignmentLines = lines;
+        readReferences = rr;
+    }
+
+    /**
+     * Constructor for the alignments of one read taken from a BAM file. As
+     * for a multi-read text alignment file, kmers are counted later.
+     * @param o program options
+     * @param s stats to add to
+     * @param rp multi-read FASTA/FASTQ file
+     * @param ap BAM file
+     * @param id read ID
+     * @param records BAM records for read
+     * @param t type
+     * @param pf pass/fail
+     * @param nas summary of reads without alignments
+     * @param rr filled in with reference for each read ID
+     */
+    public ParserRunnable(NanoOKOptions o, ReadSetStats s, String rp, String ap, String id, ArrayList<BAMRecord> records, int t, int pf, AlignmentsTableFile nas, Hashtable<String, ReferenceSequence> rr) {
+        this(o, s, rp, ap, t, pf, nas);
+        readID = id;
+        alignmentRecords = records;
+        readReferences = rr;
+    }
+
     /**
      * Pick top alignment from sorted list. List is sorted in order of score, but if there are
      * matching scores, we pick one at random.
@@ -76,14 +128,26 @@ public class ParserRunnable implements Runnable
     private void parseAlignment()
     {
         try {
-            File file = new File(alignmentPath);
+            File file = new File(alignmentName);
+            // With a multi-read alignment file, reads are named by ID rather than by their alignment file
+            String name = readID != null ? readID : file.getName();
             AlignmentFileParser parser = options.getParser();
+            int nAlignments;
+            boolean debug = options.getLog().isEnabled(NanoOKLog.LOG_DEBUG);
 
-            options.getLog().println("");
-            options.getLog().println("> New file " + file.getName());
-            options.getLog().println("");
+            if (debug) {
+                options.getLog().debug("");
+                options.getLog().debug("> New file " + name);
+                options.getLog().debug("");
+            }
 
-            int nAlignments = parser.parseFile(alignmentPath, nonAlignedSummary, stats);
+            if (alignmentRecords != null) {
+                nAlignments = ((SAMParser)parser).parseRecords(readPath, name, alignmentRecords, nonAlignedSummary, stats);
+            } else if (alignmentLines != null) {
+                nAlignments = parser.parseAlignments(readPath, name, alignmentLines, nonAlignedSummary, stats);
+            } else {
+                nAlignments = parser.parseFile(alignmentPath, nonAlignedSummary, stats);
+            }
 
             if (nAlignments > 0) {
                 parser.sortAlignments();
@@ -91,24 +155,25 @@ public class ParserRunnable implements Runnable
                 int topAlignment = pickTopAlignment(al);
                 String readReferenceName = al.get(topAlignment).getHitName();
 
-                options.getLog().println("Query size = " + al.get(topAlignment).getQuerySequenceSize());
-                options.getLog().println("  Hit size = " + al.get(topAlignment).getHitSequenceSize());
+                if (debug) {
+                    options.getLog().debug("Query size = " + al.get(topAlignment).getQuerySequenceSize());
+                    options.getLog().debug("  Hit size = " + al.get(topAlignment).getHitSequenceSize());
+                }
 
-                readReference = options.getReferences().getReferenceById(readReferenceName);
+                readReference = options.getReferences().getAlignedReferenceById(readReferenceName);
                 AlignmentMerger merger = new AlignmentMerger(options, readReference, al.get(topAlignment).getQuerySequenceSize(), stats, stats.getType());
                 for (int i=topAlignment; i<al.size(); i++) {
                     Alignment a = al.get(i);
                     merger.addAlignment(a);
                 }
                 AlignmentInfo ais = merger.endMergeAndStoreStats();
-                readReference.getStatsByType(stats.getType()).addCoverage(merger.getOverallHitStart(), merger.getOverallHitEnd()-merger.getOverallHitStart()+1);
-                readReference.getStatsByType(stats.getType()).getAlignmentsTableFile().writeMergedAlignment(stats, file.getName(), merger, ais);
+                readReference.getStatsByType(stats.getType()).getAlignmentsTableFile().writeMergedAlignment(stats, name, readPath, merger, ais);
                 readReference.getStatsByType(stats.getType()).addLongestAlignmentSize(ais.getAlignmentSize());
             }
         } catch (Exception e) {
             System.out.println("Error parsing alignment "+ alignmentPath);
             options.setReturnValue(1);
-            options.getLog().println("Error parsing alignment " + alignmentPath);
+            options.getLog().warn("Error parsing alignment " + alignmentPath);
             e.printStackTrace();
         }
     }
@@ -154,11 +219,17 @@ public class ParserRunnable implements Runnable
      * Entry point to thread
      */
     public void run() {        
-        readQueryFile();
+        if (readReferences == null) {
+            readQueryFile();
+        }
         stats.addReadFile(passfail);
         parseAlignment();
         if ((readReference != null) && (options.doKmerCounting())) {
-            sr.storeKmers(0, readReference.getStatsByType(type).getReadKmerTable());
+            if (readReferences != null) {
+                readReferences.put(readID, readReference);
+            } else {
+                sr.storeKmers(0, readReference.getStatsByType(type).getReadKmerTable());
+            }
         }
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads a single SAM or MAF file containing alignments for many reads and
+ * returns them one read at a time. The file must have all the alignments
+ * for a read next to each other, as aligners write them, or be sorted by
+ * read name. Header lines are skipped.
+ *
+ * A reader can be limited to a byte range of the file, so that several
+ * threads can read one file. A range starts at the first record (SAM line
+ * or MAF block) beginning at or after its start offset, and includes every
+ * record beginning before its end offset. The alignments for a read may be
+ * split across two ranges, so the first and last groups of a range may be
+ * incomplete.
+ *
+ * @author Richard Leggett
+ */
+public class QueryGroupedAlignmentReader {
+    private final static int BUFFER_SIZE = 1024 * 1024;
+    private String filename;
+    private boolean isMaf;
+    private boolean trimQuerySuffix;
+    private InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    private long position;
+    private long endPosition;
+    private String pendingLine = null;
+    private long pendingLinePosition = 0;
+    private ArrayList<String> nextRecord = null;
+    private String nextRecordQuery = null;
+    private String groupQuery = null;
+
+    /**
+     * Constructor for reading whole file
+     * @param f alignment file
+     * @param maf true for MAF, false for SAM
+     * @param trim true to remove a /suffix from query names (BLASR)
+     */
+    public QueryGroupedAlignmentReader(String f, boolean maf, boolean trim) throws IOException {
+        this(f, maf, trim, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for reading part of file
+     * @param f alignment file
+     * @param maf true for MAF, false for SAM
+     * @param trim true to remove a /suffix from query names (BLASR)
+     * @param start start offset
+     * @param end end offset (exclusive)
+     */
+    public QueryGroupedAlignmentReader(String f, boolean maf, boolean trim, long start, long end) throws IOException {
+        filename = f;
+        isMaf = maf;
+        trimQuerySuffix = trim;
+        endPosition = end;
+
+        FileInputStream fis = new FileInputStream(filename);
+        in = fis;
+
+        // Start from the previous byte and discard up to the newline, so a
+        // line beginning exactly at start isn't lost
+        if (start > 0) {
+            fis.getChannel().position(start - 1);
+            position = start - 1;
+            readLine();
+        } else {
+            position = 0;
+        }
+
+        // A MAF range can start in the middle of a block, so skip to the next one
+        if (isMaf && (start > 0)) {
+            String line;
+            while ((line = peekLine()) != null) {
+                if (line.startsWith("a ")) {
+                    break;
+                }
+                pendingLine = null;
+            }
+        }
+
+        readRecord();
+    }
+
+    /**
+     * Fill buffer from file
+     * @return false at end of file
+     */
+    private boolean fillBuffer() throws IOException {
+        bufferLength = in.read(buffer);
+        bufferPos = 0;
+        return bufferLength > 0;
+    }
+
+    /**
+     * Read a line, tracking the file offset. Alignment files are ASCII, so
+     * bytes are used as characters directly.
+     * @return line without terminator, or null at end of file
+     */
+    private String readLine() throws IOException {
+        StringBuilder sb = null;
+
+        while (true) {
+            if (bufferPos >= bufferLength) {
+                if (!fillBuffer()) {
+                    return sb == null ? null : sb.toString();
+                }
+            }
+
+            int lineStart = bufferPos;
+            while ((bufferPos < bufferLength) && (buffer[bufferPos] != '\n')) {
+                bufferPos++;
+            }
+
+            int lineLength = bufferPos - lineStart;
+            boolean gotNewline = bufferPos < bufferLength;
+            position += lineLength;
+            if (gotNewline) {
+                bufferPos++;
+                position++;
+                if ((lineLength > 0) && (buffer[lineStart + lineLength - 1] == '\r')) {
+                    lineLength--;
+                }
+            }
+
+            String part = new String(buffer, lineStart, lineLength, StandardCharsets.ISO_8859_1);
+            if (gotNewline) {
+                return sb == null ? part : sb.append(part).toString();
+            }
+
+            if (sb == null) {
+                sb = new StringBuilder();
+            }
+            sb.append(part);
+        }
+    }
+
+    /**
+     * Get next line without consuming it.
+     * @return line, or null at end of file
+     */
+    private String peekLine() throws IOException {
+        if (pendingLine == null) {
+            pendingLinePosition = position;
+            pendingLine = readLine();
+        }
+
+        return pendingLine;
+    }
+
+    private String getQueryName(String name) {
+        if (trimQuerySuffix && (name.lastIndexOf('/') > 0)) {
+            return name.substring(0, name.lastIndexOf('/'));
+        }
+
+        return name;
+    }
+
+    /**
+     * Read next record (a SAM line or a MAF block) into nextRecord. Only
+     * records beginning before the end of the range are read.
+     */
+    private void readRecord() throws IOException {
+        String line;
+
+        nextRecord = null;
+        nextRecordQuery = null;
+
+        while ((line = peekLine()) != null) {
+            if ((nextRecord == null) && (pendingLinePosition >= endPosition)) {
+                break;
+            }
+
+            pendingLine = null;
+
+            if (isMaf) {
+                if (line.startsWith("#")) {
+                    continue;
+                } else if (line.length() == 0) {
+                    if (nextRecord != null) {
+                        break;
+                    }
+                } else {
+                    if (nextRecord == null) {
+                        nextRecord = new ArrayList<String>();
+                    }
+                    nextRecord.add(line);
+
+                    // Second s line of a block is the query
+                    if (line.startsWith("s ") && (nextRecord.size() > 2) && (nextRecordQuery == null)) {
+                        nextRecordQuery = getQueryName(line.split("\\s+")[1]);
+                    }
+                }
+            } else if ((line.length() > 0) && (!line.startsWith("@"))) {
+                int tab = line.indexOf('\t');
+                nextRecord = new ArrayList<String>();
+                nextRecord.add(line);
+                nextRecordQuery = getQueryName(tab > 0 ? line.substring(0, tab) : line);
+                break;
+            }
+        }
+
+        if ((nextRecord != null) && (nextRecordQuery == null)) {
+            throw new IOException("Can't find read name in alignment in "+filename);
+        }
+    }
+
+    /**
+     * Get the alignments for the next read.
+     * @return alignment lines, or null at end of file or range
+     */
+    public ArrayList<String> nextGroup() throws IOException {
+        if (nextRecord == null) {
+            return null;
+        }
+
+        ArrayList<String> group = new ArrayList<String>();
+        groupQuery = nextRecordQuery;
+
+        while ((nextRecord != null) && (nextRecordQuery.equals(groupQuery))) {
+            group.addAll(nextRecord);
+            if (isMaf) {
+                group.add("");
+            }
+            readRecord();
+        }
+
+        return group;
+    }
+
+    /**
+     * Get read name of the last group returned by nextGroup.
+     * @return read name
+     */
+    public String getQuery() {
+        return groupQuery;
+    }
+
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            System.out.println("QueryGroupedAlignmentReader exception:");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * A long running R process, which runs plotting scripts sent to it by
+ * nanook_plot_batch.R. R starts and loads libraries once, rather than once
+ * per script. The process is started when first needed, and again if it
+ * stops.
+ *
+ * @author Richard Leggett
+ */
+public class RBatchProcess {
+    public final static String BATCH_SCRIPT = "nanook_plot_batch.R";
+    public final static String DONE_MARKER = "NanoOK batch job done";
+    private String scriptsDir;
+    private Process process = null;
+    private BufferedWriter toR = null;
+    private BufferedReader fromR = null;
+
+    /**
+     * Constructor
+     * @param s scripts directory
+     */
+    public RBatchProcess(String s) {
+        scriptsDir = s;
+    }
+
+    /**
+     * Start R
+     */
+    private void start() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder("Rscript", scriptsDir + File.separator + BATCH_SCRIPT);
+        pb.redirectErrorStream(true);
+        process = pb.start();
+        toR = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+        fromR = new BufferedReader(new InputStreamReader(process.getInputStream()));
+    }
+
+    /**
+     * Run a script and wait for it to finish
+     * @param args script filename, then arguments
+     * @param logFilename file to write R output to
+     */
+    public void run(List<String> args, String logFilename) throws IOException {
+        PrintWriter log;
+        String line = null;
+
+        if ((process == null) || (!process.isAlive())) {
+            start();
+        }
+
+        log = new PrintWriter(new FileWriter(logFilename));
+
+        try {
+            for (int i=0; i<args.size(); i++) {
+                if (i > 0) {
+                    toR.write("\t");
+                }
+                toR.write(args.get(i));
+            }
+            toR.newLine();
+            toR.flush();
+
+            while (((line = fromR.readLine()) != null) && (!line.equals(DONE_MARKER))) {
+                log.println(line);
+            }
+        } catch (IOException e) {
+            log.println(e.toString());
+        }
+
+        log.close();
+
+        if (line == null) {
+            System.out.println("");
+            System.out.println("Warning: R process stopped - see " + logFilename);
+            process.destroy();
+            process = null;
+        }
+    }
+
+    /**
+     * Tell R to finish and wait for it to exit
+     */
+    public void close() {
+        if (process != null) {
+            try {
+                toR.close();
+                process.waitFor();
+            } catch (Exception e) {
+                System.out.println("RBatchProcess exception:");
+                e.printStackTrace();
+            }
+            process = null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs one R plotting script on a free RBatchProcess, so that batched R
+ * plotting goes through the same executor, and progress reporting, as
+ * RGraphRunnable.
+ *
+ * @author Richard Leggett
+ */
+public class RBatchRunnable implements Runnable {
+    private LinkedBlockingQueue<RBatchProcess> processes;
+    private List<String> args;
+    private String logFilename;
+
+    /**
+     * Constructor
+     * @param p pool of R processes
+     * @param a script filename, then arguments
+     * @param log log filename
+     */
+    public RBatchRunnable(LinkedBlockingQueue<RBatchProcess> p, List<String> a, String log) {
+        processes = p;
+        args = a;
+        logFilename = log;
+    }
+
+    /**
+     * Entry point to thread
+     */
+    public void run() {
+        try {
+            RBatchProcess process = processes.take();
+            try {
+                process.run(args, logFilename);
+            } finally {
+                processes.add(process);
+            }
+            RGraphRunnable.checkLogForErrors(logFilename);
+        } catch (Exception e) {
+            System.out.println("RBatchRunnable exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
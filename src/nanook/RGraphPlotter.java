@@ -25,6 +25,7 @@ public class RGraphPlotter {
     private NanoOKOptions options;
     private long lastCompleted = -1;
     private String logDirectory;
+    private LinkedBlockingQueue<RBatchProcess> batchProcesses = null;
 
     /**
      * Constructor.
@@ -39,6 +40,13 @@ public class RGraphPlotter {
             f.mkdir();
             options.getLog().println("Made directory " + logDirectory);
         }
+        
+        if (options.batchRPlots()) {
+            batchProcesses = new LinkedBlockingQueue<RBatchProcess>();
+            for (int i=0; i<options.getNumberOfThreads(); i++) {
+                batchProcesses.add(new RBatchProcess(options.getScriptsDir()));
+            }
+        }
     }
         
     /**
@@ -101,7 +109,11 @@ public class RGraphPlotter {
                 
         options.getLog().println("Running Rscript "+scriptName);
         options.getLog().println("Log file is "+logFilename);
-        executor.execute(new RGraphRunnable("Rscript", args, logFilename + ".txt"));
+        if (batchProcesses != null) {
+            executor.execute(new RBatchRunnable(batchProcesses, args.subList(1, args.size()), logFilename + ".txt"));
+        } else {
+            executor.execute(new RGraphRunnable("Rscript", args, logFilename + ".txt"));
+        }
         writeProgress();
     }
     
@@ -139,6 +151,12 @@ public class RGraphPlotter {
             Thread.sleep(100);
         }        
 
+        if (batchProcesses != null) {
+            for (RBatchProcess p : batchProcesses) {
+                p.close();
+            }
+        }
+
         writeProgress();
         System.out.println("");
     }    
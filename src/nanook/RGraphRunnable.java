@@ -28,7 +28,7 @@ public class RGraphRunnable implements Runnable {
         logFilename = log;
     }
     
-    public void checkLogForErrors(String filename) {
+    public static void checkLogForErrors(String filename) {
         try
         {
             BufferedReader br = new BufferedReader(new FileReader(filename));
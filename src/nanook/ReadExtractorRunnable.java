@@ -79,5 +79,7 @@ public class ReadExtractorRunnable implements Runnable {
                 }
             }
         }
+        
+        inputFile.close();
     }    
 }
@@ -0,0 +1,151 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Index of read lengths and GC, for looking up reads from their alignments.
+ * Reads are keyed on a 64-bit hash of their ID rather than the ID itself,
+ * and stored in an open addressing table of two longs per read - the key,
+ * then the length and number of G/C bases. There are no per-read objects,
+ * so the index stays small and cheap to garbage collect with many millions
+ * of reads. Two IDs with the same hash would be reported as a duplicate,
+ * but with 64-bit hashes that is vanishingly unlikely.
+ *
+ * Adding is synchronized, but lookups aren't. The value is written before
+ * the key, so a lookup that finds a key always sees its value.
+ *
+ * @author Richard Leggett
+ */
+public class ReadIndex implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    private final static int INITIAL_SIZE = 1024;
+    private volatile AtomicLongArray slots = new AtomicLongArray(2 * INITIAL_SIZE);
+    private int nReads = 0;
+
+    /**
+     * Hash a read ID, 64-bit FNV-1a followed by MurmurHash3 finalizer
+     * @param prefix prefix of read file
+     * @param id read ID
+     * @return key, never 0
+     */
+    public static long getKey(String prefix, String id) {
+        long h = 0xcbf29ce484222325L;
+
+        for (int i=0; i<prefix.length(); i++) {
+            h = (h ^ prefix.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ ':') * 0x100000001b3L;
+        for (int i=0; i<id.length(); i++) {
+            h = (h ^ id.charAt(i)) * 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Find slot for key
+     * @param s table
+     * @param key key
+     * @return slot, which is either empty or holds key
+     */
+    private static int findSlot(AtomicLongArray s, long key) {
+        int mask = (s.length() / 2) - 1;
+        int i = (int)key & mask;
+        long k;
+
+        while (((k = s.get(2 * i)) != 0) && (k != key)) {
+            i = (i + 1) & mask;
+        }
+
+        return i;
+    }
+
+    /**
+     * Double size of table, once it is 70% full
+     */
+    private void grow() {
+        AtomicLongArray s = slots;
+        AtomicLongArray newSlots = new AtomicLongArray(s.length() * 2);
+
+        for (int i=0; i<s.length(); i+=2) {
+            long key = s.get(i);
+            if (key != 0) {
+                int j = findSlot(newSlots, key);
+                newSlots.set((2 * j) + 1, s.get(i + 1));
+                newSlots.set(2 * j, key);
+            }
+        }
+
+        slots = newSlots;
+    }
+
+    /**
+     * Add a read
+     * @param key key from getKey
+     * @param length read length
+     * @param gc GC percent
+     * @return false if read already in index
+     */
+    public synchronized boolean add(long key, int length, double gc) {
+        if ((long)(nReads + 1) * 10 > (long)(slots.length() / 2) * 7) {
+            grow();
+        }
+
+        AtomicLongArray s = slots;
+        int i = findSlot(s, key);
+        if (s.get(2 * i) != 0) {
+            return false;
+        }
+
+        // Store number of G/C bases, from which the same GC percent can be calculated
+        int gcCount = (int)Math.round(gc * (double)length / 100.0);
+        s.set((2 * i) + 1, ((long)length << 32) | (gcCount & 0xffffffffL));
+        s.set(2 * i, key);
+        nReads++;
+
+        return true;
+    }
+
+    /**
+     * Get length of read
+     * @param key key from getKey
+     * @return length, or -1 if not found
+     */
+    public int getLength(long key) {
+        AtomicLongArray s = slots;
+        int i = findSlot(s, key);
+
+        return s.get(2 * i) != 0 ? (int)(s.get((2 * i) + 1) >>> 32) : -1;
+    }
+
+    /**
+     * Get GC percent of read
+     * @param key key from getKey
+     * @return GC percent, or -1 if not found
+     */
+    public double getGC(long key) {
+        AtomicLongArray s = slots;
+        int i = findSlot(s, key);
+
+        if (s.get(2 * i) == 0) {
+            return -1;
+        }
+
+        long value = s.get((2 * i) + 1);
+        return 100.0 * (double)(int)value / (double)(int)(value >>> 32);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Histogram of read lengths, with no upper limit. Lengths below EXACT_LIMIT
+ * are counted individually. Longer reads fall into buckets by power of two,
+ * each holding a count and total bases, plus the lengths themselves so that
+ * N50 and N90 stay exact. Reads that long are few, even in ultra-long runs.
+ *
+ * Histograms can be merged, and N50, N90 and mean are found in one pass,
+ * which skips whole buckets that don't contain the N50 or N90 read.
+ *
+ * @author Richard Leggett
+ */
+public class ReadLengthHistogram implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int EXACT_BITS = 16;
+    public final static int EXACT_LIMIT = 1 << EXACT_BITS;
+    private final static int N_BUCKETS = 32 - EXACT_BITS;
+    private IntHistogram exactCounts = new IntHistogram();
+    private int[] bucketCounts = new int[N_BUCKETS];
+    private long[] bucketBases = new long[N_BUCKETS];
+    private int[][] bucketLengths = new int[N_BUCKETS][];
+    private long nReads = 0;
+    private long basesSum = 0;
+    private int longest = 0;
+    private int shortest = 0;
+    private int n50 = 0;
+    private int n50Count = 0;
+    private int n90 = 0;
+    private int n90Count = 0;
+    private double meanLength = 0;
+
+    /**
+     * Get bucket for a length of EXACT_LIMIT or more
+     * @param l length
+     * @return bucket index
+     */
+    private static int getBucket(int l) {
+        return (31 - Integer.numberOfLeadingZeros(l)) - EXACT_BITS;
+    }
+
+    /**
+     * Store a length of EXACT_LIMIT or more in its bucket
+     * @param l length
+     */
+    private void addToBucket(int l) {
+        int b = getBucket(l);
+
+        if (bucketLengths[b] == null) {
+            bucketLengths[b] = new int[16];
+        } else if (bucketCounts[b] == bucketLengths[b].length) {
+            bucketLengths[b] = Arrays.copyOf(bucketLengths[b], bucketCounts[b] * 2);
+        }
+
+        bucketLengths[b][bucketCounts[b]++] = l;
+        bucketBases[b] += l;
+    }
+
+    /**
+     * Add a read length
+     * @param l length
+     */
+    public void add(int l) {
+        if (l < EXACT_LIMIT) {
+            exactCounts.add(l);
+        } else {
+            addToBucket(l);
+        }
+
+        if ((nReads == 0) || (l < shortest)) {
+            shortest = l;
+        }
+
+        if (l > longest) {
+            longest = l;
+        }
+
+        nReads++;
+        basesSum += l;
+    }
+
+    /**
+     * Add lengths from another histogram
+     * @param h histogram to add
+     */
+    public void add(ReadLengthHistogram h) {
+        exactCounts.add(h.exactCounts);
+
+        for (int b=0; b<N_BUCKETS; b++) {
+            for (int i=0; i<h.bucketCounts[b]; i++) {
+                addToBucket(h.bucketLengths[b][i]);
+            }
+        }
+
+        if (h.nReads > 0) {
+            if ((nReads == 0) || (h.shortest < shortest)) {
+                shortest = h.shortest;
+            }
+            longest = Math.max(longest, h.longest);
+        }
+
+        nReads += h.nReads;
+        basesSum += h.basesSum;
+    }
+
+    /**
+     * Find the smallest number of reads of a given length, added to a total,
+     * which reach a threshold.
+     * @param total bases so far
+     * @param length read length
+     * @param threshold threshold bases
+     * @return number of reads
+     */
+    private static long readsToThreshold(long total, int length, double threshold) {
+        long n = Math.max(1, (long)Math.ceil((threshold - (double)total) / (double)length));
+
+        while ((n > 1) && ((double)(total + ((n - 1) * length)) >= threshold)) {
+            n--;
+        }
+
+        while ((double)(total + (n * length)) < threshold) {
+            n++;
+        }
+
+        return n;
+    }
+
+    /**
+     * Calculate N50, N90 and mean length. Reads are considered longest first
+     * and N50 is the length of the read that takes the total to half of all
+     * bases, with N50 count the number of reads up to and including it.
+     */
+    public void calculateStats() {
+        double n50Threshold = (double)basesSum * 0.5;
+        double n90Threshold = (double)basesSum * 0.9;
+        long total = 0;
+        long c = 0;
+
+        meanLength = (double)basesSum / (double)nReads;
+        n50 = 0;
+        n50Count = 0;
+        n90 = 0;
+        n90Count = 0;
+
+        for (int b=N_BUCKETS-1; (b>=0) && (n90 == 0); b--) {
+            if (bucketCounts[b] == 0) {
+                continue;
+            }
+
+            // Skip whole bucket if the next threshold isn't reached within it
+            if ((double)(total + bucketBases[b]) < (n50 == 0 ? n50Threshold : n90Threshold)) {
+                total += bucketBases[b];
+                c += bucketCounts[b];
+            } else {
+                int[] sorted = Arrays.copyOf(bucketLengths[b], bucketCounts[b]);
+                Arrays.sort(sorted);
+                for (int i=sorted.length-1; i>=0; i--) {
+                    total += sorted[i];
+                    c++;
+
+                    if ((n50 == 0) && ((double)total >= n50Threshold)) {
+                        n50 = sorted[i];
+                        n50Count = (int)c;
+                    }
+
+                    if ((n90 == 0) && ((double)total >= n90Threshold)) {
+                        n90 = sorted[i];
+                        n90Count = (int)c;
+                    }
+                }
+            }
+        }
+
+        for (int l=Math.min(longest, EXACT_LIMIT - 1); (l>0) && (n90 == 0); l--) {
+            int n = exactCounts.get(l);
+
+            if (n > 0) {
+                long bases = (long)n * (long)l;
+
+                if ((n50 == 0) && ((double)(total + bases) >= n50Threshold)) {
+                    n50 = l;
+                    n50Count = (int)(c + readsToThreshold(total, l, n50Threshold));
+                }
+
+                if ((double)(total + bases) >= n90Threshold) {
+                    n90 = l;
+                    n90Count = (int)(c + readsToThreshold(total, l, n90Threshold));
+                }
+
+                total += bases;
+                c += n;
+            }
+        }
+    }
+
+    public long getNumReads() {
+        return nReads;
+    }
+
+    public long getTotalBases() {
+        return basesSum;
+    }
+
+    public int getLongest() {
+        return longest;
+    }
+
+    public int getShortest() {
+        return shortest;
+    }
+
+    public double getMeanLength() {
+        return meanLength;
+    }
+
+    public int getN50() {
+        return n50;
+    }
+
+    public int getN50Count() {
+        return n50Count;
+    }
+
+    public int getN90() {
+        return n90;
+    }
+
+    public int getN90Count() {
+        return n90Count;
+    }
+}
@@ -10,6 +10,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -99,13 +100,18 @@ public class ReadParser {
 //        }
     }
     
+    private PrintWriter openParserFile(String fastaqPathname, String alignmentPathname, String parserPathname) throws IOException {
+        PrintWriter pw = new PrintWriter(new FileWriter(parserPathname, false));
+        pw.println("NanoOKVersion:"+NanoOK.VERSION_STRING);
+        pw.println("FastAQPath:"+fastaqPathname);
+        pw.println("AlignmentPath:"+alignmentPathname);
+        pw.println("Aligner:"+options.getAligner());
+        return pw;
+    }
+    
     public void parse(String fastaqPathname, String alignmentPathname, String parserPathname) {
         try {
-            PrintWriter pw = new PrintWriter(new FileWriter(parserPathname, false));
-            pw.println("NanoOKVersion:"+NanoOK.VERSION_STRING);
-            pw.println("FastAQPath:"+fastaqPathname);
-            pw.println("AlignmentPath:"+alignmentPathname);
-            pw.println("Aligner:"+options.getAligner());
+            PrintWriter pw = openParserFile(fastaqPathname, alignmentPathname, parserPathname);
             
             readQueryFile(fastaqPathname, pw);
             //stats.addReadFile(passfail);
@@ -120,4 +126,47 @@ public class ReadParser {
             e.printStackTrace();
         }        
     }
+    
+    private void writeRead(FastAQFile read, String fastaqPathname, PrintWriter pw) {
+        String id = read.getID().split("(\\s+)")[0];
+
+        if (id.startsWith("00000000-0000-0000-0000-000000000000")) {
+            System.out.println("Error:");
+            System.out.println(fastaqPathname);
+            System.out.println("The reads in this file do not have unique IDs because they were generated when MinKNOW was producing UUIDs, but Metrichor was not using them. To fix, run nanook_extract_reads with the -fixids option.");
+            System.exit(1);
+        }
+
+        pw.printf("Read:%s\t%d\t%.2f\n", id, read.getLength(), read.getGC());
+    }
+    
+    /**
+     * Parse a read held in memory, when streaming, rather than reading it back from fastaqPathname.
+     */
+    public void parse(FastAQFile read, String fastaqPathname, String alignmentPathname, String parserPathname) {
+        try {
+            PrintWriter pw = openParserFile(fastaqPathname, alignmentPathname, parserPathname);
+            writeRead(read, fastaqPathname, pw);
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("parseAlignment exception");
+            e.printStackTrace();
+        }        
+    }
+    
+    /**
+     * Parse a streamed batch held in memory, whose reads and alignments are kept as one file each.
+     */
+    public void parse(ArrayList<FastAQFile> reads, String fastaqPathname, String alignmentPathname, String parserPathname) {
+        try {
+            PrintWriter pw = openParserFile(fastaqPathname, alignmentPathname, parserPathname);
+            for (int i=0; i<reads.size(); i++) {
+                writeRead(reads.get(i), fastaqPathname, pw);
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("parseAlignment exception");
+            e.printStackTrace();
+        }        
+    }
 }
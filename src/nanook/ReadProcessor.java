@@ -265,21 +265,27 @@ public class ReadProcessor {
             executor.execute(new ReadProcessorRunnable(options, fw));
         }
         
-        // Now keep scanning
-        while (!fw.timedOut()) {
+        // Now keep scanning - scan returns early when new files arrive
+        while (!fw.timedOut() || options.getAlignmentBatcher().hasPendingReads()) {
             if (options.getJobScheduler() != null) {
                 options.getJobScheduler().manageQueue();
             }
-            fw.scan();
+            fw.scan(1000);
             fw.writeProgress();
-            Thread.sleep(500);            
-            fw.writeProgress();
-            Thread.sleep(500);    
+            
+            // Release partly filled alignment batch if it's waited too long, or if there's nothing else coming
+            ArrayList<String> batch = options.getAlignmentBatcher().getDueBatch(fw.timedOut());
+            if (batch != null) {
+                fw.addPendingItemFirst(new FileWatcherItem(batch, NanoOKOptions.READTYPE_COMBINED));
+            }
         }
         fw.writeProgress();
+        fw.close();
                 
-        // That's all - wait for all threads to finish
+        // That's all - release worker threads and wait for them to finish
+        fw.shutdown(options.getNumberOfThreads());
         executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
 
         options.getReadFileMerger().closeFiles();
         if (options.mergeFastaFiles()) {        
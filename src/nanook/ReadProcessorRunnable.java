@@ -14,15 +14,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Hashtable;
 
 /**
  * Enable multi-threading of read extraction
@@ -192,10 +184,59 @@ public class ReadProcessorRunnable implements Runnable {
         rp.parse(fastaqPathname, alignmentPathname, parsedPathname);
     }
     
+    /**
+     * Parse an alignment for a read held in memory, rather than reading its file back.
+     */
+    public void runParse(String alignmentPathname, FastAQFile read) {
+        String parsedPathname = getParserPathnameFromAlignmentName(alignmentPathname) + ".txt";
+        String fastaqPathname = getFastaqPathnameFromAlignmentName(alignmentPathname);
+        ReadParser rp = new ReadParser(options);
+        
+        options.getLog().println("Parsing file "+ alignmentPathname);
+        options.getLog().println("          to "+ parsedPathname);
+        
+        rp.parse(read, fastaqPathname, alignmentPathname, parsedPathname);
+    }
+    
+    /**
+     * Parse a batch kept as one reads file and one alignment file, writing one
+     * parser file for the whole batch.
+     * @param fastaqPathname batch reads file
+     * @param alignmentPathname batch alignment file
+     * @param reads reads in batch, held in memory
+     */
+    public void runParseBatch(String fastaqPathname, String alignmentPathname, ArrayList<FastAQFile> reads) {
+        String leafName = new File(alignmentPathname).getName();
+        String parsedPathname = options.getParserDir() + File.separator + leafName.substring(0, leafName.lastIndexOf('.')) + ".txt";
+        ReadParser rp = new ReadParser(options);
+        
+        options.getLog().println("Parsing file "+ alignmentPathname);
+        options.getLog().println("          to "+ parsedPathname);
+        
+        rp.parse(reads, fastaqPathname, alignmentPathname, parsedPathname);
+    }
+    
     public void runAlign(String fastaqPathname) {
+        runAlign(fastaqPathname, null);
+    }
+    
+    /**
+     * Align a read
+     * @param fastaqPathname read file
+     * @param read read held in memory, or null to read it from fastaqPathname
+     */
+    public void runAlign(String fastaqPathname, FastAQFile read) {
         String reference = options.getReferenceFile();
         AlignmentFileParser parser = options.getParser();
         
+        if ((options.getAlignBatchSize() > 1) || options.isStreamingAlignments()) {
+            ArrayList<String> batch = options.getAlignmentBatcher().addRead(fastaqPathname, read);
+            if (batch != null) {
+                runAlignBatch(batch);
+            }
+            return;
+        }
+        
         String filePrefix = getFilePrefixFromPathname(fastaqPathname);
         String alignmentPathname = getAlignmentPathnameFromFastaqName(fastaqPathname) + parser.getAlignmentFileExtension();
         String alignmentLogPathname = getAlignmentLogPathnameFromFastaqName(fastaqPathname);
@@ -214,6 +255,82 @@ public class ReadProcessorRunnable implements Runnable {
         }
     }
     
+    /**
+     * Align a batch of read files with one run of the aligner, then split the
+     * output back into the per-read alignment files runAlign would produce.
+     * When streaming, and the aligner writes to stdout, reads are piped to the
+     * aligner and its output read directly, rather than going through files.
+     * If reads don't have their own files, the batch's reads and alignments
+     * are kept as one file each instead of being split.
+     * @param batch list of read files
+     */
+    public void runAlignBatch(ArrayList<String> batch) {
+        String reference = options.getReferenceFile();
+        AlignmentFileParser parser = options.getParser();
+        AlignmentBatcher batcher = options.getAlignmentBatcher();
+        ArrayList<FastAQFile> reads = batcher.takeReads(batch);
+        ArrayList<String> alignmentPathnames = new ArrayList<String>();
+        String batchPrefix = batcher.getNextBatchPrefix();
+        String chunkPathname = batchPrefix + (options.getReadFormat() == NanoOKOptions.FASTA ? ".fasta":".fastq");
+        String batchAlignmentPathname = batchPrefix + parser.getAlignmentFileExtension();
+        boolean perReadFiles = options.isWritingReadFiles();
+        
+        for (int i=0; i<batch.size(); i++) {
+            alignmentPathnames.add(getAlignmentPathnameFromFastaqName(batch.get(i)) + parser.getAlignmentFileExtension());
+        }
+        
+        if (options.isStreamingAlignments() && parser.outputsToStdout()) {
+            String logPathname = batchPrefix + ".log";
+            String command = parser.getRunCommand("/dev/stdin", batchAlignmentPathname, reference);
+            
+            options.getLog().println("Streaming batch of "+batch.size()+" reads to aligner, with log "+logPathname);
+            if (options.showAlignerCommand()) {
+                System.out.println("Running: " + command);
+            }
+            
+            if (!perReadFiles) {
+                batcher.writeChunk(batch, reads, chunkPathname, new Hashtable<String, Integer>());
+            }
+            
+            ArrayList<ArrayList<String>> alignments = batcher.streamAlignments(command, batch, reads, logPathname, parser.getAlignmentFileExtension().equals(".maf"), perReadFiles ? null:batchAlignmentPathname);
+            if (perReadFiles) {
+                batcher.writeAlignments(alignments, alignmentPathnames);
+            }
+        } else {
+            Hashtable<String, Integer> readFiles = new Hashtable<String, Integer>();
+            
+            options.getLog().println("Aligning batch of "+batch.size()+" files as "+chunkPathname);
+            batcher.writeChunk(batch, reads, chunkPathname, readFiles);
+
+            String command = parser.getRunCommand(chunkPathname, batchAlignmentPathname, reference);
+            if (options.showAlignerCommand()) {
+                System.out.println("Running: " + command);
+            }
+            runCommandLocal(command, parser.outputsToStdout() ? batchAlignmentPathname:null);
+
+            if (perReadFiles) {
+                batcher.splitAlignments(batchAlignmentPathname, readFiles, alignmentPathnames);
+                new File(chunkPathname).delete();
+                new File(batchAlignmentPathname).delete();
+            }
+        }
+        
+        if (options.isParsingRead()) {
+            if (!perReadFiles) {
+                runParseBatch(chunkPathname, batchAlignmentPathname, reads);
+                return;
+            }
+            
+            for (int i=0; i<alignmentPathnames.size(); i++) {
+                if (reads.get(i) != null) {
+                    runParse(alignmentPathnames.get(i), reads.get(i));
+                } else {
+                    runParse(alignmentPathnames.get(i));
+                }
+            }
+        }
+    }
+    
     public void runConvertFastQ(String fastqPathname) {
         File f = new File(fastqPathname);
         String fastqLeafname = f.getName();
@@ -259,7 +376,7 @@ public class ReadProcessorRunnable implements Runnable {
         options.getBlastHandler(type, pf).addRead(fastaqPathname);
     }
     
-    private String getFastaqFilename(String fast5Pathname, int t, int inputPF, int outputPF) {
+    private String getFastaqFilename(String fast5Pathname, String readGroup, int t, int inputPF, int outputPF) {
         File f = new File(fast5Pathname);        
         String inDir = f.getParent();
         String suffixDirs;
@@ -287,6 +404,9 @@ public class ReadProcessorRunnable implements Runnable {
         File dir = new File(fastaqDir);
         
         String filePrefix = getFilePrefixFromPathname(fast5Pathname);
+        if (readGroup != null) {
+            filePrefix += "_" + readGroup;
+        }
         String fileExtension = options.getReadFormat() == NanoOKOptions.FASTA ? ".fasta":".fastq";       
         
         if (!dir.exists()) {
@@ -300,10 +420,31 @@ public class ReadProcessorRunnable implements Runnable {
     }
     
     public void runExtract(String fast5Pathname, int inputPF) {
-        Fast5File inputFile = new Fast5File(options, fast5Pathname);
-        int outputPF;
-                
         options.getLog().println("Extracting file "+fast5Pathname);
+        runExtractNextRead(new MultiReadFast5File(options, fast5Pathname), inputPF);
+    }
+    
+    /**
+     * Extract next read from a file. If the file has more reads, it goes back
+     * to the front of the queue first, so other threads can extract them in parallel.
+     * @param multiReadFile file to take read from
+     * @param inputPF pass/fail status of input directory
+     */
+    public void runExtractNextRead(MultiReadFast5File multiReadFile, int inputPF) {
+        Fast5File inputFile = multiReadFile.nextRead();
+        
+        if (multiReadFile.hasNextRead()) {
+            fileWatcher.addPendingItemFirst(new FileWatcherItem(multiReadFile, inputPF));
+        }
+        
+        if (inputFile != null) {
+            extractRead(inputFile, multiReadFile.getFilename(), inputPF);
+            multiReadFile.readDone(inputFile);
+        }
+    }
+    
+    private void extractRead(Fast5File inputFile, String fast5Pathname, int inputPF) {
+        int outputPF;
 
         for (int t=0; t<3; t++) {
             if (options.isProcessingReadType(t)) {
@@ -333,23 +474,26 @@ public class ReadProcessorRunnable implements Runnable {
                         options.getLog().println("    Mean quality " + meanQ + " output class " + (outputPF == NanoOKOptions.READTYPE_PASS ? "pass":"fail"));
                     }
                                         
-                    String fastaqPathname = getFastaqFilename(fast5Pathname, t, inputPF, outputPF);
-                    options.getLog().println("    Writing "+fastaqPathname);
+                    String fastaqPathname = getFastaqFilename(fast5Pathname, inputFile.getReadGroup(), t, inputPF, outputPF);
 
                     options.getReadFileMerger().addReadFile(fastaqPathname, t, outputPF, ff.getID(), ff.getLength(), meanQ);
 
-                    if (options.getReadFormat() == NanoOKOptions.FASTA) {
-                        ff.writeFasta(fastaqPathname, options.outputFast5Path() ? fast5Pathname:null);
-                    } else {
-                        ff.writeFastq(fastaqPathname);
+                    if (options.isWritingReadFiles()) {
+                        options.getLog().println("    Writing "+fastaqPathname);
+                        if (options.getReadFormat() == NanoOKOptions.FASTA) {
+                            ff.writeFasta(fastaqPathname, options.outputFast5Path() ? fast5Pathname:null);
+                        } else {
+                            ff.writeFastq(fastaqPathname);
+                        }
                     }
 
                     if (options.isBlastingRead()) {
                         addToBlast(fastaqPathname, t);
                     }
 
+                    // When streaming, the aligner is fed from memory rather than from the read file
                     if (options.isAligningRead()) {
-                        runAlign(fastaqPathname);
+                        runAlign(fastaqPathname, options.isStreamingAlignments() ? ff:null);
                     }
                 }
             }
@@ -365,57 +509,45 @@ public class ReadProcessorRunnable implements Runnable {
     }
     
     public void run() {
-        while (!fileWatcher.timedOut()) {
-            FileWatcherItem fwi = null; 
-            String fastaqPathname = null;
-            String alignmentPathname = null;
-            String parsedPathname = null;
-            String alignmentLogPathname = null;
-            
-            // Get next file to process
-            while ((fwi == null) && !fileWatcher.timedOut()) {
-                fwi = fileWatcher.getPendingFile();
-                if (fwi == null) {
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(ReadProcessorRunnable.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
-            }
-            
-            if (fwi != null) {
-                String nextPathname = fwi.getPathname();
-                int pf = fwi.getPassOrFail();
+        FileWatcherItem fwi; 
+        
+        // Get next file to process, waiting until one arrives or we're shut down
+        while ((fwi = fileWatcher.getPendingFile()) != null) {
+            String nextPathname = fwi.getPathname();
+            int pf = fwi.getPassOrFail();
 
-                // Check valid filename
-                if (options.isExtractingReads()) {
-                    if (nextPathname.toLowerCase().endsWith(".fast5")) {
-                        runExtract(nextPathname, pf);
-                    } else {
-                        options.getLog().println("Invalid "+nextPathname);
-                    }
-                } else if (options.isConvertingFastQ()) {
-                    if (nextPathname.toLowerCase().endsWith(".fastq")) {
-                        runConvertFastQ(nextPathname);
-                    }
-                } else if (options.isAligningRead()) {
-                    if (nextPathname.toLowerCase().endsWith(".fasta") || 
-                        nextPathname.toLowerCase().endsWith(".fastq")) {
-                        runAlign(nextPathname);
-                    }                
-                } else if (options.isParsingRead()) {
-                    if (nextPathname.toLowerCase().endsWith(options.getParser().getAlignmentFileExtension())) {
-                        alignmentPathname = nextPathname;
-                        runParse(nextPathname);
-                    }
-                } else if (options.isBlastingRead()) {               
-                    if (nextPathname.toLowerCase().endsWith(".fasta") || 
-                        nextPathname.toLowerCase().endsWith(".fastq")) {
-                        runBlast(nextPathname);
-                    }                
+            // Check valid filename
+            if (fwi.getMultiReadFile() != null) {
+                runExtractNextRead(fwi.getMultiReadFile(), pf);
+            } else if (fwi.getAlignmentBatch() != null) {
+                runAlignBatch(fwi.getAlignmentBatch());
+            } else if (options.isExtractingReads()) {
+                if (nextPathname.toLowerCase().endsWith(".fast5")) {
+                    runExtract(nextPathname, pf);
+                } else {
+                    options.getLog().println("Invalid "+nextPathname);
+                }
+            } else if (options.isConvertingFastQ()) {
+                if (nextPathname.toLowerCase().endsWith(".fastq")) {
+                    runConvertFastQ(nextPathname);
                 }
+            } else if (options.isAligningRead()) {
+                if (nextPathname.toLowerCase().endsWith(".fasta") || 
+                    nextPathname.toLowerCase().endsWith(".fastq")) {
+                    runAlign(nextPathname);
+                }                
+            } else if (options.isParsingRead()) {
+                if (nextPathname.toLowerCase().endsWith(options.getParser().getAlignmentFileExtension())) {
+                    runParse(nextPathname);
+                }
+            } else if (options.isBlastingRead()) {               
+                if (nextPathname.toLowerCase().endsWith(".fasta") || 
+                    nextPathname.toLowerCase().endsWith(".fastq")) {
+                    runBlast(nextPathname);
+                }                
             }
+            
+            fileWatcher.pendingFileDone();
         }
         
         options.getLog().println("Thread exiting");
@@ -10,6 +10,8 @@ package nanook;
 import java.io.BufferedReader;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -103,7 +105,7 @@ public class ReadSet {
         int nDirs = 0;
         int maxReads = options.getMaxReads();
         String outputFilename = options.getAnalysisDir() + File.separator + "Unaligned" + File.separator + options.getTypeFromInt(type) + "_nonaligned.txt";
-        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile(outputFilename);
+        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile(outputFilename, options.fixRandom());
         
         nFastaFiles=0;
 
@@ -198,6 +200,8 @@ public class ReadSet {
         writeProgress(queryExecutor);
         System.out.println("");
         
+        nonAlignedSummary.close();
+        stats.mergeShards();
         stats.closeLengthsFile();
         stats.calculateStats(); 
         stats.writeSummaryFile();           
@@ -216,7 +220,7 @@ public class ReadSet {
         int nDirs = 0;
         int maxReads = options.getMaxReads();
         String outputFilename = options.getAnalysisDir() + File.separator + "Unaligned" + File.separator + options.getTypeFromInt(type) + "_nonaligned.txt";
-        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile(outputFilename);
+        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile(outputFilename, options.fixRandom());
         
         nFastaFiles=0;
 
@@ -320,6 +324,8 @@ public class ReadSet {
         writeProgress(queryExecutor);
         System.out.println("");
         
+        nonAlignedSummary.close();
+        stats.mergeShards();
         stats.closeLengthsFile();
         stats.calculateStats(); 
         stats.writeSummaryFile();           
@@ -327,8 +333,199 @@ public class ReadSet {
         return nFastaFiles;
     }    
     
+    /**
+     * Gather length statistics and parse alignments from a single multi-read
+     * FASTA/FASTQ file and a single alignment file, grouping the alignments
+     * for each read as they are read, rather than from one file per read.
+     * A SAM or MAF file is split into byte ranges which are parsed in
+     * parallel. A BAM file is decoded directly, without conversion to SAM.
+     * The read file is read once for lengths before parsing, and once more
+     * afterwards to find reads with no alignment records (which LAST doesn't
+     * output) and, if counting kmers, to count kmers now that the reference
+     * for each read is known.
+     */
+    public int processReadsStreamed() throws InterruptedException {
+        String readFile = options.getStreamedReadFile();
+        String alignmentFile = options.getStreamedAlignmentFile();
+        String outputFilename = options.getAnalysisDir() + File.separator + "Unaligned" + File.separator + options.getTypeFromInt(type) + "_nonaligned.txt";
+        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile(outputFilename, options.fixRandom());
+        Hashtable<String, ReferenceSequence> readReferences = new Hashtable<String, ReferenceSequence>();
+        Set<String> seenQueries = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        int nReads = 0;
+        
+        typeString = options.getTypeFromInt(type);
+        stats.openLengthsFile();
+        
+        try {
+            FastAQStreamReader reads = new FastAQStreamReader(readFile);
+            FastAQFile read;
+            
+            System.out.println("Reading " + readFile);
+            while ((read = reads.next()) != null) {
+                stats.addLength(readFile, read.getID(), read.getLength(), read.getGC());
+                nReads++;
+            }
+            reads.close();
+        } catch (IOException e) {
+            System.out.println("");
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        
+        if (alignmentFile.endsWith(".bam")) {
+            parseBAMFile(readFile, alignmentFile, nonAlignedSummary, readReferences, seenQueries);
+        } else {
+            parseAlignmentFileChunks(readFile, alignmentFile, nonAlignedSummary, readReferences, seenQueries);
+        }
+        
+        try {
+            FastAQStreamReader reads = new FastAQStreamReader(readFile);
+            FastAQFile read;
+            boolean countKmers = options.doKmerCounting() && (readReferences.size() > 0);
+            
+            System.out.println(countKmers ? "Counting kmers in " + readFile : "Checking for unaligned reads in " + readFile);
+            while ((read = reads.next()) != null) {
+                if (!seenQueries.contains(read.getID())) {
+                    nonAlignedSummary.writeNoAlignmentMessage(read.getID());
+                    stats.addReadWithoutAlignment();
+                } else if (countKmers) {
+                    ReferenceSequence readReference = readReferences.remove(read.getID());
+                    if (readReference != null) {
+                        readReference.getStatsByType(type).getReadKmerTable().countKmers(read.getSequence());
+                    }
+                }
+            }
+            reads.close();
+        } catch (IOException e) {
+            System.out.println("");
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        
+        nonAlignedSummary.close();
+        stats.mergeShards();
+        stats.closeLengthsFile();
+        stats.calculateStats(); 
+        stats.writeSummaryFile();           
+        
+        return nReads;
+    }
+    
+    /**
+     * Parse a SAM or MAF file from processReadsStreamed, splitting it into
+     * byte ranges which are parsed in parallel.
+     */
+    private void parseAlignmentFileChunks(String readFile, String alignmentFile, AlignmentsTableFile nonAlignedSummary, Hashtable<String, ReferenceSequence> readReferences, Set<String> seenQueries) throws InterruptedException {
+        // Split alignment file into ranges, to parse on separate threads
+        long fileSize = new File(alignmentFile).length();
+        int nChunks = (int)Math.max(1, Math.min((long)options.getNumberOfThreads() * 4, fileSize / AlignmentChunkParser.MIN_CHUNK_SIZE));
+        ArrayList<AlignmentChunkParser> chunks = new ArrayList<AlignmentChunkParser>();
+        
+        System.out.println("Parsing " + alignmentFile + " in " + nChunks + " chunks");
+        for (int i=0; i<nChunks; i++) {
+            long start = fileSize * i / nChunks;
+            long end = (i == nChunks - 1) ? Long.MAX_VALUE : fileSize * (i + 1) / nChunks;
+            AlignmentChunkParser chunk = new AlignmentChunkParser(options, stats, readFile, alignmentFile, start, end, type, nonAlignedSummary, readReferences, seenQueries);
+            chunks.add(chunk);
+            queryExecutor.execute(chunk);
+            writeProgress(queryExecutor);
+        }
+        
+        // That's all - wait for all threads to finish
+        queryExecutor.shutdown();
+        while (!queryExecutor.isTerminated()) {
+            writeProgress(queryExecutor);
+            Thread.sleep(100);
+        }        
+
+        writeProgress(queryExecutor);
+        System.out.println("");
+        
+        // Reads at the edges of ranges may have alignments in more than one range, so join these up
+        String edgeQuery = null;
+        ArrayList<String> edgeGroup = null;
+        for (int i=0; i<chunks.size(); i++) {
+            ArrayList<String> queries = chunks.get(i).getEdgeQueries();
+            ArrayList<ArrayList<String>> groups = chunks.get(i).getEdgeGroups();
+            for (int j=0; j<queries.size(); j++) {
+                if ((edgeGroup != null) && edgeQuery.equals(queries.get(j))) {
+                    edgeGroup.addAll(groups.get(j));
+                } else {
+                    if (edgeGroup != null) {
+                        chunks.get(0).parseGroup(edgeQuery, edgeGroup);
+                    }
+                    edgeQuery = queries.get(j);
+                    edgeGroup = groups.get(j);
+                }
+            }
+        }
+        
+        if (edgeGroup != null) {
+            chunks.get(0).parseGroup(edgeQuery, edgeGroup);
+        }
+    }
+    
+    /**
+     * Parse a BAM file from processReadsStreamed. BGZF blocks are decompressed
+     * in parallel by the reader, and each read's records are parsed on the
+     * thread pool.
+     */
+    private void parseBAMFile(String readFile, String alignmentFile, AlignmentsTableFile nonAlignedSummary, Hashtable<String, ReferenceSequence> readReferences, Set<String> seenQueries) throws InterruptedException {
+        int nThreads = options.getNumberOfThreads();
+        
+        // Bounded queue, so reading doesn't get too far ahead of parsing
+        ThreadPoolExecutor bamExecutor = new ThreadPoolExecutor(nThreads, nThreads, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(nThreads * 100), new ThreadPoolExecutor.CallerRunsPolicy());
+        
+        if (!(options.getParser() instanceof SAMParser)) {
+            System.out.println("Error: BAM files can only be read for aligners which output SAM");
+            System.exit(1);
+        }
+        
+        System.out.println("Parsing " + alignmentFile);
+        try {
+            BAMFileReader bam = new BAMFileReader(alignmentFile, nThreads);
+            BAMRecord record = bam.next();
+            
+            while (record != null) {
+                String query = record.getReadName();
+                ArrayList<BAMRecord> group = new ArrayList<BAMRecord>();
+                
+                while ((record != null) && record.getReadName().equals(query)) {
+                    group.add(record);
+                    record = bam.next();
+                }
+                
+                if (!seenQueries.add(query)) {
+                    System.out.println("");
+                    System.out.println("Error: Alignments for read "+query+" aren't together in "+alignmentFile+" - sort it by read name first");
+                    System.exit(1);
+                }
+                
+                bamExecutor.execute(new ParserRunnable(options, stats, readFile, alignmentFile, query, group, type, NanoOKOptions.READTYPE_COMBINED, nonAlignedSummary, readReferences));
+                writeProgress(bamExecutor);
+            }
+            
+            bam.close();
+        } catch (IOException e) {
+            System.out.println("");
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        
+        bamExecutor.shutdown();
+        while (!bamExecutor.isTerminated()) {
+            writeProgress(bamExecutor);
+            Thread.sleep(100);
+        }        
+
+        writeProgress(bamExecutor);
+        System.out.println("");
+    }
+    
     public int processReads() throws InterruptedException {
-        if (options.usingBatchDirs()) {
+        if (options.getStreamedReadFile() != null) {
+            return processReadsStreamed();
+        } else if (options.usingBatchDirs()) {
             return processReadsBatch();
         } else {
             return processReadsOld();
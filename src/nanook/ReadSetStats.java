@@ -13,7 +13,6 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.Map;
 
 /**
@@ -24,28 +23,19 @@ import java.util.Map;
 public class ReadSetStats implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private NanoOKOptions options;
-    private transient PrintWriter pwLengths = null;
-    private transient PrintWriter pwKmers = null;
+    private transient TableWriter lengthsWriter = null;
+    private transient TableWriter kmersWriter = null;
     private String typeString = "";
-    private int longest = 0;
-    private int shortest = NanoOKOptions.MAX_READ_LENGTH;
     private long basesSum = 0;
-    private double meanLength = 0;
-    private int n50 = 0;
-    private int n50Count = 0;
-    private int n90 = 0;
-    private int n90Count = 0;
-    private int[] lengths = new int[NanoOKOptions.MAX_READ_LENGTH];
-    private Hashtable<String,Integer> readLengths = new Hashtable();
-    private Hashtable<String,Double> readGC = new Hashtable();
+    private ReadLengthHistogram lengths = new ReadLengthHistogram();
+    private ReadIndex readIndex = new ReadIndex();
     private int nReads = 0;
     private int nReadFiles = 0;
     private int nPassFiles = 0;
     private int nFailFiles = 0;
     private int nReadsWithAlignments = 0;
     private int nReadsWithoutAlignments = 0;
-    private int[] readBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
-    private int[] readCumulativeBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
+    private IntHistogram readBestPerfectKmer = new IntHistogram();
     private MotifStatistics motifStats = new MotifStatistics();
     private int substitutionErrors[][] = new int[4][4];
     private int nSubstitutions = 0;
@@ -54,6 +44,8 @@ public class ReadSetStats implements Serializable {
     private int ignoredDuplicates = 0;
     private int type;
     private int longestAlignmentSize = 0;
+    private transient volatile ThreadLocal<StatsShard> shardForThread = null;
+    private transient ArrayList<StatsShard> shards = null;
    
     /**
      * Constructor
@@ -64,10 +56,6 @@ public class ReadSetStats implements Serializable {
         options=o;
         type = t;
         typeString = NanoOKOptions.getTypeFromInt(type);
-        for (int i=0; i<NanoOKOptions.MAX_KMER; i++) {
-            readBestPerfectKmer[i] = 0;
-            readCumulativeBestPerfectKmer[i] = 0;
-        }
     }
 
     /**
@@ -80,57 +68,29 @@ public class ReadSetStats implements Serializable {
         options.getLog().println("Opening "+lengthsFilename);
         options.getLog().println("Opening "+kmersFilename);
         
-        try {
-            pwLengths = new PrintWriter(new FileWriter(lengthsFilename)); 
-            pwKmers = new PrintWriter(new FileWriter(kmersFilename));
-            pwKmers.write("Id\tLength\tnk15\tnk17\tnk19\tnk21\tnk23\tnk25");
-            pwKmers.println("");
-        } catch (IOException e) {
-            System.out.println("openLengthsFile exception:");
-            e.printStackTrace();
-            System.exit(1);
-        }        
+        lengthsWriter = new TableWriter(lengthsFilename, null, options.fixRandom());
+        kmersWriter = new TableWriter(kmersFilename, "Id\tLength\tnk15\tnk17\tnk19\tnk21\tnk23\tnk25", options.fixRandom());
     }
     
     /**
      * Close the read lengths file.
      */
     public void closeLengthsFile() {
-        pwLengths.close();
+        lengthsWriter.close();
     }
     
     /**
      * Close the kmers file
      */
     public void closeKmersFile() {
-        pwKmers.close();
+        kmersWriter.close();
     }
 
     /**
      * Calculate various statistics, e.g. N50 etc.
      */
     public void calculateStats() {
-        int total = 0;
-        int c = 0;
-                
-        meanLength = (double)basesSum / (double)nReads;        
-        
-        for (int i=longest; i>0; i--) {
-            for (int j=0; j<lengths[i]; j++) {
-                total += i;
-                c++;
-                
-                if ((n50 == 0) && ((double)total >= ((double)basesSum * 0.5))) {
-                    n50 = i;
-                    n50Count = c;
-                }
-
-                if ((n90 == 0) && ((double)total >= ((double)basesSum * 0.9))) {
-                    n90 = i;
-                    n90Count = c;
-                }        
-            }
-        }
+        lengths.calculateStats();
         
         // calculate the longest alignment size in the whole set
         int longest = 0;
@@ -196,7 +156,7 @@ public class ReadSetStats implements Serializable {
      * @return length
      */
     public synchronized double getMeanLength() {
-        return meanLength;
+        return lengths.getMeanLength();
     }
     
     /**
@@ -204,7 +164,7 @@ public class ReadSetStats implements Serializable {
      * @return length
      */
     public synchronized int getLongest() {
-        return longest;
+        return lengths.getLongest();
     }
     
     /**
@@ -212,7 +172,7 @@ public class ReadSetStats implements Serializable {
      * @return length
      */
     public synchronized int getShortest() {
-        return shortest;
+        return lengths.getShortest();
     }
     
     /**
@@ -220,7 +180,7 @@ public class ReadSetStats implements Serializable {
      * @return N50 length
      */
     public synchronized int getN50() {
-        return n50;
+        return lengths.getN50();
     }
     
     /**
@@ -228,7 +188,7 @@ public class ReadSetStats implements Serializable {
      * @return count
      */
     public synchronized int getN50Count() {
-        return n50Count;
+        return lengths.getN50Count();
     }
     
     /**
@@ -236,7 +196,7 @@ public class ReadSetStats implements Serializable {
      * @return N90 length
      */
     public synchronized int getN90() {
-        return n90;
+        return lengths.getN90();
     }
     
     /**
@@ -244,7 +204,7 @@ public class ReadSetStats implements Serializable {
      * @return count
      */
     public synchronized int getN90Count() {
-        return n90Count;
+        return lengths.getN90Count();
     }
     
     /**
@@ -274,7 +234,8 @@ public class ReadSetStats implements Serializable {
     private String getPrefix(String path) {
         String leafname = new File(path).getName();
         leafname.replaceAll(":", "_");
-        return leafname.substring(0, leafname.indexOf(".fa"));
+        int extension = leafname.indexOf(".fa");
+        return extension > 0 ? leafname.substring(0, extension) : leafname;
     }
     
     /**
@@ -283,51 +244,27 @@ public class ReadSetStats implements Serializable {
      * @param l length
      */
     public synchronized void addLength(String readPath, String id, int l, double gc) {
-        pwLengths.println(id + "\t" + l);
-        id = getPrefix(readPath) + ":"+id;
+        lengthsWriter.writeRow(id + "\t" + l);
+        String prefix = getPrefix(readPath);
 
-        if (readLengths.containsKey(id)) {
-            System.out.println("Error: Read ID "+id+" already seen. This occurrance ignored.");
+        if (!readIndex.add(ReadIndex.getKey(prefix, id), l, gc)) {
+            System.out.println("Error: Read ID "+prefix+":"+id+" already seen. This occurrance ignored.");
             ignoredDuplicates++;
-        } else {
-            readLengths.put(id, l);
-            readGC.put(id, gc);
-        }                
+        }
         
-        if (l < NanoOKOptions.MAX_READ_LENGTH) {
-            lengths[l]++;
-            if (l > longest) {
-                longest = l;
-            }
-
-            if (l < shortest) {
-                shortest = l;
-            }
-        } else {
-            System.out.println("Error: unexpectedly long ("+l+") read ignored - "+readPath);
-        }                
-
+        lengths.add(l);
         basesSum += l;
         nReads++;
     }    
         
     /**
-     * Get length of read
+     * Get length of read. Not synchronized, as ReadIndex lookups are safe
+     * alongside adds.
      * @param id of read
-     * @return length, in bases
+     * @return length, in bases, or -1 if not found
      */
-    public synchronized int getReadLength(String alignmentFile, String id) {
-        int length = -1;
-
-        id = getPrefix(alignmentFile) + ":"+id;
-
-        Integer l = readLengths.get(id);
-        
-        if (l != null) {
-            length = l.intValue();
-        }
-        
-        return length;
+    public int getReadLength(String alignmentFile, String id) {
+        return readIndex.getLength(ReadIndex.getKey(getPrefix(alignmentFile), id));
     }
 
     /**
@@ -335,14 +272,10 @@ public class ReadSetStats implements Serializable {
      * @param id of read
      * @return GC percent
      */
-    public synchronized double getGC(String alignmentFile, String id) {
-        double gc = -1;
-
-        id = getPrefix(alignmentFile) + ":"+id;
-        
-        Double g = readGC.get(id);
+    public double getGC(String alignmentFile, String id) {
+        double g = readIndex.getGC(ReadIndex.getKey(getPrefix(alignmentFile), id));
         
-        if (g == null) {
+        if (g < 0) {
             g = 50.0;
             System.out.println("Warning: couldn't get GC from " + alignmentFile + " - assumed 50%");
         }
@@ -379,11 +312,7 @@ public class ReadSetStats implements Serializable {
             System.exit(1);
         }
         
-        readBestPerfectKmer[bestKmer]++;
-        
-        for (int i=0; i<bestKmer; i++) {
-            readCumulativeBestPerfectKmer[i]++;
-        }
+        readBestPerfectKmer.add(bestKmer);
     }
         
     /**
@@ -490,25 +419,13 @@ public class ReadSetStats implements Serializable {
      * @param subChar substituted base
      */
     public synchronized void addSubstitutionError(String kmer, char refChar, char subChar) {
-        int r = -1;
-        int s = -1;
+        int r = getBaseIndex(refChar);
+        int s = getBaseIndex(subChar);
         
         motifStats.addSubstitutionMotifs(kmer);
         
-        switch(refChar) {
-            case 'A': r=0; break;
-            case 'C': r=1; break;
-            case 'G': r=2; break;
-            case 'T': r=3; break;
-            default: break; //System.out.println("Warning: Unknown base ("+refChar+") in reference"); break;
-        }
-
-        switch(subChar) {
-            case 'A': s=0; break;
-            case 'C': s=1; break;
-            case 'G': s=2; break;
-            case 'T': s=3; break;
-            default: System.out.println("Warning: Unknown base ("+refChar+") in read"); break;
+        if (s < 0) {
+            System.out.println("Warning: Unknown base ("+refChar+") in read");
         }
            
         if ((r >= 0) && (s >= 0)) {
@@ -517,6 +434,110 @@ public class ReadSetStats implements Serializable {
         }
     }
     
+    /**
+     * Get index of base in substitution matrix.
+     * @param c base
+     * @return index (A=0, C=1, G=2, T=3) or -1 if not a base
+     */
+    public static int getBaseIndex(char c) {
+        switch(c) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return -1;
+        }
+    }
+    
+    /**
+     * Get the stats shard for the calling thread, creating it if necessary.
+     * Parser threads count errors into their own shard without locking.
+     * @return shard for this thread
+     */
+    public StatsShard getShardForCurrentThread() {
+        ThreadLocal<StatsShard> local = shardForThread;
+        StatsShard s = local == null ? null:local.get();
+        
+        if (s == null) {
+            s = addShardForCurrentThread();
+        }
+        
+        return s;
+    }
+    
+    /**
+     * Create a shard for the calling thread and register it for merging. Only
+     * called the first time a thread asks for a shard.
+     * @return new shard
+     */
+    private synchronized StatsShard addShardForCurrentThread() {
+        if (shardForThread == null) {
+            shardForThread = new ThreadLocal<StatsShard>();
+            shards = new ArrayList<StatsShard>();
+        }
+        
+        StatsShard s = new StatsShard();
+        shardForThread.set(s);
+        shards.add(s);
+        
+        return s;
+    }
+    
+    /**
+     * Merge all thread shards into this object and the reference stats. Must
+     * only be called once parsing threads have finished. All counts are sums or
+     * maxima and motifs are merged in sorted order, so the result is the same
+     * whichever thread parsed which read.
+     */
+    public synchronized void mergeShards() {
+        ArrayList<MotifStatistics> shardMotifs = new ArrayList<MotifStatistics>();
+        
+        if (shards == null) {
+            return;
+        }
+        
+        for (int i=0; i<shards.size(); i++) {
+            StatsShard s = shards.get(i);
+            
+            for (int r=0; r<4; r++) {
+                for (int c=0; c<4; c++) {
+                    substitutionErrors[r][c] += s.substitutionErrors[r][c];
+                }
+            }
+            
+            readBestPerfectKmer.add(s.readBestPerfectKmer);
+            
+            nSubstitutions += s.nSubstitutions;
+            nInsertions += s.nInsertions;
+            nDeletions += s.nDeletions;
+            nReadsWithAlignments += s.nReadsWithAlignments;
+            shardMotifs.add(s.motifStats);
+        }
+        
+        motifStats.addAll(shardMotifs);
+        
+        ArrayList<ReferenceSequence> sortedRefs = options.getReferences().getSortedReferences();
+        for (int i=0; i<sortedRefs.size(); i++) {
+            ReferenceSequence r = sortedRefs.get(i);
+            ArrayList<ReferenceStatsShard> refShards = new ArrayList<ReferenceStatsShard>();
+            
+            for (int j=0; j<shards.size(); j++) {
+                ReferenceStatsShard rs = shards.get(j).referenceShards.get(r.getId());
+                if (rs != null) {
+                    refShards.add(rs);
+                }
+            }
+            
+            if (refShards.size() > 0) {
+                r.getStatsByType(type).mergeShards(refShards);
+            }
+        }
+        
+        // Drop the thread local too, so threads get fresh shards if parsing happens again
+        shards = null;
+        shardForThread = null;
+    }
+    
     /**
      * Get substitution error matrix (A, C, G, T vs A, C, G, T).
      * @return Substitution error matrix
@@ -548,12 +569,15 @@ public class ReadSetStats implements Serializable {
         return motifStats;
     }
     
-    public synchronized void writekCounts(String id, int length, int nk, int[] s, int[] kCounts) {            
-        pwKmers.print(id+"\t"+Integer.toString(length));
+    public void writekCounts(String id, int length, int nk, int[] s, int[] kCounts) {            
+        StringBuilder sb = new StringBuilder(id);
+        sb.append('\t');
+        sb.append(length);
         for (int i=0; i<nk; i++) {
-            pwKmers.print("\t"+Integer.toString(kCounts[i]));
+            sb.append('\t');
+            sb.append(kCounts[i]);
         }
-        pwKmers.println("");
+        kmersWriter.writeRow(sb.toString());
     }
     
     /**
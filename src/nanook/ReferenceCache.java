@@ -0,0 +1,358 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes, GC bins and kmer counts for each sequence in a reference, kept in
+ * a binary file alongside the reference so they only need to be worked out
+ * once. The cache records an MD5 of the reference FASTA, along with its size
+ * and modification time. If size and time match, the cache is used without
+ * reading the reference. If only the time differs, the MD5 is checked again.
+ * A change of format or kmer size also makes the cache stale.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceCache {
+    public final static int CACHE_VERSION = 1;
+    public final static int KMER_SIZE = 5;
+    private final static String MAGIC = "NanoOKReferenceCache";
+    private String referenceFile;
+    private long fileLength = 0;
+    private long lastModified = 0;
+    private String contentHash = null;
+    private String[] ids;
+    private int[] lengths;
+    private int[][] gcCounts;
+    private int[][] kmerCodes;
+    private long[][] kmerCounts;
+    private HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+
+    /**
+     * Constructor
+     * @param f reference FASTA filename
+     * @param n number of sequences
+     */
+    private ReferenceCache(String f, int n) {
+        referenceFile = f;
+        ids = new String[n];
+        lengths = new int[n];
+        gcCounts = new int[n][];
+        kmerCodes = new int[n][];
+        kmerCounts = new long[n][];
+    }
+
+    /**
+     * Get cache filename for a reference
+     * @param f reference FASTA filename
+     * @return cache filename
+     */
+    public static String getCacheFilename(String f) {
+        return f + ".nanook";
+    }
+
+    /**
+     * Get MD5 of a file's contents
+     * @param f filename
+     * @return hex digest
+     */
+    public static String getContentHash(String f) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            InputStream is = new FileInputStream(f);
+            byte[] buffer = new byte[1024 * 1024];
+            int n;
+
+            while ((n = is.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+            is.close();
+
+            StringBuilder sb = new StringBuilder();
+            byte[] digest = md.digest();
+            for (int i=0; i<digest.length; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+
+            return sb.toString();
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Work out cached values for all sequences in a reference, a thread per
+     * sequence.
+     * @param store reference sequences
+     * @param f reference FASTA filename
+     * @param nThreads number of threads
+     * @return cache
+     */
+    public static ReferenceCache build(ReferenceSequenceStore store, String f, int nThreads) {
+        List<String> storeIds = store.getIds();
+        ReferenceCache cache = new ReferenceCache(f, storeIds.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nThreads));
+
+        for (int i=0; i<storeIds.size(); i++) {
+            String id = storeIds.get(i);
+            cache.ids[i] = id;
+            cache.lengths[i] = store.getLength(id);
+            cache.indexes.put(id, i);
+            executor.execute(new ReferenceCacheRunnable(cache, i, store.getSequence(id)));
+        }
+
+        executor.shutdown();
+
+        try {
+            File file = new File(f);
+            cache.fileLength = file.length();
+            cache.lastModified = file.lastModified();
+            cache.contentHash = getContentHash(f);
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (Exception e) {
+            System.out.println("ReferenceCache exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        return cache;
+    }
+
+    /**
+     * Store values for a sequence - called by ReferenceCacheRunnable. Only
+     * kmers that occur are kept, as most sequences in a large reference
+     * will never be looked at again.
+     * @param i sequence index
+     * @param gc number of G/C bases in each bin
+     * @param kmers kmer counts
+     */
+    void setSequenceData(int i, int[] gc, long[] kmers) {
+        int nKmers = 0;
+
+        for (int j=0; j<kmers.length; j++) {
+            if (kmers[j] != 0) {
+                nKmers++;
+            }
+        }
+
+        gcCounts[i] = gc;
+        kmerCodes[i] = new int[nKmers];
+        kmerCounts[i] = new long[nKmers];
+
+        nKmers = 0;
+        for (int j=0; j<kmers.length; j++) {
+            if (kmers[j] != 0) {
+                kmerCodes[i][nKmers] = j;
+                kmerCounts[i][nKmers++] = kmers[j];
+            }
+        }
+    }
+
+    /**
+     * Read cache for a reference, if there is one and it's up to date
+     * @param f reference FASTA filename
+     * @return cache, or null
+     */
+    public static ReferenceCache load(String f) {
+        File cacheFile = new File(getCacheFilename(f));
+        File file = new File(f);
+        ReferenceCache cache = null;
+
+        if (!cacheFile.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1024 * 1024));
+
+            if ((!in.readUTF().equals(MAGIC)) || (in.readInt() != CACHE_VERSION) || (in.readInt() != KMER_SIZE)) {
+                in.close();
+                return null;
+            }
+
+            long cachedLength = in.readLong();
+            long cachedModified = in.readLong();
+            String cachedHash = in.readUTF();
+
+            if (cachedLength != file.length()) {
+                in.close();
+                return null;
+            }
+
+            int n = in.readInt();
+            cache = new ReferenceCache(f, n);
+            cache.fileLength = cachedLength;
+            cache.lastModified = cachedModified;
+            cache.contentHash = cachedHash;
+
+            for (int i=0; i<n; i++) {
+                cache.ids[i] = in.readUTF();
+                cache.lengths[i] = in.readInt();
+                cache.indexes.put(cache.ids[i], i);
+
+                int[] gc = new int[in.readInt()];
+                for (int j=0; j<gc.length; j++) {
+                    gc[j] = in.readInt();
+                }
+
+                int nKmers = in.readInt();
+                int[] codes = new int[nKmers];
+                long[] counts = new long[nKmers];
+                for (int j=0; j<nKmers; j++) {
+                    codes[j] = in.readInt();
+                    counts[j] = in.readLong();
+                }
+
+                cache.gcCounts[i] = gc;
+                cache.kmerCodes[i] = codes;
+                cache.kmerCounts[i] = counts;
+            }
+
+            in.close();
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't read reference cache " + cacheFile.getPath() + " - rebuilding");
+            return null;
+        }
+
+        // File touched, but may be the same
+        if (cache.lastModified != file.lastModified()) {
+            try {
+                if (!getContentHash(f).equals(cache.contentHash)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                System.out.println("ReferenceCache exception:");
+                e.printStackTrace();
+                System.exit(1);
+            }
+
+            cache.lastModified = file.lastModified();
+            cache.save();
+        }
+
+        return cache;
+    }
+
+    /**
+     * Write cache file. Written to a temporary file first, so that an
+     * interrupted write can't leave a damaged cache.
+     */
+    public void save() {
+        File cacheFile = new File(getCacheFilename(referenceFile));
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1024 * 1024));
+
+            out.writeUTF(MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(KMER_SIZE);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeUTF(contentHash);
+            out.writeInt(ids.length);
+
+            for (int i=0; i<ids.length; i++) {
+                out.writeUTF(ids[i]);
+                out.writeInt(lengths[i]);
+
+                out.writeInt(gcCounts[i].length);
+                for (int j=0; j<gcCounts[i].length; j++) {
+                    out.writeInt(gcCounts[i][j]);
+                }
+
+                out.writeInt(kmerCodes[i].length);
+                for (int j=0; j<kmerCodes[i].length; j++) {
+                    out.writeInt(kmerCodes[i][j]);
+                    out.writeLong(kmerCounts[i][j]);
+                }
+            }
+
+            out.close();
+
+            cacheFile.delete();
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("Can't rename " + tempFile.getPath());
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't write reference cache " + cacheFile.getPath() + " - " + e.getMessage());
+            tempFile.delete();
+        }
+    }
+
+    public int getNumberOfSequences() {
+        return ids.length;
+    }
+
+    public String getId(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Get index of a sequence from its ID
+     * @param id sequence ID
+     * @return index, or -1 if not in reference
+     */
+    public int getIndex(String id) {
+        Integer i = indexes.get(id);
+        return i == null ? -1 : i;
+    }
+
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * Get length of a sequence from its ID
+     * @param id sequence ID
+     * @return length, or -1 if not in reference
+     */
+    public int getLength(String id) {
+        Integer i = indexes.get(id);
+        return i == null ? -1 : lengths[i];
+    }
+
+    /**
+     * Get number of G/C bases in each bin, for writing with GCCounter
+     * @param i sequence index
+     * @return counts
+     */
+    public int[] getGCCounts(int i) {
+        return gcCounts[i];
+    }
+
+    /**
+     * Get kmer counts, for KmerTable.addCounts
+     * @param i sequence index
+     * @return counts
+     */
+    public long[] getKmerCounts(int i) {
+        long[] kmers = new long[1 << (2 * KMER_SIZE)];
+
+        for (int j=0; j<kmerCodes[i].length; j++) {
+            kmers[kmerCodes[i][j]] = kmerCounts[i][j];
+        }
+
+        return kmers;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Works out GC bins and kmer counts for one reference sequence, for
+ * ReferenceCache.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceCacheRunnable implements Runnable {
+    private ReferenceCache cache;
+    private int index;
+    private ReferenceSubSequence sequence;
+
+    /**
+     * Constructor
+     * @param c cache to store results in
+     * @param i index of sequence in cache
+     * @param s sequence
+     */
+    public ReferenceCacheRunnable(ReferenceCache c, int i, ReferenceSubSequence s) {
+        cache = c;
+        index = i;
+        sequence = s;
+    }
+
+    /**
+     * Entry point to thread
+     */
+    public void run() {
+        GCCounter gcc = new GCCounter(ReferenceSequence.calculateBinSize(sequence.length()));
+        KmerTable kmers = new KmerTable(ReferenceCache.KMER_SIZE);
+
+        gcc.addString(sequence);
+        kmers.countKmers(sequence);
+
+        cache.setSequenceData(index, gcc.getGCCounts(), kmers.getCounts());
+    }
+}
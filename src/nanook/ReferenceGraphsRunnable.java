@@ -0,0 +1,231 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.awt.Color;
+import java.io.File;
+
+/**
+ * Plots graphs for one reference and type, for JavaGraphPlotter. With type
+ * TYPE_ALL, plots the reference GC graph.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceGraphsRunnable implements Runnable {
+    private NanoOKOptions options;
+    private String refName;
+    private int type;
+    private String format;
+    private String analysisPrefix;
+    private String graphPrefix;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param r reference name
+     * @param t type, or TYPE_ALL
+     */
+    public ReferenceGraphsRunnable(NanoOKOptions o, String r, int t) {
+        options = o;
+        refName = r;
+        type = t;
+        format = options.getImageFormat();
+        analysisPrefix = options.getAnalysisDir() + File.separator + refName + File.separator + refName;
+        graphPrefix = options.getGraphsDir() + File.separator + refName + File.separator + refName;
+    }
+
+    /**
+     * Plot GC content along reference
+     */
+    private void plotGC() {
+        DataTable gc = DataTable.read(analysisPrefix + "_gc.txt", false);
+
+        if ((gc != null) && (gc.getNumberOfRows() > 1)) {
+            Chart c = JavaGraphPlotter.makeChart(1600, 400, "GC content", "Position", "GC %");
+            c.setYRange(0, 100);
+            c.addLine(gc.getColumn(0), gc.getColumn(1), Color.BLACK);
+            c.save(graphPrefix + "_gc", format);
+        }
+    }
+
+    /**
+     * Work out x axis limit for perfect kmer graphs, from all types - the
+     * largest kmer size with more than 5% of reads, rounded up to a multiple
+     * of 10. Also the largest kmer size, plus 10.
+     * @return maximum kmer for graphs, maximum kmer
+     */
+    private int[] getKmerLimits() {
+        int cumMaxk = 0;
+        int maxk = 0;
+
+        for (int t=0; t<3; t++) {
+            DataTable cumulative = DataTable.read(analysisPrefix + "_" + NanoOKOptions.getTypeFromInt(t) + "_cumulative_perfect_kmers.txt", false);
+            if (cumulative != null) {
+                double[] size = cumulative.getColumn(0);
+                double[] perfect = cumulative.getColumn(2);
+                for (int i=0; i<size.length; i++) {
+                    maxk = Math.max(maxk, (int)size[i]);
+                    if (perfect[i] > 5) {
+                        cumMaxk = Math.max(cumMaxk, (int)size[i]);
+                    }
+                }
+            }
+        }
+
+        int[] limits = {10 * ((cumMaxk + 9) / 10), maxk + 10};
+
+        return limits;
+    }
+
+    /**
+     * Plot graph of two columns of the alignments table
+     * @param alignments alignments table
+     * @param xColumn column for x
+     * @param yColumn column for y
+     * @param xLabel x axis label
+     * @param yLabel y axis label
+     * @param xMax maximum x, or 0 for none
+     * @param yMax maximum y, or 0 for none
+     * @param name graph name
+     */
+    private void plotScatter(DataTable alignments, String xColumn, String yColumn, String xLabel, String yLabel, double xMax, double yMax, String name) {
+        Chart c = JavaGraphPlotter.makeChart(1200, 800, NanoOKOptions.getTypeFromInt(type), xLabel, yLabel);
+
+        if (xMax > 0) {
+            c.setXRange(0, xMax);
+        }
+
+        if (yMax > 0) {
+            c.setYRange(0, yMax);
+        }
+
+        c.addPoints(alignments.getColumn(xColumn), alignments.getColumn(yColumn), JavaGraphPlotter.getTypeColour(type));
+        c.save(graphPrefix + "_" + NanoOKOptions.getTypeFromInt(type) + "_" + name, format);
+    }
+
+    /**
+     * Plot bar graph of a two column analysis file
+     * @param suffix file suffix and graph name
+     * @param xColumn column for x
+     * @param yColumn column for y
+     * @param barWidth bar width
+     * @param xLabel x axis label
+     * @param yLabel y axis label
+     * @param xMax maximum x, or 0 for none
+     */
+    private void plotBars(String suffix, int xColumn, int yColumn, double barWidth, String xLabel, String yLabel, int xMax) {
+        String typeString = NanoOKOptions.getTypeFromInt(type);
+        DataTable data = DataTable.read(analysisPrefix + "_" + typeString + "_" + suffix + ".txt", false);
+
+        if ((data != null) && (data.getNumberOfRows() > 0)) {
+            Chart c = JavaGraphPlotter.makeChart(1200, 800, typeString, xLabel, yLabel);
+            if (xMax > 0) {
+                c.setXRange(0, xMax);
+                c.setXStep(50);
+            }
+            c.addBars(data.getColumn(xColumn), data.getColumn(yColumn), barWidth, JavaGraphPlotter.getTypeColour(type));
+            c.save(graphPrefix + "_" + typeString + "_" + suffix, format);
+        }
+    }
+
+    /**
+     * Plot graphs for one type
+     */
+    private void plotType() {
+        String typeString = NanoOKOptions.getTypeFromInt(type);
+        Color colour = JavaGraphPlotter.getTypeColour(type);
+        int[] kmerLimits = getKmerLimits();
+
+        // Coverage vs position
+        DataTable coverage = DataTable.read(analysisPrefix + "_" + typeString + "_coverage.txt", false);
+        if ((coverage != null) && (coverage.getNumberOfRows() > 0)) {
+            Chart c = JavaGraphPlotter.makeChart(1600, 400, typeString, "Position", "Mean coverage");
+            c.addLine(coverage.getColumn(0), coverage.getColumn(1), colour);
+            c.save(graphPrefix + "_" + typeString + "_coverage", format);
+        }
+
+        // % reads with perfect kmer vs kmer size, and indel sizes
+        plotBars("cumulative_perfect_kmers", 0, 2, 0.7, "kmer size", "% reads with perfect kmer", kmerLimits[0]);
+        plotBars("insertions", 0, 1, 0.9, "Insertion size", "%", 0);
+        plotBars("deletions", 0, 1, 0.9, "Deletion size", "%", 0);
+
+        // Graphs from alignments table
+        DataTable alignments = DataTable.read(analysisPrefix + "_" + typeString + "_alignments.txt", true);
+        if ((alignments != null) && (alignments.getNumberOfRows() > 1)) {
+            double[] identity = alignments.getColumn("QueryPercentIdentity");
+            double minIdentity = 100;
+            double maxIdentity = 0;
+            for (int i=0; i<identity.length; i++) {
+                minIdentity = Math.min(minIdentity, identity[i]);
+                maxIdentity = Math.max(maxIdentity, identity[i]);
+            }
+
+            double binWidth = maxIdentity > minIdentity ? (maxIdentity - minIdentity) / 29 : 1;
+            double[][] h = JavaGraphPlotter.histogram(identity, minIdentity - (binWidth / 2), binWidth, 30);
+            Chart c = JavaGraphPlotter.makeChart(1200, 800, typeString, "Read identity %", "Count");
+            c.addBars(h[0], h[1], binWidth, colour);
+            c.save(graphPrefix + "_" + typeString + "_length_vs_identity_hist", format);
+
+            h = JavaGraphPlotter.histogram(alignments.getColumn("QueryGC"), -0.5, 1, 101);
+            c = JavaGraphPlotter.makeChart(1200, 800, typeString, "GC %", "Read count");
+            c.setXRange(0, 100);
+            c.addBars(h[0], h[1], 1, colour);
+            c.save(graphPrefix + "_" + typeString + "_GC_hist", format);
+
+            plotScatter(alignments, "QueryLength", "QueryPercentIdentity", "Length", "Read identity %", 0, 100, "length_vs_identity_scatter");
+            plotScatter(alignments, "PercentQueryAligned", "AlignmentPercentIdentity", "Percentage of read aligned", "Alignment identity %", 105, 100, "read_fraction_vs_alignment_identity_scatter");
+            plotScatter(alignments, "PercentQueryAligned", "QueryPercentIdentity", "Percentage of read aligned", "Read identity %", 105, 100, "read_fraction_vs_query_identity_scatter");
+            plotScatter(alignments, "QueryLength", "LongestPerfectKmer", "Read length", "Longest perfect kmer", 0, 0, "longest_perfect_vs_length_scatter");
+            plotScatter(alignments, "QueryLength", "LongestPerfectKmer", "Read length", "Longest perfect kmer", 10000, 0, "longest_perfect_vs_length_zoom_scatter");
+            plotScatter(alignments, "QueryLength", "nk21", "Read length", "Number of perfect 21mers", 0, 0, "nk21_vs_length_scatter");
+            plotScatter(alignments, "QueryLength", "PercentQueryAligned", "Read length", "Percentage of read aligned", 0, 0, "percent_aligned_vs_length_scatter");
+
+            // % reads vs best perfect kmer, in bins of 10
+            h = JavaGraphPlotter.histogram(alignments.getColumn("LongestPerfectKmer"), 0, 10, kmerLimits[1] / 10);
+            for (int i=0; i<h[1].length; i++) {
+                h[1][i] = (100 * h[1][i]) / alignments.getNumberOfRows();
+            }
+            c = JavaGraphPlotter.makeChart(1200, 800, typeString, "Best perfect kmer", "% reads");
+            if (kmerLimits[0] > 0) {
+                c.setXRange(0, kmerLimits[0]);
+                c.setXStep(50);
+            }
+            c.addBars(h[0], h[1], 9, colour);
+            c.save(graphPrefix + "_" + typeString + "_best_perfect_kmers", format);
+        }
+
+        // Kmer abundance, with labels
+        DataTable kmers = DataTable.read(analysisPrefix + "_" + typeString + "_kmers.txt", true);
+        if ((kmers != null) && (kmers.getNumberOfRows() > 1)) {
+            double[] refPc = kmers.getColumn("RefPc");
+            double[] readPc = kmers.getColumn("ReadPc");
+            Chart c = JavaGraphPlotter.makeChart(1200, 1200, typeString, "Reference abundance %", "Reads abundance %");
+            c.setXRange(0, 0.3);
+            c.setYRange(0, 0.3);
+            c.addPoints(refPc, readPc, colour);
+            c.addLabels(refPc, readPc, kmers.getStrings("Kmer"));
+            c.save(graphPrefix + "_" + typeString + "_kmer_scatter", format);
+        }
+    }
+
+    /**
+     * Entry point to thread
+     */
+    public void run() {
+        try {
+            if (type == NanoOKOptions.TYPE_ALL) {
+                plotGC();
+            } else {
+                plotType();
+            }
+        } catch (Exception e) {
+            System.out.println("ReferenceGraphsRunnable exception:");
+            e.printStackTrace();
+        }
+    }
+}
@@ -27,33 +27,68 @@ public class ReferenceSequence implements Comparable, Serializable {
     private String name = null;
     private int size = 0;
     private int binSize = 500;
+    private static final ReferenceSequenceStats NO_ALIGNMENTS = ReferenceSequenceStats.createReadOnly();
     private ReferenceSequenceStats referenceStats[] = new ReferenceSequenceStats[3];
-    private KmerTable refKmerTable = new KmerTable(5);
+    private KmerTable refKmerTable = null;
+    private boolean perBaseCoverage = false;
+    private volatile boolean initialised = false;
     
     /**
      * Constructor
      * @param i sequence ID
      * @param s size (length) of sequence
      * @param n display name (may be difference to ID in file)
+     * @param p true to keep coverage for every base
      */
-    public ReferenceSequence(String i, int s, String n) {
+    public ReferenceSequence(String i, int s, String n, boolean p) {
         id = i;
         size = s;
         name = n;
-
+        perBaseCoverage = p;
+        binSize = calculateBinSize(size);
+    }
+    
+    /**
+     * Create stats, kmer table and alignment summary files. Done when the
+     * sequence receives its first alignment, rather than for every sequence
+     * in the reference up front. Called by References.
+     * @param options NanoOKOptions object
+     * @param kmerCounts kmer counts for the sequence
+     */
+    void initialise(NanoOKOptions options, long[] kmerCounts) {
+        for (int t=0; t<3; t++) {
+            referenceStats[t] = new ReferenceSequenceStats(size, name, perBaseCoverage);
+        }
+        
+        refKmerTable = new KmerTable(ReferenceCache.KMER_SIZE);
+        refKmerTable.addCounts(kmerCounts);
+        openAlignmentSummaryFiles(options);
+        initialised = true;
+    }
+    
+    /**
+     * Check if stats have been created, meaning the sequence has alignments.
+     * @return true if initialised
+     */
+    public boolean isInitialised() {
+        return initialised;
+    }
+    
+    /**
+     * Calculate bin size for GC and coverage plots
+     * @param size size of sequence
+     * @return bin size
+     */
+    public static int calculateBinSize(int size) {
         float b = size / 100;
 
         // Make a multiple of 10, 100 or 500...
         if (size < 50000) {
-            binSize = 10 * (1 + Math.round(b / 10));   
+            return 10 * (1 + Math.round(b / 10));   
         } else if (size < 500000) {
-            binSize = 100 * (1 + Math.round(b / 100));   
+            return 100 * (1 + Math.round(b / 100));   
         } else {
-            binSize = 500 * (1 + Math.round(b / 500));   
-        }
-        
-        for (int t=0; t<3; t++) {
-            referenceStats[t] = new ReferenceSequenceStats(size, name);
+            return 500 * (1 + Math.round(b / 500));   
         }
     }
     
@@ -65,18 +100,31 @@ public class ReferenceSequence implements Comparable, Serializable {
     public void openAlignmentSummaryFiles(NanoOKOptions options) {
         for (int t=0; t<3; t++) {
             if (options.isProcessingReadType(t)) {
-                referenceStats[t].openAlignmentsTableFile(options.getAnalysisDir() + File.separator + name + File.separator + name + "_" + NanoOKOptions.getTypeFromInt(t) + "_alignments.txt");
+                referenceStats[t].openAlignmentsTableFile(options.getAnalysisDir() + File.separator + name + File.separator + name + "_" + NanoOKOptions.getTypeFromInt(t) + "_alignments.txt", options.fixRandom());
+            }
+        }
+    }
+    
+    /**
+     * Close alignment summary files.
+     */
+    public void closeAlignmentSummaryFiles() {
+        if (initialised) {
+            for (int t=0; t<3; t++) {
+                referenceStats[t].closeAlignmentsTableFile();
             }
         }
     }
         
     /**
-     * Get stats for a particular type (Template, Complement, 2D).
+     * Get stats for a particular type (Template, Complement, 2D). Sequences
+     * without alignments share an empty set of stats, which throws
+     * UnsupportedOperationException if added to - check isInitialised first.
      * @param t integer type
      * @return ReferenceSequenceStats object
      */
     public ReferenceSequenceStats getStatsByType(int t) {
-        return referenceStats[t];
+        return initialised ? referenceStats[t] : NO_ALIGNMENTS;
     }
     
     /**
@@ -103,6 +151,14 @@ public class ReferenceSequence implements Comparable, Serializable {
         return size;
     }
     
+    /**
+     * Check if coverage is kept for every base
+     * @return true if per base
+     */
+    public boolean doPerBaseCoverage() {
+        return perBaseCoverage;
+    }
+    
     /**
      * Get bin size for graph plotting
      * @return size (nt)
@@ -118,7 +174,7 @@ public class ReferenceSequence implements Comparable, Serializable {
 
     /**
      * Get kmer table
-     * @return 
+     * @return table, or null if not initialised
      */
     public KmerTable getKmerTable() {
         return refKmerTable;
@@ -128,14 +184,14 @@ public class ReferenceSequence implements Comparable, Serializable {
      * 
      */
     public void writeKmerFile(int type, String filename) {
-        KmerTable readKmerTable = referenceStats[type].getReadKmerTable();
+        KmerTable readKmerTable = referenceStats[type].hasReadKmerTable() ? referenceStats[type].getReadKmerTable() : null;
         
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename)); 
             pw.println("Kmer\tRefCount\tReadCount\tRefPc\tReadPc");
             
             Set<String> refKeys = refKmerTable.getKeys();
-            Set<String> readKeys = readKmerTable.getKeys();
+            Set<String> readKeys = readKmerTable != null ? readKmerTable.getKeys() : new HashSet<String>();
             HashSet<String> allKeys = new HashSet();
             int refTotal = 0;
             int readTotal = 0;
@@ -156,7 +212,7 @@ public class ReferenceSequence implements Comparable, Serializable {
                         
             for (String kmer : allKeys) {
                 int refCount = refKmerTable.get(kmer);
-                int readCount = readKmerTable.get(kmer);
+                int readCount = readKmerTable != null ? readKmerTable.get(kmer) : 0;
                 double refPc = 0; 
                 double readPc = 0;
                 
@@ -183,8 +239,8 @@ public class ReferenceSequence implements Comparable, Serializable {
     }
     
     public int getTotalNumberOfAlignments() {
-        return referenceStats[0].getNumberOfReadsWithAlignments() + 
-               referenceStats[1].getNumberOfReadsWithAlignments() +
-               referenceStats[2].getNumberOfReadsWithAlignments();
+        return getStatsByType(0).getNumberOfReadsWithAlignments() + 
+               getStatsByType(1).getNumberOfReadsWithAlignments() +
+               getStatsByType(2).getNumberOfReadsWithAlignments();
     }
 }
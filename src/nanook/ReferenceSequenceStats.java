@@ -21,14 +21,13 @@ import java.util.Collections;
  */
 public class ReferenceSequenceStats implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
-    private static final int MAX_INDEL = 200;
+    public static final int MAX_INDEL = 200;
     private int size;
     private String name;
     private SequenceCoverage cov;
     //int[] coverage;
-    private int[] perfectKmerCounts = new int[NanoOKOptions.MAX_KMER];
-    private int[] readBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
-    private int[] readCumulativeBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
+    private IntHistogram perfectKmerCounts = new IntHistogram();
+    private IntHistogram readBestPerfectKmer = new IntHistogram();
     private int longestPerfectKmer = 0;
     private int nReadsWithAlignments = 0;
     private long totalReadBases = 0;
@@ -42,35 +41,69 @@ public class ReferenceSequenceStats implements Serializable {
     private long nDeletedBases = 0;
     private int largestInsertion = 0;
     private int largestDeletion = 0;
-    private int insertionSizes[] = new int[MAX_INDEL];
-    private int deletionSizes[] = new int[MAX_INDEL];
+    private IntHistogram insertionSizes = new IntHistogram();
+    private IntHistogram deletionSizes = new IntHistogram();
     private int alignedPositiveStrand = 0;
     private int alignedNegativeStrand = 0;
     private long totalBases = 0;
     private long totalReads = 0;
-    private KmerTable readKmerTable = new KmerTable(5);
+    private KmerTable readKmerTable = null;
     private AlignmentsTableFile atf;
     private ArrayList<KmerAbundance> kmerAbundance = new ArrayList();
     private int longestAlignmentSize = 0;
+    private boolean readOnly = false;
 
     /** 
      * Constructor.
      * @param size size (length) of reference
      * @param n name of reference
+     * @param perBaseCoverage true to keep coverage for every base
      */
-    public ReferenceSequenceStats(int s, String n) {
+    public ReferenceSequenceStats(int s, String n, boolean perBaseCoverage) {
         size = s;
         name = n;
-        cov = new SequenceCoverage(size);
+        cov = new SequenceCoverage(size, perBaseCoverage);
         //coverage = new int[size];
     }
     
+    /**
+     * Create empty stats that can't be added to, for sharing between sequences
+     * without alignments.
+     * @return read-only stats
+     */
+    public static ReferenceSequenceStats createReadOnly() {
+        ReferenceSequenceStats s = new ReferenceSequenceStats(0, "", false);
+        s.readOnly = true;
+        return s;
+    }
+    
+    /**
+     * Throw if these are the shared empty stats, rather than letting one
+     * sequence's counts leak into every sequence without alignments.
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Can't add to the shared stats of a sequence without alignments");
+        }
+    }
+    
     /**
      * Create an alignments table file.
      * @param filename flename
+     * @param sortRows true to write rows in sorted order
      */
-    public void openAlignmentsTableFile(String filename) {
-        atf = new AlignmentsTableFile(filename);
+    public void openAlignmentsTableFile(String filename, boolean sortRows) {
+        checkWritable();
+        atf = new AlignmentsTableFile(filename, sortRows);
+    }
+    
+    /**
+     * Close alignments table file, if open.
+     */
+    public void closeAlignmentsTableFile() {
+        if (atf != null) {
+            atf.close();
+        }
     }
         
     /**
@@ -102,44 +135,62 @@ public class ReferenceSequenceStats implements Serializable {
      * @param size size of kmer
      */
     public synchronized void addPerfectKmer(int size) {
+        checkWritable();
         if (size >= NanoOKOptions.MAX_KMER) {
             System.out.println("Error: very unlikely situation with perfect kmer of size " + size + " (Max " + NanoOKOptions.MAX_KMER + ")");
             System.exit(1);
         }
         
-        perfectKmerCounts[size]++;
+        perfectKmerCounts.add(size);
         
         if (size > longestPerfectKmer) {
             longestPerfectKmer = size;
         }
     }
     
-    /**
-     * Increment coverage between two points.
-     * @param start start position
-     * @param size size
-     */
-    public synchronized void addCoverage(int start, int size) {
-        cov.addCoverage(start, size);
-        //for (int i=start; i<(start+size); i++) {
-        //    coverage[i]++;
-        //}
-    }
-    
     /**
      * Store best perfect kmer length for each read.
      * @param bestKmer length of best perfect kmer
      */
     public synchronized void addReadBestKmer(int bestKmer) {
-        readBestPerfectKmer[bestKmer]++;
-        
-        for (int i=1; i<=bestKmer; i++) {
-            readCumulativeBestPerfectKmer[i]++;
-        }
-        
+        checkWritable();
+        readBestPerfectKmer.add(bestKmer);
         nReadsWithAlignments++;
     }
     
+    /**
+     * Add counts gathered by per-thread shards.
+     * @param shards shards for this reference
+     */
+    public synchronized void mergeShards(ArrayList<ReferenceStatsShard> shards) {
+        checkWritable();
+        for (int s=0; s<shards.size(); s++) {
+            ReferenceStatsShard r = shards.get(s);
+            
+            perfectKmerCounts.add(r.perfectKmerCounts);
+            readBestPerfectKmer.add(r.readBestPerfectKmer);
+            insertionSizes.add(r.insertionSizes);
+            deletionSizes.add(r.deletionSizes);
+            cov.add(r.coverage);
+            
+            longestPerfectKmer = Math.max(longestPerfectKmer, r.longestPerfectKmer);
+            largestInsertion = Math.max(largestInsertion, r.largestInsertion);
+            largestDeletion = Math.max(largestDeletion, r.largestDeletion);
+            nReadsWithAlignments += r.nReadsWithAlignments;
+            totalReadBases += r.totalReadBases;
+            totalAlignedBases += r.totalAlignedBases;
+            totalAlignedBasesWithoutIndels += r.totalAlignedBasesWithoutIndels;
+            totalIdentical += r.totalIdentical;
+            nDeletionErrors += r.nDeletionErrors;
+            nInsertionErrors += r.nInsertionErrors;
+            nSubstitutionErrors += r.nSubstitutionErrors;
+            nInsertedBases += r.nInsertedBases;
+            nDeletedBases += r.nDeletedBases;
+            alignedPositiveStrand += r.alignedPositiveStrand;
+            alignedNegativeStrand += r.alignedNegativeStrand;
+        }
+    }
+    
     /**
      * Write coverage file for later graph plotting.
      * @param filename output filename
@@ -165,6 +216,14 @@ public class ReferenceSequenceStats implements Serializable {
 //        }
     }
 
+    /**
+     * Write depth at each position, if keeping per base coverage.
+     * @param filename output filename
+     */
+    public void writePerBaseCoverageData(String filename) {
+        cov.writePerBaseCoverageData(filename);
+    }
+
     /**
      * Write data for perfect kmer histogram.
      * @param filename output filename
@@ -173,7 +232,7 @@ public class ReferenceSequenceStats implements Serializable {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename));
             for (int i=1; i<=longestPerfectKmer; i++) {
-                pw.printf("%d\t%d", i, perfectKmerCounts[i]);
+                pw.printf("%d\t%d", i, perfectKmerCounts.get(i));
                 pw.println("");
             }            
             pw.close();
@@ -194,11 +253,11 @@ public class ReferenceSequenceStats implements Serializable {
             for (int i=1; i<=longestPerfectKmer; i++) {
                 double pc = 0;
 
-                if ((readBestPerfectKmer[i] > 0) && (nReadsWithAlignments > 0)) {
-                    pc = ((double)100.0 * readBestPerfectKmer[i]) / (double)nReadsWithAlignments;
+                if ((readBestPerfectKmer.get(i) > 0) && (nReadsWithAlignments > 0)) {
+                    pc = ((double)100.0 * readBestPerfectKmer.get(i)) / (double)nReadsWithAlignments;
                 } 
 
-                pw.printf("%d\t%d\t%.2f", i, readBestPerfectKmer[i], pc);
+                pw.printf("%d\t%d\t%.2f", i, readBestPerfectKmer.get(i), pc);
                 pw.println("");
             }            
             pw.close();
@@ -210,14 +269,18 @@ public class ReferenceSequenceStats implements Serializable {
     }    
 
     /**
-     * Write data for best perfect kmer cumulative histogram.
+     * Write data for best perfect kmer cumulative histogram. The number of
+     * reads with best kmer of at least each size is found from the best
+     * kmer histogram.
      * @param filename output filename
      */
     public void writeBestPerfectKmerHistCumulative(String filename) {
+        int[] readCumulativeBestPerfectKmer = new int[longestPerfectKmer + 2];
         int nr = 0;
         
-        for (int i=1; i<=longestPerfectKmer; i++) {
-            nr += readBestPerfectKmer[i];
+        for (int i=longestPerfectKmer; i>=1; i--) {
+            nr += readBestPerfectKmer.get(i);
+            readCumulativeBestPerfectKmer[i] = nr;
         }
         
         if (nReadsWithAlignments != nr) {
@@ -272,6 +335,7 @@ public class ReferenceSequenceStats implements Serializable {
      * @param identicalBases number of identical bases
      */
     public synchronized void addAlignmentStats(int querySize, int alignedSize, int alignedSizeMinusIndels, int identicalBases, String hitStrand, String queryStrand) {
+        checkWritable();
         totalAlignedBases += alignedSize;
         //System.out.println("\nAlignedBases " + alignedSize);
         totalAlignedBasesWithoutIndels += alignedSizeMinusIndels;
@@ -294,6 +358,7 @@ public class ReferenceSequenceStats implements Serializable {
      * @param stats - ReadSetStats associated with the error
      */
     public synchronized void addDeletionError(int size, String kmer, ReadSetStats stats) {
+        checkWritable();
         //System.out.println("Delete " + size);
         if (size >= MAX_INDEL) {
             System.out.println("");
@@ -301,7 +366,7 @@ public class ReferenceSequenceStats implements Serializable {
         } else {
             nDeletionErrors++;
             nDeletedBases += size;
-            deletionSizes[size]++;
+            deletionSizes.add(size);
             if (size > largestDeletion) {
                 largestDeletion = size;
             }
@@ -316,6 +381,7 @@ public class ReferenceSequenceStats implements Serializable {
      * @param stats - ReadSetStats associated with the error
      */
     public synchronized void addInsertionError(int size, String kmer, ReadSetStats stats) {
+        checkWritable();
         //System.out.println("Insert " + size);
         if (size >= MAX_INDEL) {
             System.out.println("");
@@ -323,7 +389,7 @@ public class ReferenceSequenceStats implements Serializable {
         } else {
             nInsertionErrors++;
             nInsertedBases += size;
-            insertionSizes[size]++;
+            insertionSizes.add(size);
             if (size > largestInsertion) {
                 largestInsertion = size;
             }
@@ -355,6 +421,7 @@ public class ReferenceSequenceStats implements Serializable {
      * @param stats - ReadSetStats associated with the error
      */
     public synchronized void addSubstitutionError(String kmer, char refChar, char subChar, ReadSetStats stats) {
+        checkWritable();
         nSubstitutionErrors++;
         //System.out.println("Kmer before substitution "+kmer);
         stats.addSubstitutionError(kmer, refChar, subChar);
@@ -473,7 +540,7 @@ public class ReferenceSequenceStats implements Serializable {
             PrintWriter pw = new PrintWriter(new FileWriter(filename)); 
             for (int i=1; i<=largestInsertion; i++) {
                 //pw.println(i + "\t" + insertionSizes[i]);
-                pw.printf("%d\t%.4f", i, (100.0 * (double)insertionSizes[i]/(double)nInsertionErrors));
+                pw.printf("%d\t%.4f", i, (100.0 * (double)insertionSizes.get(i)/(double)nInsertionErrors));
                 pw.println("");
            }
             pw.close();
@@ -493,7 +560,7 @@ public class ReferenceSequenceStats implements Serializable {
             PrintWriter pw = new PrintWriter(new FileWriter(filename));
             for (int i=1; i<=largestDeletion; i++) {
                 //pw.println(i + "\t" + deletionSizes[i]);
-                pw.printf("%d\t%.4f", i, (100.0 * (double)deletionSizes[i]/(double)nDeletionErrors));            
+                pw.printf("%d\t%.4f", i, (100.0 * (double)deletionSizes.get(i)/(double)nDeletionErrors));            
                 pw.println("");
                 }
                 pw.close();
@@ -528,15 +595,33 @@ public class ReferenceSequenceStats implements Serializable {
         }
     }
     
-    public KmerTable getReadKmerTable() {
+    /**
+     * Get table of read kmers, creating it when first needed
+     * @return kmer table
+     */
+    public synchronized KmerTable getReadKmerTable() {
+        if (readKmerTable == null) {
+            checkWritable();
+            readKmerTable = new KmerTable(5);
+        }
         return readKmerTable;
     }
+    
+    /**
+     * Check if any read kmers have been counted
+     * @return true if read kmer table exists
+     */
+    public synchronized boolean hasReadKmerTable() {
+        return readKmerTable != null;
+    }
 
     public void addKmerAbundance(String kmer, double refAbundance, double readAbundance) {
+        checkWritable();
         kmerAbundance.add(new KmerAbundance(kmer, refAbundance, readAbundance));
     }
     
     public void sortKmerAbundance() {
+        checkWritable();
         Collections.sort(kmerAbundance);
         for (int i=0; i<10; i++) {
             KmerAbundance k = kmerAbundance.get(i);
@@ -552,6 +637,7 @@ public class ReferenceSequenceStats implements Serializable {
     }
     
     public void addLongestAlignmentSize(int size) {
+        checkWritable();
         if(size > longestAlignmentSize) {
             longestAlignmentSize = size;
         }
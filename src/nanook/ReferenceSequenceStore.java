@@ -0,0 +1,170 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory store of reference sequences. The reference FASTA is read once
+ * per run and each contig held as a byte array keyed by ID. The store is
+ * immutable once loaded, so it can be shared by all parser threads without
+ * locking, and sub-sequences are returned as views rather than copies.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceSequenceStore {
+    private final Map<String, byte[]> sequences;
+    private final List<String> ids;
+    private final String filename;
+
+    /**
+     * Constructor - reads the whole of a FASTA file.
+     * @param f FASTA filename
+     */
+    public ReferenceSequenceStore(String f) {
+        HashMap<String, byte[]> seqs = new HashMap<String, byte[]>();
+        ArrayList<String> idList = new ArrayList<String>();
+
+        filename = f;
+
+        try
+        {
+            BufferedReader br = new BufferedReader(new FileReader(filename));
+            ByteArrayOutputStream seq = new ByteArrayOutputStream(100000);
+            String line;
+            String id = null;
+
+            do {
+                line = br.readLine();
+                if (line != null) {
+                    line = line.trim();
+                }
+
+                if ((line == null) || (line.startsWith(">"))) {
+                    if (id != null) {
+                        if (seqs.containsKey(id)) {
+                            System.out.println("Error: reference contig ID "+id+" occurs more than once.");
+                            System.exit(1);
+                        }
+                        seqs.put(id, seq.toByteArray());
+                        idList.add(id);
+                        seq.reset();
+                    }
+
+                    if (line != null) {
+                        String[] parts = line.substring(1).split("(\\s+)");
+                        id = parts[0];
+                    }
+                } else {
+                    for (int i=0; i<line.length(); i++) {
+                        seq.write(line.charAt(i));
+                    }
+                }
+            } while (line != null);
+
+            br.close();
+        } catch (Exception e) {
+            System.out.println("ReferenceSequenceStore Exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        sequences = Collections.unmodifiableMap(seqs);
+        ids = Collections.unmodifiableList(idList);
+    }
+
+    /**
+     * Get the FASTA file this store was loaded from.
+     * @return filename
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Get contig IDs, in the order they occur in the file.
+     * @return list of IDs
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * Check if store contains a contig.
+     * @param id contig ID
+     * @return true if present
+     */
+    public boolean contains(String id) {
+        return sequences.containsKey(id);
+    }
+
+    /**
+     * Get length of a contig.
+     * @param id contig ID
+     * @return length, or -1 if not present
+     */
+    public int getLength(String id) {
+        byte[] seq = sequences.get(id);
+        return seq == null ? -1:seq.length;
+    }
+
+    /**
+     * Get a whole contig.
+     * @param id contig ID
+     * @return view of whole sequence
+     */
+    public ReferenceSubSequence getSequence(String id) {
+        byte[] seq = getBytes(id);
+        return new ReferenceSubSequence(seq, 0, seq.length);
+    }
+
+    /**
+     * Get part of a contig. Behaves like SequenceReader.getSubSequence - end
+     * is inclusive and positions beyond the contig are clipped.
+     * @param id contig ID
+     * @param start start position (0-based)
+     * @param end end position (inclusive)
+     * @return view of sub-sequence
+     */
+    public ReferenceSubSequence getSubSequence(String id, int start, int end) {
+        byte[] seq = getBytes(id);
+
+        if (start < 0) {
+            System.out.println("Warning: invalid index ("+start+") in ReferenceSequenceStore");
+            start = 0;
+        }
+
+        if (end >= seq.length) {
+            end = seq.length - 1;
+        }
+
+        if (start > end) {
+            return new ReferenceSubSequence(seq, 0, 0);
+        }
+
+        return new ReferenceSubSequence(seq, start, end - start + 1);
+    }
+
+    private byte[] getBytes(String id) {
+        byte[] seq = sequences.get(id);
+
+        if (seq == null) {
+            System.out.println("Error: can't find ID " + id);
+            System.exit(1);
+        }
+
+        return seq;
+    }
+}
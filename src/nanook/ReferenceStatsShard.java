@@ -0,0 +1,156 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Per-thread accumulator for the error, kmer and coverage counts of one reference.
+ * Mirrors the counting done by ReferenceSequenceStats, but without locking,
+ * as it is only touched by the thread that owns it. Merged into the shared
+ * ReferenceSequenceStats by ReadSetStats.mergeShards.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceStatsShard {
+    IntHistogram perfectKmerCounts = new IntHistogram();
+    IntHistogram readBestPerfectKmer = new IntHistogram();
+    int longestPerfectKmer = 0;
+    int nReadsWithAlignments = 0;
+    long totalReadBases = 0;
+    long totalAlignedBases = 0;
+    long totalAlignedBasesWithoutIndels = 0;
+    long totalIdentical = 0;
+    int nDeletionErrors = 0;
+    int nInsertionErrors = 0;
+    int nSubstitutionErrors = 0;
+    long nInsertedBases = 0;
+    long nDeletedBases = 0;
+    int largestInsertion = 0;
+    int largestDeletion = 0;
+    IntHistogram insertionSizes = new IntHistogram();
+    IntHistogram deletionSizes = new IntHistogram();
+    int alignedPositiveStrand = 0;
+    int alignedNegativeStrand = 0;
+    SequenceCoverage coverage;
+
+    /**
+     * Constructor
+     * @param size size of reference
+     * @param perBaseCoverage true to keep coverage for every base
+     */
+    public ReferenceStatsShard(int size, boolean perBaseCoverage) {
+        coverage = new SequenceCoverage(size, perBaseCoverage);
+    }
+
+    /**
+     * Increment coverage between two points.
+     * @param start start position
+     * @param size size
+     */
+    public void addCoverage(int start, int size) {
+        coverage.addCoverage(start, size);
+    }
+
+    /**
+     * Store perfect kmer size.
+     * @param size size of kmer
+     */
+    public void addPerfectKmer(int size) {
+        if (size >= NanoOKOptions.MAX_KMER) {
+            System.out.println("Error: very unlikely situation with perfect kmer of size " + size + " (Max " + NanoOKOptions.MAX_KMER + ")");
+            System.exit(1);
+        }
+
+        perfectKmerCounts.add(size);
+
+        if (size > longestPerfectKmer) {
+            longestPerfectKmer = size;
+        }
+    }
+
+    /**
+     * Store best perfect kmer length for a read.
+     * @param bestKmer length of best perfect kmer
+     */
+    public void addReadBestKmer(int bestKmer) {
+        readBestPerfectKmer.add(bestKmer);
+        nReadsWithAlignments++;
+    }
+
+    /**
+     * Store alignment stats.
+     * @param querySize query size
+     * @param alignedSize number of aligned bases
+     * @param alignedSizeMinusIndels number of aligned bases, excluding indels
+     * @param identicalBases number of identical bases
+     */
+    public void addAlignmentStats(int querySize, int alignedSize, int alignedSizeMinusIndels, int identicalBases, String hitStrand, String queryStrand) {
+        totalAlignedBases += alignedSize;
+        totalAlignedBasesWithoutIndels += alignedSizeMinusIndels;
+        totalReadBases += querySize;
+        totalIdentical += identicalBases;
+
+        if (hitStrand.equals("+")) {
+            if (queryStrand.equals("+")) {
+                alignedPositiveStrand++;
+            } else if (queryStrand.equals("-")) {
+                alignedNegativeStrand++;
+            }
+        }
+    }
+
+    /**
+     * Store a deletion error.
+     * @param size size of deletion
+     * @return true if stored, false if too large
+     */
+    public boolean addDeletionError(int size) {
+        if (size >= ReferenceSequenceStats.MAX_INDEL) {
+            System.out.println("");
+            System.out.println("Warning: deletion much larger than expected ("+size+") - too many of these may affect indel stats");
+            return false;
+        }
+
+        nDeletionErrors++;
+        nDeletedBases += size;
+        deletionSizes.add(size);
+        if (size > largestDeletion) {
+            largestDeletion = size;
+        }
+
+        return true;
+    }
+
+    /**
+     * Store an insertion error.
+     * @param size size of insertion
+     * @return true if stored, false if too large
+     */
+    public boolean addInsertionError(int size) {
+        if (size >= ReferenceSequenceStats.MAX_INDEL) {
+            System.out.println("");
+            System.out.println("Warning: insertionl much larger than expected ("+size+") - too many of these may affect indel stats");
+            return false;
+        }
+
+        nInsertionErrors++;
+        nInsertedBases += size;
+        insertionSizes.add(size);
+        if (size > largestInsertion) {
+            largestInsertion = size;
+        }
+
+        return true;
+    }
+
+    /**
+     * Store a substitution error.
+     */
+    public void addSubstitutionError() {
+        nSubstitutionErrors++;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only view onto part of a sequence held in a ReferenceSequenceStore.
+ * No bases are copied until toString is called.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceSubSequence implements CharSequence {
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Constructor
+     * @param d underlying sequence
+     * @param o offset of first base
+     * @param l number of bases
+     */
+    public ReferenceSubSequence(byte[] d, int o, int l) {
+        data = d;
+        offset = o;
+        length = l;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int i) {
+        if ((i < 0) || (i >= length)) {
+            throw new IndexOutOfBoundsException("index " + i + ", length " + length);
+        }
+
+        return (char)(data[offset + i] & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if ((start < 0) || (end > length) || (start > end)) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+
+        return new ReferenceSubSequence(data, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(data, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -23,6 +23,8 @@ public class References implements Serializable {
     private Hashtable<String,ReferenceSequence> referenceSeqNames = new Hashtable();
     private int longestId = 0;
     private OverallStats overallStats = null;
+    private transient volatile ReferenceSequenceStore sequenceStore = null;
+    private transient ReferenceCache referenceCache = null;
         
     /**
      * Constructor
@@ -37,12 +39,48 @@ public class References implements Serializable {
         overallStats = s;
     }
     
-    public void readSizesFile() {
+    /**
+     * Check a .sizes file lists the same sequences and sizes as the reference.
+     * @param f .sizes file
+     * @param cache reference cache
+     * @return true if it matches
+     */
+    private boolean sizesFileMatches(File f, ReferenceCache cache) {
+        int n = 0;
+        
+        try
+        {
+            BufferedReader br = new BufferedReader(new FileReader(f));
+            String line = br.readLine();
+            while (line != null) {
+                if (!line.startsWith("#") && (!line.startsWith("SequenceID"))) {
+                    String[] values = line.split("\\t");
+                    if ((values.length < 3) || (cache.getLength(values[0]) != Integer.parseInt(values[1]))) {
+                        br.close();
+                        return false;
+                    }
+                    n++;
+                }
+                line = br.readLine();
+            }
+            br.close();
+        } catch (Exception e) {
+            return false;
+        }
+        
+        return n == cache.getNumberOfSequences();
+    }
+    
+    /**
+     * Read .sizes file, generating it if it doesn't exist or no longer
+     * matches the reference.
+     * @param cache reference cache
+     */
+    public void readSizesFile(ReferenceCache cache) {
         sizesFile = new File(options.getReferenceFile()+".sizes");
         
         if (sizesFile.exists()) {
             System.out.println("Using .sizes file "+sizesFile.getName());
-            System.out.println("Note: if you have changed the reference file, you need to delete the .sizes file and re-run.\n");
         } else {
             int extensionIndex = options.getReferenceFile().lastIndexOf('.');
             if (extensionIndex > 0) {
@@ -51,6 +89,12 @@ public class References implements Serializable {
             }
         }
         
+        if (sizesFile.exists() && !sizesFileMatches(sizesFile, cache)) {
+            System.out.println("Warning: " + sizesFile.getName() + " doesn't match reference, so it will be regenerated.");
+            sizesFile = new File(options.getReferenceFile()+".sizes");
+            sizesFile.delete();
+        }
+        
         if (!sizesFile.exists()) {
             System.out.println("Error: can't read sizes file.");
             System.out.println("Generating .sizes file for reference. You may want to edit the display names.");
@@ -59,7 +103,7 @@ public class References implements Serializable {
             sizesFile = new File(options.getReferenceFile()+".sizes");
         }        
         
-        System.out.println("Reading reference sizes and making directories");
+        System.out.println("Reading reference sizes");
         
         try
         {
@@ -84,11 +128,9 @@ public class References implements Serializable {
 
                     System.out.println("\t" + values[2] + "\t" + size);
 
-                    refSeqById = new ReferenceSequence(values[0], size, values[2]);
-                    options.checkAndMakeReferenceAnalysisDir(refSeqById.getName());
+                    refSeqById = new ReferenceSequence(values[0], size, values[2], options.doPerBaseCoverage());
                     referenceSeqIds.put(values[0], refSeqById);
                     referenceSeqNames.put(values[2], refSeqById);
-                    refSeqById.openAlignmentSummaryFiles(options);
 
                     if (values[0].length() > longestId) {
                         longestId = values[0].length();
@@ -106,89 +148,83 @@ public class References implements Serializable {
     }
        
     /**
-     * Read reference FASTA file
+     * Get the shared in-memory copy of the reference sequences. Loaded from
+     * the reference FASTA the first time it is needed and then re-used by all
+     * threads for the rest of the run.
+     * @return a ReferenceSequenceStore
      */
-    private void readReferenceFile() {
-        ReferenceSequence currentRef = null;
-        KmerTable refKmerTable = null;
-        GCCounter gcc = null;
-
-        try
-        {
-            BufferedReader br = new BufferedReader(new FileReader(options.getReferenceFile()));             
-            String line;
-            String id = null;
-            String name = null;
-            String seq = "";
-            String previousKmerString = "";
- 
-            System.out.println("");
-            System.out.println("Calculating reference GC");
-            
-            do {
-                line = br.readLine();
-                if (line != null) {
-                    line = line.trim();
-                }
-
-                // New ID
-                if ((line == null) || (line.startsWith(">"))) {                    
-                    if (id != null) {
-                        if (gcc != null) {
-                            gcc.closeFile();
-                        }                        
-                    }
-                    
-                    if (line != null) {
-                        String[] parts = line.substring(1).split("(\\s+)");
-                        id = parts[0];
-                        currentRef = getReferenceById(id);
-                        System.out.println("\t" + currentRef.getName());
-                        refKmerTable = currentRef.getKmerTable();
-                        gcc = new GCCounter(currentRef.getBinSize(), options.getAnalysisDir() + File.separator + currentRef.getName() + File.separator + currentRef.getName() + "_gc.txt");
-                    }                                        
-                }
-                // Continuing sequence read 
-                else if ((line != null) && (currentRef != null)) {
-                    if (!line.equals("")) {
-                        String kmerSeq = previousKmerString + line;                    
-                        int k = refKmerTable.getKmerSize();
-
-                        // Store kmers
-                        for (int o=0; o<kmerSeq.length() - k; o++) {
-                            refKmerTable.countKmer(kmerSeq.substring(o, o+5));
-                        }
-
-                        // Store end k-1 bases for start of next kmer
-                        if (line.length() > k) {
-                            previousKmerString = line.substring(line.length() - k + 1);
-                        } else {
-                            previousKmerString = "";
-                        }
-
-                        // Now for GC graph
-                        gcc.addString(line);
-                    }           
+    public ReferenceSequenceStore getSequenceStore() {
+        ReferenceSequenceStore store = sequenceStore;
+        
+        if (store == null) {
+            synchronized(this) {
+                store = sequenceStore;
+                if (store == null) {
+                    store = new ReferenceSequenceStore(options.getReferenceFile());
+                    sequenceStore = store;
                 }
-            } while (line != null);
-
-            br.close();
-        } catch (Exception e) {
-            System.out.println("readFasta Exception:");
-            e.printStackTrace();
-            System.exit(1);
+            }
         }
-                
+        
+        return store;
+    }
+       
+    /**
+     * Get reference GC and kmers from the cache, building it if needed
+     * @return cache
+     */
+    private ReferenceCache getReferenceCache() {
+        ReferenceCache cache = ReferenceCache.load(options.getReferenceFile());
+        
+        if (cache != null) {
+            System.out.println("Using reference cache " + new File(ReferenceCache.getCacheFilename(options.getReferenceFile())).getName());
+        } else {
+            System.out.println("Calculating reference GC and kmers");
+            cache = ReferenceCache.build(getSequenceStore(), options.getReferenceFile(), options.getNumberOfThreads());
+            cache.save();
+        }
+        
+        return cache;
     }
     
     /**
-     * Load references
+     * Load references. Directories, files and stats for each sequence aren't
+     * created until it has an alignment - see getAlignedReferenceById.
      */
     public void loadReferences() {
-        readSizesFile(); 
-        readReferenceFile();
+        referenceCache = getReferenceCache();
+        readSizesFile(referenceCache); 
     }    
     
+    /**
+     * Make directories, stats and alignment summary files for a sequence,
+     * and write its GC file.
+     * @param r sequence
+     */
+    private synchronized void initialiseReference(ReferenceSequence r) {
+        if (!r.isInitialised()) {
+            int i = referenceCache.getIndex(r.getId());
+            
+            options.checkAndMakeReferenceAnalysisDir(r.getName());
+            GCCounter.writeGCFile(options.getAnalysisDir() + File.separator + r.getName() + File.separator + r.getName() + "_gc.txt", r.getBinSize(), referenceCache.getGCCounts(i));
+            r.initialise(options, referenceCache.getKmerCounts(i));
+        }
+    }
+    
+    /**
+     * Get a ReferenceSequence object from sequence ID, in order to store an
+     * alignment to it. Initialises the sequence if this is its first.
+     */
+    public ReferenceSequence getAlignedReferenceById(String id) {
+        ReferenceSequence r = getReferenceById(id);
+        
+        if (!r.isInitialised()) {
+            initialiseReference(r);
+        }
+        
+        return r;
+    }
+    
     /**
      * Get a ReferenceSequence object from sequence ID.
      */
@@ -197,13 +233,22 @@ public class References implements Serializable {
         
         if (r == null) {
             System.out.println("");
-            System.out.println("Error: Couldn't find reference for "+id + ". This can occur if you have changed the refernce file, but not deleted the .sizes file associated with it. Try deleting reference.fasta.sizes and re-running.");
+            System.out.println("Error: Couldn't find reference for "+id + ". Check the alignments were made against this reference.");
             System.exit(1);
         }
         
         return r;
     }
             
+    /**
+     * Close alignment summary files for all references.
+     */
+    public void closeAlignmentSummaryFiles() {
+        for (ReferenceSequence ref : referenceSeqIds.values()) {
+            ref.closeAlignmentSummaryFiles();
+        }
+    }
+    
     /**
      * Return set of all reference sequence IDs.
      * @return a String set
@@ -238,7 +283,14 @@ public class References implements Serializable {
         
         for(String id : keys) {
             ReferenceSequence ref = referenceSeqIds.get(id);
+            if (!ref.isInitialised()) {
+                continue;
+            }
+            
             ref.getStatsByType(type).writeCoverageData(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_coverage.txt", ref.getBinSize());
+            if (ref.doPerBaseCoverage()) {
+                ref.getStatsByType(type).writePerBaseCoverageData(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_coverage_per_base.txt");
+            }
             ref.getStatsByType(type).writePerfectKmerHist(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_all_perfect_kmers.txt");
             ref.getStatsByType(type).writeBestPerfectKmerHist(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_best_perfect_kmers.txt");
             ref.getStatsByType(type).writeBestPerfectKmerHistCumulative(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_cumulative_perfect_kmers.txt");
@@ -248,6 +300,32 @@ public class References implements Serializable {
         }        
     }
     
+    /**
+     * Write one file listing all sequences without alignments, which have no
+     * directory or files of their own.
+     */
+    public void writeUnalignedReferences() {
+        try {
+            String filename = options.getAnalysisDir() + File.separator + "all_unaligned_references.txt";
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            pw.println("ID\tSize\tName");
+            
+            ArrayList<ReferenceSequence> sortedRefs = getSortedReferences();
+            for (int i=0; i<sortedRefs.size(); i++) {
+                ReferenceSequence r = sortedRefs.get(i);
+                if (!r.isInitialised()) {
+                    pw.println(r.getId() + "\t" + r.getSize() + "\t" + r.getName());
+                }
+            }
+            
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("writeUnalignedReferences exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+    
     /**
      * Get the length of the longest ID - used for formatting output.
      * @return length of longest sequence ID
@@ -16,6 +16,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -84,7 +85,7 @@ public abstract class SAMParser {
     /**
      * Process an alignment line from a SAM file
      * @param s the line
-     * @param outputFilename .maf file to write
+     * @param outputFilename .maf file to write, or null for none
      * @return ]
      */
     private Alignment processAlignmentLine(String alignmentFile, String s, String outputFilename, ReadSetStats overallStats) {
@@ -100,9 +101,16 @@ public abstract class SAMParser {
         int tLen = Integer.parseInt(cols[8]);
         String seq = cols[9];
         String qual = cols[10];
-        boolean mapped = ((flags & 0x04) == 0x04) ? false:true;
-        int queryStart;
-        Alignment al = null;
+        String csTag = null;
+        String mdTag = null;
+        
+        for (int i=11; i<cols.length; i++) {
+            if (cols[i].startsWith("cs:Z:")) {
+                csTag = cols[i].substring(5);
+            } else if (cols[i].startsWith("MD:Z:")) {
+                mdTag = cols[i].substring(5);
+            }
+        }
         
         //System.out.println("Alignment file "+alignmentFile);
         //System.out.println("CIGAR string "+cigar);
@@ -111,35 +119,101 @@ public abstract class SAMParser {
             queryName = cols[0].substring(0, cols[0].lastIndexOf("/"));
         }
         
+        return processAlignment(alignmentFile, queryName, flags, hitName, hitStart, mapQuality, cigar, null, csTag, mdTag, seq, outputFilename, overallStats);
+    }
+    
+    /**
+     * Process a BAM record
+     * @param r the record
+     * @return alignment, or null
+     */
+    private Alignment processRecord(String alignmentFile, BAMRecord r, ReadSetStats overallStats) {
+        String queryName = r.getReadName();
+        
+        if (options.getAligner().equals("blasr")) {
+            queryName = queryName.substring(0, queryName.lastIndexOf("/"));
+        }
+        
+        return processAlignment(alignmentFile, queryName, r.getFlags(), r.getHitName(), r.getHitStart(), r.getMapQuality(), null, r.getCigar(), r.getStringTag("cs"), r.getStringTag("MD"), r.getSequence(), null, overallStats);
+    }
+    
+    /**
+     * Make an Alignment from the fields of a SAM line or BAM record
+     * @param cigar CIGAR string, or null if cigarOps given
+     * @param cigarOps packed BAM CIGAR operations, or null if cigar given
+     * @param csTag minimap2 cs tag, or null if not present
+     * @param mdTag MD tag, or null if not present
+     * @param hitStart 0-based hit start
+     * @param outputFilename .maf file to write, or null for none
+     * @return alignment, or null
+     */
+    private Alignment processAlignment(String alignmentFile, String queryName, int flags, String hitName, int hitStart, int mapQuality, String cigar, int[] cigarOps, String csTag, String mdTag, String seq, String outputFilename, ReadSetStats overallStats) {
+        boolean mapped = ((flags & 0x04) == 0x04) ? false:true;
+        Alignment al = null;
+        
         if (mapped) {
             if (!seq.startsWith("*")) {
                 ReferenceSequence readReference = references.getReferenceById(hitName);
                 if (readReference != null) {        
                     int readLength = overallStats.getReadLength(alignmentFile, queryName);
                     if (readLength != -1) {
-                        CIGARString cs = new CIGARString(cigar, seq, leafName, queryName, hitStart, options.getReferenceFile(), readReference, alignmentFile);
-                        if (cs.processString()) {
-                        //System.out.println("hitName "+hitName);
-                            al = new Alignment(mapQuality,
-                                               queryName, 
-                                               readLength,
-                                               cs.getQueryStart(),
-                                               cs.getQueryAlnSize(),
-                                               cs.getQueryString(),
-                                               hitName,
-                                               readReference.getSize(),
-                                               hitStart,
-                                               cs.getHitAlnSize(),
-                                               cs.getHitString(),
-                                               false); 
+                        AlignmentDifferences differences = null;
+                        
+                        // If cs or MD tag present, differences from the reference are already known
+                        if ((csTag != null) || (mdTag != null)) {
+                            differences = new AlignmentDifferences(seq, queryName, cigar, cigarOps);
+                            if (!(csTag != null ? differences.parseCSTag(csTag) : differences.parseMDTag(mdTag))) {
+                                options.getLog().debug("Couldn't use "+(csTag != null ? "cs":"MD")+" tag for "+queryName+" - using reference");
+                                differences = null;
+                            }
+                        }
+                        
+                        if (differences != null) {
+                            if (differences.isProcessed()) {
+                                al = new Alignment(mapQuality,
+                                                   queryName,
+                                                   readLength,
+                                                   differences.getQueryStart(),
+                                                   differences.getQueryAlnSize(),
+                                                   differences,
+                                                   hitName,
+                                                   readReference.getSize(),
+                                                   hitStart,
+                                                   differences.getHitAlnSize(),
+                                                   false);
+                            }
+                        } else {
+                            CIGARString cs;
+                            if (cigarOps != null) {
+                                cs = new CIGARString(cigarOps, seq, leafName, queryName, hitStart, options.getReferenceFile(), references.getSequenceStore(), readReference, alignmentFile);
+                            } else {
+                                cs = new CIGARString(cigar, seq, leafName, queryName, hitStart, options.getReferenceFile(), references.getSequenceStore(), readReference, alignmentFile);
+                            }
+                            if (cs.processString()) {
+                            //System.out.println("hitName "+hitName);
+                                al = new Alignment(mapQuality,
+                                                   queryName, 
+                                                   readLength,
+                                                   cs.getQueryStart(),
+                                                   cs.getQueryAlnSize(),
+                                                   cs.getDifferences(),
+                                                   hitName,
+                                                   readReference.getSize(),
+                                                   hitStart,
+                                                   cs.getHitAlnSize(),
+                                                   false); 
+                            }
+                        }
 
+                        if (al != null) {
                             // Check for reverse complement
                             if ((flags & 0x10) == 0x10) {
                                 al.setQueryStrand("-");
                             }
 
-                            al.writeMafFile(outputFilename);
-
+                            if (outputFilename != null) {
+                                al.writeMafFile(outputFilename, references.getSequenceStore());
+                            }
                         }
 
                     } else {
@@ -159,37 +233,94 @@ public abstract class SAMParser {
     }
     
     public int parseFile(String filename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
-        alignments = new ArrayList();
-        referenceSizes = new Hashtable();
-        leafName = new File(filename).getName();
+        ArrayList<String> lines = new ArrayList<String>();
         
-        // Read all alignmnets and put into an ArrayList
         try
         {
-            options.getLog().println("Got file");
+            options.getLog().debug("Got file");
             BufferedReader br = new BufferedReader(new FileReader(filename));
             String line;
             
-            do {
-                line = br.readLine();
-                if (line != null) {
-                    if (line.startsWith("@SQ")) {
-                        processReferenceTag(line);
-                    } else if (line.startsWith("@PG")) {
-                        processProgramTag(line);
-                    } else if (!line.startsWith("@")) {
-                        options.getLog().println("Got line");
-                        Alignment al = processAlignmentLine(filename, line, filename+".last", overallStats);
-                        if (al != null) {
-                            alignments.add(al);
-                        }                         
-                        options.getLog().println("Added");
-                    }
-                }
-            } while (line != null);            
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
             br.close();
+        } catch (Exception e) {
+            System.out.println("parseFile Exception:");
+            e.printStackTrace();
+            options.getLog().warn("Exception parsing "+filename);
+            options.getLog().close();
+            System.exit(1);
+        }
+        
+        return parseLines(filename, new File(filename).getName(), lines, filename+".last", nonAlignedSummaryFile, overallStats);
+    }
+    
+    /**
+     * Parse the alignments for one read, already read into memory. Unlike
+     * parseFile, no per-read .last file is written.
+     * @param filename name of source, used to look up read
+     * @param name name of read, for the summary file if it doesn't align
+     * @param lines SAM lines
+     * @param nonAlignedSummaryFile an AlignmentTableFile to output details of anything that doesn't align to
+     * @return number of alignments parsed
+     */
+    public int parseAlignments(String filename, String name, List<String> lines, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        return parseLines(filename, name, lines, null, nonAlignedSummaryFile, overallStats);
+    }
+    
+    /**
+     * Parse the alignments for one read from a BAM file.
+     * @param filename name of source, used to look up read
+     * @param name name of read, for the summary file if it doesn't align
+     * @param records BAM records
+     * @param nonAlignedSummaryFile an AlignmentTableFile to output details of anything that doesn't align to
+     * @return number of alignments parsed
+     */
+    public int parseRecords(String filename, String name, List<BAMRecord> records, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        alignments = new ArrayList();
+        leafName = name;
+        
+        for (int i=0; i<records.size(); i++) {
+            Alignment al = processRecord(filename, records.get(i), overallStats);
+            if (al != null) {
+                alignments.add(al);
+            }
+        }
+        
+        if (alignments.size() == 0) {
+            nonAlignedSummaryFile.writeNoAlignmentMessage(leafName);
+            overallStats.addReadWithoutAlignment();
+        }
+        
+        return alignments.size();
+    }
+    
+    private int parseLines(String filename, String name, List<String> lines, String mafFilename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        alignments = new ArrayList();
+        referenceSizes = new Hashtable();
+        leafName = name;
+        
+        // Read all alignmnets and put into an ArrayList
+        try
+        {
+            for (int i=0; i<lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith("@SQ")) {
+                    processReferenceTag(line);
+                } else if (line.startsWith("@PG")) {
+                    processProgramTag(line);
+                } else if (!line.startsWith("@")) {
+                    options.getLog().debug("Got line");
+                    Alignment al = processAlignmentLine(filename, line, mafFilename, overallStats);
+                    if (al != null) {
+                        alignments.add(al);
+                    }                         
+                    options.getLog().debug("Added");
+                }
+            }
  
-            options.getLog().println("Finished file");
+            options.getLog().debug("Finished file");
             
             if (alignments.size() == 0) {
                 nonAlignedSummaryFile.writeNoAlignmentMessage(leafName);
@@ -199,12 +330,12 @@ public abstract class SAMParser {
         } catch (Exception e) {
             System.out.println("parseFile Exception:");
             e.printStackTrace();
-            options.getLog().println("Exception parsing "+filename);
+            options.getLog().warn("Exception parsing "+filename);
             options.getLog().close();
             System.exit(1);
         }
                 
-        options.getLog().println("Returning");
+        options.getLog().debug("Returning");
 
         return alignments.size();
     }
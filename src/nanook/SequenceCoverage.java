@@ -1,80 +1,163 @@
+
 package nanook;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 
 /**
- * Represent reference coverage
- * 
+ * Represent reference coverage. Alignments are stored as difference arrays,
+ * so adding one is constant time whatever its length, and depth is only
+ * found by a prefix sum when the coverage is written.
+ *
+ * By default, coverage is kept per bin - bases falling in partly covered
+ * bins at each end of an alignment are added directly and wholly covered
+ * bins go into a difference array. In per base mode, depth at every position
+ * is kept in a difference array held in a memory mapped temporary file, so
+ * it doesn't take up heap. This is meant for small references, such as
+ * bacteria and viruses.
+ *
  * @author Richard Leggett
  */
 public class SequenceCoverage implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
-    private int[] coverage;
+    public final static int MAX_PER_BASE_SIZE = 100000000;
+    private int[] binBases;
+    private int[] fullBins;
+    private transient IntBuffer baseDifferences = null;
     private int numBins = 1000;
     private int genomeSize = 0;
     private int binSize = 1;
-    private boolean binEarly = false;
-    
-    public SequenceCoverage(int s) {
+    private boolean perBase = false;
+
+    public SequenceCoverage(int s, boolean p) {
         genomeSize = s;
 
         // Approx hundred bins for coverage
         float b = genomeSize / 100;
-        
+
         // Make a multiple of 10, 100 or 500...
         if (genomeSize < 50000) {
-            binSize = 10 * (1 + Math.round(b / 10));   
+            binSize = 10 * (1 + Math.round(b / 10));
         } else if (genomeSize < 500000) {
-            binSize = 100 * (1 + Math.round(b / 100));   
+            binSize = 100 * (1 + Math.round(b / 100));
         } else {
-            binSize = 500 * (1 + Math.round(b / 500));   
-        }        
+            binSize = 500 * (1 + Math.round(b / 500));
+        }
 
         //binSize=50;
-        
+
         numBins = (int) Math.ceil(genomeSize / (double)binSize);
-        
-        
-        // Bin early for large genomes
-        if (genomeSize < 10000000) {
-            binEarly = false;
-        } else {
-            binEarly = true;
+
+        if (p && (genomeSize > MAX_PER_BASE_SIZE)) {
+            System.out.println("Warning: reference of size " + genomeSize + " too large for per base coverage - using bins");
+            p = false;
         }
-        
-        // Force this for now
-        binEarly = true;
-        
-        if (binEarly) {
-            coverage = new int[numBins];
-        } else {
-            coverage = new int[genomeSize];
+
+        perBase = p;
+
+        if (!perBase) {
+            binBases = new int[numBins];
+            fullBins = new int[numBins];
+        }
+    }
+
+    /**
+     * Check if coverage is per base
+     * @return true if per base
+     */
+    public boolean isPerBase() {
+        return perBase;
+    }
+
+    /**
+     * Map per base difference array, when first needed.
+     */
+    private IntBuffer getBaseDifferences() {
+        if (baseDifferences == null) {
+            try {
+                File f = File.createTempFile("nanook_coverage", ".tmp");
+                f.deleteOnExit();
+                RandomAccessFile raf = new RandomAccessFile(f, "rw");
+                FileChannel channel = raf.getChannel();
+                baseDifferences = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4L * (genomeSize + 1)).asIntBuffer();
+                raf.close();
+                // Mapping stays valid - on most systems, file can go now
+                f.delete();
+            } catch (IOException e) {
+                System.out.println("SequenceCoverage exception:");
+                e.printStackTrace();
+                System.exit(1);
+            }
         }
+
+        return baseDifferences;
     }
-    
+
     /**
-     * Increment coverage between two points.
+     * Increment coverage between two points. Not synchronized - each
+     * thread adds to its own object, which are merged with add.
      * @param start start position
      * @param size size
      */
-    public synchronized void addCoverage(int start, int size) {
-        for (int i=start; i<(start+size); i++) {
-            if (binEarly) {
-                int b = i/binSize;
-                if (b < numBins) {
-                    coverage[b]++;
+    public void addCoverage(int start, int size) {
+        int s = Math.max(start, 0);
+
+        if (perBase) {
+            int e = Math.min(start + size, genomeSize);
+            if (e > s) {
+                IntBuffer d = getBaseDifferences();
+                d.put(s, d.get(s) + 1);
+                d.put(e, d.get(e) - 1);
+            }
+        } else {
+            int e = Math.min(start + size, numBins * binSize);
+            if (e > s) {
+                int firstBin = s / binSize;
+                int lastBin = (e - 1) / binSize;
+
+                if (firstBin == lastBin) {
+                    binBases[firstBin] += e - s;
+                } else {
+                    binBases[firstBin] += ((firstBin + 1) * binSize) - s;
+                    binBases[lastBin] += e - (lastBin * binSize);
+                    if (lastBin > (firstBin + 1)) {
+                        fullBins[firstBin + 1]++;
+                        fullBins[lastBin]--;
+                    }
                 }
-            } else {
-                if (i < genomeSize) {
-                    coverage[i]++;
+            }
+        }
+    }
+
+    /**
+     * Add coverage from another object, for the same reference.
+     * @param c coverage to add
+     */
+    public synchronized void add(SequenceCoverage c) {
+        if (perBase) {
+            if (c.baseDifferences != null) {
+                IntBuffer d = getBaseDifferences();
+                for (int i=0; i<=genomeSize; i++) {
+                    int n = c.baseDifferences.get(i);
+                    if (n != 0) {
+                        d.put(i, d.get(i) + n);
+                    }
                 }
             }
+        } else {
+            for (int i=0; i<numBins; i++) {
+                binBases[i] += c.binBases[i];
+                fullBins[i] += c.fullBins[i];
+            }
         }
     }
-    
+
     /**
      * Write coverage file for later graph plotting.
      * @param filename output filename
@@ -82,15 +165,19 @@ public class SequenceCoverage implements Serializable {
      */
     private synchronized void binAndWriteCoverageData(String filename, int pbinSize) {
         try {
-            PrintWriter pw = new PrintWriter(new FileWriter(filename));            
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            int depth = 0;
             for (int i=0; i<(genomeSize-pbinSize); i+=pbinSize) {
                 int count = 0;
                 for (int j=0; j<pbinSize; j++) {
-                    count += coverage[i+j];
+                    if (baseDifferences != null) {
+                        depth += baseDifferences.get(i+j);
+                    }
+                    count += depth;
                 }
                 pw.printf("%d\t%.2f", i, ((double)count / (double)pbinSize));
                 pw.println("");
-            }            
+            }
             pw.close();
         } catch (IOException e) {
             System.out.println("writeCoverageData exception:");
@@ -98,7 +185,7 @@ public class SequenceCoverage implements Serializable {
             System.exit(1);
         }
     }
-        
+
     /**
      * Write coverage file for later graph plotting.
      * @param filename output filename
@@ -106,15 +193,18 @@ public class SequenceCoverage implements Serializable {
      */
     private synchronized void writeBinnedCoverageData(String filename) {
         try {
-            PrintWriter pw = new PrintWriter(new FileWriter(filename));            
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            int fullCount = 0;
             for (int i=0; i<numBins-1; i++) {
-                double c = (double)coverage[i] / (double)binSize;
+                fullCount += fullBins[i];
+                int count = binBases[i] + (fullCount * binSize);
+                double c = (double)count / (double)binSize;
                 if (i == (numBins - 1)) {
-                    c = (double)coverage[i] / (double)(genomeSize - (i*binSize));
+                    c = (double)count / (double)(genomeSize - (i*binSize));
                 }
                 pw.printf("%d\t%.2f", i*binSize, c);
                 pw.println("");
-            }            
+            }
             pw.close();
         } catch (IOException e) {
             System.out.println("writeCoverageData exception:");
@@ -122,18 +212,44 @@ public class SequenceCoverage implements Serializable {
             System.exit(1);
         }
     }
-    
+
     /**
      * Write coverage file for later graph plotting.
      * @param filename output filename
      * @param binSize bin size
      */
     public synchronized void writeCoverageData(String filename, int binSize) {
-        if (binEarly) {
-            writeBinnedCoverageData(filename);
-        } else {
+        if (perBase) {
             binAndWriteCoverageData(filename, binSize);
+        } else {
+            writeBinnedCoverageData(filename);
+        }
+    }
+
+    /**
+     * Write depth at each position, if coverage is per base.
+     * @param filename output filename
+     */
+    public synchronized void writePerBaseCoverageData(String filename) {
+        if (!perBase) {
+            return;
+        }
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            int depth = 0;
+            for (int i=0; i<genomeSize; i++) {
+                if (baseDifferences != null) {
+                    depth += baseDifferences.get(i);
+                }
+                pw.printf("%d\t%d", i, depth);
+                pw.println("");
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("writePerBaseCoverageData exception:");
+            e.printStackTrace();
+            System.exit(1);
         }
     }
-    
 }
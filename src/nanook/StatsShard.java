@@ -0,0 +1,112 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.HashMap;
+
+/**
+ * Per-thread accumulator for the statistics AlignmentMerger gathers for a
+ * read set. Each parser thread gets its own shard from ReadSetStats, so
+ * counting errors and kmers needs no locks. Shards are merged into the
+ * shared ReadSetStats and ReferenceSequenceStats once all reads are parsed.
+ *
+ * @author Richard Leggett
+ */
+public class StatsShard {
+    MotifStatistics motifStats = new MotifStatistics();
+    int substitutionErrors[][] = new int[4][4];
+    int nSubstitutions = 0;
+    int nInsertions = 0;
+    int nDeletions = 0;
+    int nReadsWithAlignments = 0;
+    IntHistogram readBestPerfectKmer = new IntHistogram();
+    HashMap<String, ReferenceStatsShard> referenceShards = new HashMap<String, ReferenceStatsShard>();
+
+    /**
+     * Get shard for a reference, creating if necessary.
+     * @param reference reference sequence
+     * @return shard
+     */
+    public ReferenceStatsShard getReferenceShard(ReferenceSequence reference) {
+        ReferenceStatsShard s = referenceShards.get(reference.getId());
+
+        if (s == null) {
+            s = new ReferenceStatsShard(reference.getSize(), reference.doPerBaseCoverage());
+            referenceShards.put(reference.getId(), s);
+        }
+
+        return s;
+    }
+
+    /**
+     * Store a deletion error.
+     * @param r reference shard
+     * @param size size of deletion
+     * @param bases last bases of perfect sequence prior to error, most recent last
+     * @param length length of perfect sequence prior to error
+     */
+    public void addDeletionError(ReferenceStatsShard r, int size, char[] bases, int length) {
+        if (r.addDeletionError(size)) {
+            motifStats.addDeletionMotifs(bases, length);
+            nDeletions++;
+        }
+    }
+
+    /**
+     * Store an insertion error.
+     * @param r reference shard
+     * @param size size of insertion
+     * @param bases last bases of perfect sequence prior to error, most recent last
+     * @param length length of perfect sequence prior to error
+     */
+    public void addInsertionError(ReferenceStatsShard r, int size, char[] bases, int length) {
+        if (r.addInsertionError(size)) {
+            motifStats.addInsertionMotifs(bases, length);
+            nInsertions++;
+        }
+    }
+
+    /**
+     * Store a substitution error.
+     * @param r reference shard
+     * @param bases last bases of perfect sequence prior to error, most recent last
+     * @param length length of perfect sequence prior to error
+     * @param refChar reference base
+     * @param subChar substituted base
+     */
+    public void addSubstitutionError(ReferenceStatsShard r, char[] bases, int length, char refChar, char subChar) {
+        int rb = ReadSetStats.getBaseIndex(refChar);
+        int sb = ReadSetStats.getBaseIndex(subChar);
+
+        r.addSubstitutionError();
+        motifStats.addSubstitutionMotifs(bases, length);
+
+        if (sb < 0) {
+            System.out.println("Warning: Unknown base ("+refChar+") in read");
+        }
+
+        if ((rb >= 0) && (sb >= 0)) {
+            nSubstitutions++;
+            substitutionErrors[rb][sb]++;
+        }
+    }
+
+    /**
+     * Store a read with an alignment and its best perfect kmer.
+     * @param bestKmer length of best perfect kmer
+     */
+    public void addReadWithAlignment(int bestKmer) {
+        if (bestKmer >= NanoOKOptions.MAX_KMER) {
+            System.out.println("Error: the unlikely event of a best kmer size of "+bestKmer+" has happened! (Max "+NanoOKOptions.MAX_KMER+")");
+            System.exit(1);
+        }
+
+        nReadsWithAlignments++;
+        readBestPerfectKmer.add(bestKmer);
+    }
+}
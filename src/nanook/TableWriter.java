@@ -0,0 +1,124 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Output table written in the background. Rows are queued without blocking
+ * and written by a single TableWriterRunnable thread shared by all tables,
+ * which keeps a buffered file open and flushes on size or time. So parsing
+ * threads don't open, append to and close the file for each row, or wait
+ * on each other to do so.
+ *
+ * Rows from different threads arrive in no fixed order. If sortRows is set,
+ * rows are kept until the table is closed, then written in sorted order, so
+ * output is the same from run to run.
+ *
+ * @author Richard Leggett
+ */
+public class TableWriter {
+    private static TableWriterRunnable writerRunnable = null;
+    String filename;
+    boolean sortRows;
+    ConcurrentLinkedQueue<String> rows = new ConcurrentLinkedQueue<String>();
+    AtomicBoolean scheduled = new AtomicBoolean(false);
+    volatile boolean closeRequested = false;
+    CountDownLatch closed = new CountDownLatch(1);
+    ArrayList<String> sortedRows = null;
+
+    /**
+     * Constructor - creates file, writing header if given
+     * @param f filename
+     * @param header header line, or null for none
+     * @param s true to write rows in sorted order
+     */
+    public TableWriter(String f, String header, boolean s) {
+        filename = f;
+        sortRows = s;
+
+        if (sortRows) {
+            sortedRows = new ArrayList<String>();
+        }
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            if (header != null) {
+                pw.println(header);
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("TableWriter exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Get the shared writer thread, starting it if needed
+     * @return writer
+     */
+    private static synchronized TableWriterRunnable getWriterRunnable() {
+        if (writerRunnable == null) {
+            writerRunnable = new TableWriterRunnable();
+            Thread t = new Thread(writerRunnable, "TableWriter");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        return writerRunnable;
+    }
+
+    /**
+     * Queue table for writer thread, unless already queued
+     */
+    private void schedule() {
+        if (!scheduled.getAndSet(true)) {
+            getWriterRunnable().schedule(this);
+        }
+    }
+
+    /**
+     * Queue a row to be written. Doesn't block.
+     * @param row row, without line ending
+     */
+    public void writeRow(String row) {
+        if (closeRequested) {
+            System.out.println("Warning: row written to closed table " + filename);
+            return;
+        }
+
+        rows.add(row);
+        schedule();
+    }
+
+    /**
+     * Write any queued rows and close file. Waits until done.
+     */
+    public void close() {
+        if (closeRequested) {
+            return;
+        }
+
+        closeRequested = true;
+        getWriterRunnable().schedule(this);
+
+        try {
+            closed.await();
+        } catch (InterruptedException e) {
+            System.out.println("TableWriter exception:");
+            e.printStackTrace();
+        }
+    }
+}
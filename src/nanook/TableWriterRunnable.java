@@ -0,0 +1,151 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread which writes queued rows for all TableWriters. Being the only
+ * writer, it needs no locks on files. Files are kept open between rows,
+ * up to MAX_OPEN_FILES - after that, the least recently written is closed
+ * and reopened for append when next needed, which can happen with many
+ * reference sequences. Data reaches disk when a buffer fills, and at least
+ * every FLUSH_INTERVAL milliseconds.
+ *
+ * @author Richard Leggett
+ */
+public class TableWriterRunnable implements Runnable {
+    private final static int MAX_OPEN_FILES = 256;
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static long FLUSH_INTERVAL = 2000;
+    private final static String LINE_SEPARATOR = System.getProperty("line.separator");
+    private LinkedBlockingQueue<TableWriter> scheduledTables = new LinkedBlockingQueue<TableWriter>();
+    private LinkedHashMap<TableWriter, Writer> openFiles = new LinkedHashMap<TableWriter, Writer>(16, 0.75f, true);
+    private boolean unflushed = false;
+
+    /**
+     * Queue a table with rows to write, or to close
+     * @param t table
+     */
+    public void schedule(TableWriter t) {
+        scheduledTables.add(t);
+    }
+
+    /**
+     * Get open file for a table, opening it for append if needed
+     * @param t table
+     * @return writer
+     */
+    private Writer getFile(TableWriter t) throws IOException {
+        Writer w = openFiles.get(t);
+
+        if (w == null) {
+            if (openFiles.size() >= MAX_OPEN_FILES) {
+                Iterator<Writer> it = openFiles.values().iterator();
+                it.next().close();
+                it.remove();
+            }
+
+            w = new BufferedWriter(new FileWriter(t.filename, true), BUFFER_SIZE);
+            openFiles.put(t, w);
+        }
+
+        return w;
+    }
+
+    /**
+     * Write queued rows for a table, and close it if requested
+     * @param t table
+     */
+    private void writeRows(TableWriter t) throws IOException {
+        String row;
+
+        // Already closed - could have been queued twice
+        if (t.closed.getCount() == 0) {
+            return;
+        }
+
+        t.scheduled.set(false);
+
+        while ((row = t.rows.poll()) != null) {
+            if (t.sortRows) {
+                t.sortedRows.add(row);
+            } else {
+                Writer w = getFile(t);
+                w.write(row);
+                w.write(LINE_SEPARATOR);
+                unflushed = true;
+            }
+        }
+
+        if (t.closeRequested && t.rows.isEmpty()) {
+            if (t.sortRows) {
+                Collections.sort(t.sortedRows);
+                Writer w = getFile(t);
+                for (int i=0; i<t.sortedRows.size(); i++) {
+                    w.write(t.sortedRows.get(i));
+                    w.write(LINE_SEPARATOR);
+                }
+                t.sortedRows = null;
+            }
+
+            Writer w = openFiles.remove(t);
+            if (w != null) {
+                w.close();
+            }
+
+            t.closed.countDown();
+        }
+    }
+
+    /**
+     * Flush all open files
+     */
+    private void flushAll() throws IOException {
+        for (Writer w : openFiles.values()) {
+            w.flush();
+        }
+        unflushed = false;
+    }
+
+    /**
+     * Entry point to thread
+     */
+    public void run() {
+        long lastFlush = System.currentTimeMillis();
+
+        try {
+            while (true) {
+                TableWriter t = scheduledTables.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+                if (t != null) {
+                    writeRows(t);
+                }
+
+                if (unflushed && ((System.currentTimeMillis() - lastFlush) >= FLUSH_INTERVAL)) {
+                    flushAll();
+                    lastFlush = System.currentTimeMillis();
+                } else if (!unflushed) {
+                    lastFlush = System.currentTimeMillis();
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("TableWriterRunnable exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
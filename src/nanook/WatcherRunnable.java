@@ -102,5 +102,7 @@ public class WatcherRunnable implements Runnable {
             }
         }
         //}
+        
+        inputFile.close();
     }    
 }